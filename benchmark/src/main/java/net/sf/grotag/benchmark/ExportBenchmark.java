@@ -0,0 +1,125 @@
+package net.sf.grotag.benchmark;
+
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.guide.DocBookDomFactory;
+import net.sf.grotag.guide.DomWriter;
+import net.sf.grotag.guide.Guide;
+import net.sf.grotag.guide.GuidePile;
+import net.sf.grotag.guide.HtmlDomFactory;
+import net.sf.grotag.guide.HtmlStreamWriter;
+import net.sf.grotag.guide.NodeInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+/**
+ * Benchmarks for the stages that export a pile that already has been read,
+ * comparing HTML documents built as DOM with HTML written as stream.
+ *
+ * @author Thomas Aglassinger
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExportBenchmark {
+    private GuidePile pile;
+    private Guide guide;
+    private HtmlDomFactory htmlFactory;
+    private DomWriter htmlWriter;
+    private DomWriter docBookWriter;
+    private Document docBookDocument;
+    private File htmlFile;
+    private File docBookFile;
+    private CharArrayWriter streamTarget;
+
+    @Setup
+    public void setUp(GeneratedPile generatedPile) throws Exception {
+        File htmlFolder = new File(generatedPile.getFolder(), "html");
+        pile = GuidePile.createGuidePile(generatedPile.getGuideFile(), new AmigaPathList());
+        guide = pile.getGuides().get(0);
+        htmlFactory = new HtmlDomFactory(pile, htmlFolder);
+        htmlWriter = new DomWriter(DomWriter.Dtd.HTML);
+        htmlFile = new File(htmlFolder, "benchmark.html");
+        docBookWriter = new DomWriter(DomWriter.Dtd.DOCBOOK);
+        docBookDocument = new DocBookDomFactory(pile).createBook();
+        docBookFile = new File(generatedPile.getFolder(), "benchmark.xml");
+        streamTarget = new CharArrayWriter();
+    }
+
+    /**
+     * Create the HTML documents for all nodes in the first guide.
+     */
+    @Benchmark
+    public void createNodeDocuments(Blackhole blackhole) throws ParserConfigurationException, IOException {
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            blackhole.consume(htmlFactory.createNodeDocument(guide, nodeInfo));
+        }
+    }
+
+    /**
+     * Create and write the HTML documents for all nodes in the first guide
+     * as DOM, using the same file for all of them.
+     */
+    @Benchmark
+    public void writeNodeDocumentsAsDom() throws ParserConfigurationException, IOException, TransformerException {
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            htmlWriter.write(htmlFactory.createNodeDocument(guide, nodeInfo), htmlFile);
+        }
+    }
+
+    /**
+     * Write the HTML documents for all nodes in the first guide as stream to
+     * memory.
+     */
+    @Benchmark
+    public void writeNodeDocumentsAsStream(Blackhole blackhole) throws IOException {
+        List<NodeInfo> nodeInfos = guide.getNodeInfos();
+        for (NodeInfo nodeInfo : nodeInfos) {
+            streamTarget.reset();
+            HtmlStreamWriter streamWriter = new HtmlStreamWriter(streamTarget, DomWriter.Dtd.HTML,
+                    DomWriter.DEFAULT_ENCODING);
+            htmlFactory.writeNodeDocument(guide, nodeInfo, streamWriter);
+            blackhole.consume(streamTarget.size());
+        }
+    }
+
+    /**
+     * Create the DocBook document for the whole pile. A new factory is needed
+     * each time because the factory appends the book to its DOM.
+     */
+    @Benchmark
+    public Document createBook() throws ParserConfigurationException, IOException {
+        return new DocBookDomFactory(pile).createBook();
+    }
+
+    /**
+     * Write the DocBook document for the whole pile, which is the largest DOM
+     * Grotag creates.
+     */
+    @Benchmark
+    public void writeBook() throws IOException, TransformerException {
+        docBookWriter.write(docBookDocument, docBookFile);
+    }
+}
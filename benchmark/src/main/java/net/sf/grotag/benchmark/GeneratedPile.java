@@ -0,0 +1,92 @@
+package net.sf.grotag.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.Tools;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark state holding a pile of guides created by
+ * <code>GuideGenerator</code> in a temporary folder. The parameters can be
+ * changed from the command line, for example
+ * <code>-p nodeCount=5000 -p macroUsage=0.5</code>.
+ *
+ * @author Thomas Aglassinger
+ */
+@State(Scope.Benchmark)
+public class GeneratedPile {
+    @Param( { "100", "1000" })
+    public int nodeCount;
+
+    @Param( { "40" })
+    public int linesPerNode;
+
+    @Param( { "72" })
+    public int lineLength;
+
+    @Param( { "4" })
+    public int linksPerNode;
+
+    @Param( { "0.1" })
+    public double macroUsage;
+
+    @Param( { "4" })
+    public int guideCount;
+
+    /**
+     * Logger of Grotag, which has to be referred to so its level does not get
+     * lost.
+     */
+    private Logger grotagLog;
+    private File folder;
+    private File guideFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Reading guides logs each of them, which would distort the results.
+        // Tools has to be set up first because it reads the logging setup.
+        Tools tools = Tools.getInstance();
+        grotagLog = Logger.getLogger("net.sf.grotag");
+        grotagLog.setLevel(Level.WARNING);
+
+        GuideGenerator generator = new GuideGenerator();
+        generator.setNodeCount(nodeCount);
+        generator.setLinesPerNode(linesPerNode);
+        generator.setLineLength(lineLength);
+        generator.setLinksPerNode(linksPerNode);
+        generator.setMacroUsage(macroUsage);
+        generator.setGuideCount(guideCount);
+
+        folder = File.createTempFile("grotag-benchmark-", "");
+        tools.delete(folder);
+        guideFile = generator.writePile(folder);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Tools.getInstance().attemptToDeleteAll(folder);
+    }
+
+    /**
+     * The first guide of the pile, from which all others can be reached.
+     */
+    public File getGuideFile() {
+        return guideFile;
+    }
+
+    /**
+     * The folder where the guides are stored. Benchmarks can use sub folders
+     * of it to store output files.
+     */
+    public File getFolder() {
+        return folder;
+    }
+}
@@ -0,0 +1,283 @@
+package net.sf.grotag.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generator for synthetic Amigaguide documents to feed benchmarks. The
+ * generated guides are syntactically valid so that no messages are reported
+ * while reading them, and they are the same for the same settings because the
+ * random number generator always starts with the same seed.
+ *
+ * @author Thomas Aglassinger
+ */
+public class GuideGenerator {
+    private static final String ENCODING = "ISO-8859-1";
+    private static final String MACRO_NAME = "emphasize";
+    private static final long SEED = 4711;
+    private static final String[] WORDS = new String[] { "amiga", "guide", "node", "link", "text", "hypertext",
+            "document", "window", "screen", "workbench", "preferences", "example", "some", "more", "and", "the",
+            "with", "of", "a", "to", "\u00e4pfel", "gr\u00fc\u00dfe" };
+
+    private int nodeCount;
+    private int linesPerNode;
+    private int lineLength;
+    private int linksPerNode;
+    private double macroUsage;
+    private int guideCount;
+    private boolean isEndNodeOmitted;
+    private Random random;
+
+    public GuideGenerator() {
+        nodeCount = 100;
+        linesPerNode = 40;
+        lineLength = 72;
+        linksPerNode = 4;
+        macroUsage = 0.1;
+        guideCount = 1;
+    }
+
+    /**
+     * Number of nodes in each guide, including "main".
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public void setNodeCount(int newNodeCount) {
+        assert newNodeCount > 0;
+        nodeCount = newNodeCount;
+    }
+
+    /**
+     * Number of text lines in each node.
+     */
+    public int getLinesPerNode() {
+        return linesPerNode;
+    }
+
+    public void setLinesPerNode(int newLinesPerNode) {
+        assert newLinesPerNode > 0;
+        linesPerNode = newLinesPerNode;
+    }
+
+    /**
+     * Approximate number of characters in each text line, not counting
+     * commands.
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    public void setLineLength(int newLineLength) {
+        assert newLineLength > 0;
+        lineLength = newLineLength;
+    }
+
+    /**
+     * Number of links in each node. If there is more than one guide, some of
+     * them point to other guides.
+     */
+    public int getLinksPerNode() {
+        return linksPerNode;
+    }
+
+    public void setLinksPerNode(int newLinksPerNode) {
+        assert newLinksPerNode >= 0;
+        linksPerNode = newLinksPerNode;
+    }
+
+    /**
+     * Probability between 0 and 1 that a text line contains a macro call.
+     */
+    public double getMacroUsage() {
+        return macroUsage;
+    }
+
+    public void setMacroUsage(double newMacroUsage) {
+        assert (newMacroUsage >= 0) && (newMacroUsage <= 1);
+        macroUsage = newMacroUsage;
+    }
+
+    /**
+     * Number of guides <code>writePile()</code> creates.
+     */
+    public int getGuideCount() {
+        return guideCount;
+    }
+
+    public void setGuideCount(int newGuideCount) {
+        assert newGuideCount > 0;
+        guideCount = newGuideCount;
+    }
+
+    /**
+     * Should the generated nodes lack <code>@endnode</code>, so that Grotag
+     * has to add it?
+     */
+    public boolean isEndNodeOmitted() {
+        return isEndNodeOmitted;
+    }
+
+    public void setEndNodeOmitted(boolean newEndNodeOmitted) {
+        isEndNodeOmitted = newEndNodeOmitted;
+    }
+
+    /**
+     * Name of the guide with index <code>guideIndex</code> within a pile.
+     */
+    public String getGuideName(int guideIndex) {
+        assert guideIndex >= 0;
+        return "guide" + guideIndex + ".guide";
+    }
+
+    /**
+     * Write a single guide without links to other guides to
+     * <code>targetFile</code>.
+     */
+    public void writeGuide(File targetFile) throws IOException {
+        assert targetFile != null;
+
+        random = new Random(SEED);
+        writeGuide(targetFile, 0, 1);
+    }
+
+    /**
+     * Write <code>getGuideCount()</code> guides linking to each other to
+     * <code>targetFolder</code>.
+     *
+     * @return the first guide, from which all other guides can be reached
+     */
+    public File writePile(File targetFolder) throws IOException {
+        assert targetFolder != null;
+
+        random = new Random(SEED);
+        for (int guideIndex = 0; guideIndex < guideCount; guideIndex += 1) {
+            writeGuide(new File(targetFolder, getGuideName(guideIndex)), guideIndex, guideCount);
+        }
+        return new File(targetFolder, getGuideName(0));
+    }
+
+    private void writeGuide(File targetFile, int guideIndex, int pileGuideCount) throws IOException {
+        File targetFolder = targetFile.getParentFile();
+        if ((targetFolder != null) && !targetFolder.exists() && !targetFolder.mkdirs()) {
+            throw new IOException("cannot create folder " + targetFolder);
+        }
+        Writer guideWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(targetFile), ENCODING));
+        try {
+            guideWriter.write("@database " + targetFile.getName() + "\n");
+            guideWriter.write("@author \"Grotag benchmark\"\n");
+            guideWriter.write("@wordwrap\n");
+            if (macroUsage > 0) {
+                guideWriter.write("@macro " + MACRO_NAME + " \"@{b}$1@{ub}\"\n");
+            }
+            for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex += 1) {
+                writeNode(guideWriter, nodeIndex, guideIndex, pileGuideCount);
+            }
+        } finally {
+            guideWriter.close();
+        }
+    }
+
+    private String getNodeName(int nodeIndex) {
+        String result;
+        if (nodeIndex == 0) {
+            result = "main";
+        } else {
+            result = "node" + nodeIndex;
+        }
+        return result;
+    }
+
+    private void writeNode(Writer guideWriter, int nodeIndex, int guideIndex, int pileGuideCount)
+            throws IOException {
+        String nodeName = getNodeName(nodeIndex);
+        guideWriter.write("\n@node " + nodeName + " \"Node " + nodeIndex + " of guide " + guideIndex + "\"\n");
+        if (nodeIndex > 0) {
+            guideWriter.write("@prev " + getNodeName(nodeIndex - 1) + "\n");
+        }
+        if (nodeIndex < nodeCount - 1) {
+            guideWriter.write("@next " + getNodeName(nodeIndex + 1) + "\n");
+        }
+
+        // Decide in advance which lines get links so that each node has
+        // exactly linksPerNode of them.
+        int[] linkCounts = new int[linesPerNode];
+        for (int linkIndex = 0; linkIndex < linksPerNode; linkIndex += 1) {
+            linkCounts[random.nextInt(linesPerNode)] += 1;
+        }
+        for (int lineIndex = 0; lineIndex < linesPerNode; lineIndex += 1) {
+            StringBuilder line = new StringBuilder();
+            int textLength = 0;
+            int linksToInsert = linkCounts[lineIndex];
+            boolean isMacroToInsert = random.nextDouble() < macroUsage;
+
+            while (textLength < lineLength) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                if (line.length() > 0) {
+                    line.append(' ');
+                    textLength += 1;
+                }
+                if ((linksToInsert > 0) && (random.nextInt(4) == 0)) {
+                    line.append("@{\"" + word + "\" link " + getLinkTarget(guideIndex, pileGuideCount) + "}");
+                    linksToInsert -= 1;
+                } else if (isMacroToInsert && (random.nextInt(4) == 0)) {
+                    line.append("@{" + MACRO_NAME + " " + word + "}");
+                    isMacroToInsert = false;
+                } else {
+                    line.append(word);
+                }
+                textLength += word.length();
+            }
+            while (linksToInsert > 0) {
+                line.append(" @{\"more\" link " + getLinkTarget(guideIndex, pileGuideCount) + "}");
+                linksToInsert -= 1;
+            }
+            guideWriter.write(line.toString());
+            guideWriter.write('\n');
+        }
+
+        // Make sure all guides of the pile are reachable from the first one.
+        if ((nodeIndex == 0) && (guideIndex < pileGuideCount - 1)) {
+            guideWriter.write("@{\"next guide\" link " + getGuideName(guideIndex + 1) + "/main}\n");
+        }
+        if (!isEndNodeOmitted) {
+            guideWriter.write("@endnode\n");
+        }
+    }
+
+    private String getLinkTarget(int guideIndex, int pileGuideCount) {
+        String result;
+        String targetNodeName = getNodeName(random.nextInt(nodeCount));
+        if ((pileGuideCount > 1) && (random.nextInt(4) == 0)) {
+            int targetGuideIndex = random.nextInt(pileGuideCount);
+            result = getGuideName(targetGuideIndex) + "/" + targetNodeName;
+        } else {
+            result = targetNodeName;
+        }
+        return result;
+    }
+
+    /**
+     * Write a guide with the default settings to the file specified as first
+     * argument, or a pile of guides to the folder specified as second argument
+     * if the first argument is "--pile".
+     */
+    public static void main(String[] arguments) throws IOException {
+        GuideGenerator generator = new GuideGenerator();
+        if ((arguments.length == 2) && arguments[0].equals("--pile")) {
+            generator.setGuideCount(4);
+            generator.writePile(new File(arguments[1]));
+        } else if (arguments.length == 1) {
+            generator.writeGuide(new File(arguments[0]));
+        } else {
+            System.err.println("usage: GuideGenerator guide-file | --pile folder");
+            System.exit(1);
+        }
+    }
+}
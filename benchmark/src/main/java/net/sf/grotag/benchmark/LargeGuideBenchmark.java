@@ -0,0 +1,86 @@
+package net.sf.grotag.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.guide.Guide;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for reading a single guide with about 100000 lines, which mostly
+ * measures the structural analysis in <code>Guide</code>. With
+ * <code>endNodeOmitted=true</code>, Grotag has to add the missing
+ * <code>@endnode</code> of every node, which includes reporting a message
+ * for each of them.
+ *
+ * @author Thomas Aglassinger
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+@State(Scope.Benchmark)
+public class LargeGuideBenchmark {
+    @Param( { "2500" })
+    public int nodeCount;
+
+    @Param( { "40" })
+    public int linesPerNode;
+
+    @Param( { "false", "true" })
+    public boolean endNodeOmitted;
+
+    /**
+     * Logger of Grotag, which has to be referred to so its level does not get
+     * lost.
+     */
+    private Logger grotagLog;
+    private File guideFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Missing @endnode results in a warning for each node. Tools has to
+        // be set up first because it reads the logging setup.
+        Tools.getInstance();
+        grotagLog = Logger.getLogger("net.sf.grotag");
+        grotagLog.setLevel(Level.SEVERE);
+
+        GuideGenerator generator = new GuideGenerator();
+        generator.setNodeCount(nodeCount);
+        generator.setLinesPerNode(linesPerNode);
+        generator.setEndNodeOmitted(endNodeOmitted);
+
+        guideFile = File.createTempFile("grotag-benchmark-", ".guide");
+        generator.writeGuide(guideFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!guideFile.delete()) {
+            guideFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public Guide createGuide() throws IOException {
+        return Guide.createGuide(guideFile, new AmigaPathList());
+    }
+}
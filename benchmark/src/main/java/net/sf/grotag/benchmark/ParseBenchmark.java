@@ -0,0 +1,96 @@
+package net.sf.grotag.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.guide.Guide;
+import net.sf.grotag.guide.GuidePile;
+import net.sf.grotag.parse.FileSource;
+import net.sf.grotag.parse.ItemReader;
+import net.sf.grotag.parse.LineTokenizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the stages that read Amigaguide documents, from tokenizing
+ * single lines to reading a whole pile of linked guides.
+ *
+ * @author Thomas Aglassinger
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    private char[] chars;
+    private int[] lineStarts;
+    private int[] lineLengths;
+    private FileSource source;
+
+    @Setup
+    public void setUp(GeneratedPile pile) throws IOException {
+        source = new FileSource(pile.getGuideFile());
+        chars = source.readChars();
+
+        int lineCount = 0;
+        for (char some : chars) {
+            if (some == '\n') {
+                lineCount += 1;
+            }
+        }
+        lineStarts = new int[lineCount];
+        lineLengths = new int[lineCount];
+        int lineStart = 0;
+        int lineIndex = 0;
+        for (int charIndex = 0; charIndex < chars.length; charIndex += 1) {
+            if (chars[charIndex] == '\n') {
+                lineStarts[lineIndex] = lineStart;
+                lineLengths[lineIndex] = charIndex - lineStart;
+                lineIndex += 1;
+                lineStart = charIndex + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    public void tokenizeLines(Blackhole blackhole) {
+        LineTokenizer tokenizer = new LineTokenizer(source);
+        for (int lineIndex = 0; lineIndex < lineStarts.length; lineIndex += 1) {
+            tokenizer.reset(lineIndex, chars, lineStarts[lineIndex], lineLengths[lineIndex]);
+            while (tokenizer.hasNext()) {
+                tokenizer.advance();
+                blackhole.consume(tokenizer.getToken());
+            }
+        }
+    }
+
+    @Benchmark
+    public ItemReader readItems() throws IOException {
+        ItemReader result = new ItemReader(source);
+        result.read();
+        return result;
+    }
+
+    @Benchmark
+    public Guide createGuide(GeneratedPile pile) throws IOException {
+        return Guide.createGuide(pile.getGuideFile(), new AmigaPathList());
+    }
+
+    @Benchmark
+    public GuidePile createGuidePile(GeneratedPile pile) throws IOException {
+        return GuidePile.createGuidePile(pile.getGuideFile(), new AmigaPathList());
+    }
+}
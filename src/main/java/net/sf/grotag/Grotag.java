@@ -3,7 +3,10 @@ package net.sf.grotag;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,10 +15,15 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.guide.BatchConverter;
 import net.sf.grotag.guide.DomWriter;
 import net.sf.grotag.guide.ExportTools;
 import net.sf.grotag.guide.Guide;
+import net.sf.grotag.guide.GuideCache;
 import net.sf.grotag.guide.GuidePile;
+import net.sf.grotag.parse.FileMessageSink;
+import net.sf.grotag.parse.MessagePool;
 import net.sf.grotag.view.GrotagFrame;
 
 import org.xml.sax.SAXException;
@@ -32,9 +40,14 @@ public class Grotag {
     private GrotagFrame viewer;
     private GrotagJsap jsap;
     private AmigaPathList amigaPaths;
+    private int threadCount;
+    private boolean isStreaming;
+    private boolean isIncremental;
+    private MessagePool messagePool;
 
     private Grotag() throws JSAPException {
         jsap = new GrotagJsap();
+        messagePool = new MessagePool();
     }
 
     private void setAmigaPaths() throws SAXException, IOException, ParserConfigurationException {
@@ -69,7 +82,42 @@ public class Grotag {
         boolean isHtml = options.getBoolean(GrotagJsap.ARG_HTML);
         boolean isPretty = options.getBoolean(GrotagJsap.ARG_PRETTY);
         boolean isValidate = options.getBoolean(GrotagJsap.ARG_VALIDATE);
-        if (isDocBook || isHtml || isPretty || isValidate || isXhtml) {
+        isStreaming = options.getBoolean(GrotagJsap.ARG_STREAM);
+        isIncremental = options.getBoolean(GrotagJsap.ARG_INCREMENTAL);
+        boolean isBatch = options.getBoolean(GrotagJsap.ARG_BATCH);
+        File fileList = options.getFile(GrotagJsap.ARG_FILE_LIST);
+        GuideCache.getInstance().setEnabled(options.getBoolean(GrotagJsap.ARG_CACHE));
+        threadCount = options.getInt(GrotagJsap.ARG_THREADS);
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("with --" + GrotagJsap.ARG_THREADS
+                    + " the number of threads must be at least 1 instead of " + threadCount);
+        }
+        setMessages(options.getString(GrotagJsap.ARG_MESSAGES), options.getInt(GrotagJsap.ARG_MESSAGE_LIMIT));
+        if ((fileList != null) && !isBatch) {
+            throw new IllegalArgumentException("--" + GrotagJsap.ARG_FILE_LIST + " must be used together with --"
+                    + GrotagJsap.ARG_BATCH);
+        }
+        if (isBatch) {
+            File files[] = options.getFileArray(GrotagJsap.ARG_FILE);
+            // According to JSAP API documentation, this is never is null.
+            assert files != null;
+            BatchConverter.Format format;
+            if (isDocBook) {
+                format = BatchConverter.Format.DOCBOOK;
+            } else if (isHtml) {
+                format = BatchConverter.Format.HTML;
+            } else if (isValidate) {
+                format = BatchConverter.Format.VALIDATE;
+            } else if (isXhtml) {
+                format = BatchConverter.Format.XHTML;
+            } else {
+                throw new IllegalArgumentException("--" + GrotagJsap.ARG_BATCH + " must be used together with --"
+                        + GrotagJsap.ARG_DOCBOOK + ", --" + GrotagJsap.ARG_HTML + ", --" + GrotagJsap.ARG_VALIDATE
+                        + " or --" + GrotagJsap.ARG_XHTML);
+            }
+            setAmigaPaths();
+            batch(files, fileList, format);
+        } else if (isDocBook || isHtml || isPretty || isValidate || isXhtml) {
             File files[] = options.getFileArray(GrotagJsap.ARG_FILE);
             // According to JSAP API documentation, this is never is null.
             assert files != null;
@@ -102,6 +150,7 @@ public class Grotag {
                 throw new IllegalArgumentException("only one Amigaguide input file must be specified for viewing");
             }
             setAmigaPaths();
+            GuideCache.getInstance().setEnabled(true);
             viewer = new GrotagFrame();
             viewer.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
             viewer.pack();
@@ -112,6 +161,63 @@ public class Grotag {
         }
     }
 
+    private void setMessages(String messages, int messageLimit) throws IOException {
+        assert messages != null;
+
+        if (messageLimit < 0) {
+            throw new IllegalArgumentException("--" + GrotagJsap.ARG_MESSAGE_LIMIT + " must be at least 0 but is "
+                    + messageLimit);
+        }
+        messagePool.setMaxItemsPerSource(messageLimit);
+        if (messages.equals(GrotagJsap.MESSAGES_NONE)) {
+            messagePool.setSink(null);
+        } else if (!messages.equals(GrotagJsap.MESSAGES_CONSOLE)) {
+            messagePool.setSink(new FileMessageSink(new File(messages)));
+        }
+    }
+
+    private void batch(File[] files, File fileList, BatchConverter.Format format) throws IOException {
+        assert files != null;
+        assert format != null;
+        List<File> inputFiles = new ArrayList<File>(Arrays.asList(files));
+        File outputFolder = null;
+
+        if (format != BatchConverter.Format.VALIDATE) {
+            if (inputFiles.isEmpty()) {
+                throw new IllegalArgumentException("with --" + GrotagJsap.ARG_BATCH
+                        + " the output folder must be specified");
+            }
+            outputFolder = inputFiles.remove(inputFiles.size() - 1);
+        }
+        if (inputFiles.isEmpty() && (fileList == null)) {
+            throw new IllegalArgumentException("with --" + GrotagJsap.ARG_BATCH
+                    + " Amigaguide input files or folders must be specified");
+        }
+
+        BatchConverter converter = new BatchConverter(format, amigaPaths, messagePool, threadCount);
+        converter.setStreaming(isStreaming);
+        converter.setIncremental(isIncremental);
+        for (File inputFile : inputFiles) {
+            converter.add(inputFile);
+        }
+        if (fileList != null) {
+            converter.addFileList(fileList);
+        }
+
+        // Only report messages instead of keeping those of all guides.
+        messagePool.setCollecting(false);
+        BatchConverter.Summary summary = converter.convert(outputFolder);
+        messagePool.flush();
+        System.out.println(summary);
+
+        List<File> failedGuideFiles = summary.getFailedGuideFiles();
+        if (!failedGuideFiles.isEmpty()) {
+            throw new IOException("cannot convert " + failedGuideFiles.size() + " of "
+                    + (failedGuideFiles.size() + summary.getPileCount()) + " piles, for example "
+                    + Tools.getInstance().sourced(failedGuideFiles.get(0)));
+        }
+    }
+
     private void docBook(File[] files) throws IOException, ParserConfigurationException, TransformerException {
         ExportTools exportTools = ExportTools.getInstance();
         int fileCount = files.length;
@@ -130,7 +236,7 @@ public class Grotag {
             throw new IllegalArgumentException("with --" + GrotagJsap.ARG_DOCBOOK
                     + " only 2 files must be specified instead of " + fileCount);
         }
-        GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths);
+        GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths, threadCount, messagePool);
         exportTools.exportAsDocBookXml(pile, outputFile);
     }
 
@@ -166,28 +272,30 @@ public class Grotag {
                     + fileCount);
         }
 
-        GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths);
-        ExportTools.getInstance().exportAsHtml(pile, outputFolder, dtd);
+        GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths, threadCount, messagePool);
+        ExportTools.getInstance().exportAsHtml(pile, outputFolder, dtd, threadCount, isStreaming,
+                isIncremental);
     }
 
     private void pretty(File[] files) throws IOException {
         for (File guideFile : files) {
-            Guide guide = Guide.createGuide(guideFile, amigaPaths);
+            Guide guide = Guide.createGuide(guideFile, amigaPaths, messagePool);
             guide.writePretty(guideFile);
         }
     }
 
     private void validate(File[] files) throws IOException {
         for (File guideFile : files) {
-            GuidePile.createGuidePile(guideFile, amigaPaths);
+            GuidePile.createGuidePile(guideFile, amigaPaths, threadCount, messagePool);
         }
     }
 
     public static void main(final String[] arguments) throws Exception {
         Logger mainLog = Logger.getLogger(Grotag.class.getName());
         int exitCode = 1;
+        Grotag grotag = null;
         try {
-            Grotag grotag = new Grotag();
+            grotag = new Grotag();
             grotag.work(arguments);
             exitCode = 0;
         } catch (IllegalArgumentException error) {
@@ -197,6 +305,10 @@ public class Grotag {
         } catch (Exception error) {
             mainLog.log(Level.SEVERE, "cannot run Grotag: " + error.getMessage(), error);
         }
+        if (grotag != null) {
+            // Make sure all messages are reported before the JVM ends.
+            grotag.messagePool.flush();
+        }
         if (exitCode > 0) {
             System.exit(exitCode);
         }
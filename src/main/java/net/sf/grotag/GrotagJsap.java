@@ -4,6 +4,7 @@ import java.io.PrintStream;
 
 import net.sf.grotag.common.Version;
 
+import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPException;
 import com.martiansoftware.jsap.JSAPResult;
@@ -18,16 +19,34 @@ import com.martiansoftware.jsap.stringparsers.FileStringParser;
  * @author Thomas Aglassinger
  */
 public class GrotagJsap extends JSAP {
+    public static final String ARG_BATCH = "batch";
+    public static final String ARG_CACHE = "cache";
     public static final String ARG_DOCBOOK = "docbook";
     public static final String ARG_FILE = "file";
+    public static final String ARG_FILE_LIST = "file-list";
     public static final String ARG_HELP = "help";
     public static final String ARG_HTML = "html";
+    public static final String ARG_INCREMENTAL = "incremental";
     public static final String ARG_LICENSE = "license";
+    public static final String ARG_MESSAGE_LIMIT = "message-limit";
+    public static final String ARG_MESSAGES = "messages";
     public static final String ARG_PRETTY = "pretty";
+    public static final String ARG_STREAM = "stream";
+    public static final String ARG_THREADS = "threads";
     public static final String ARG_VALIDATE = "validate";
     public static final String ARG_VERSION = "version";
     public static final String ARG_XHTML = "xhtml";
 
+    /**
+     * Value for <code>--messages</code> to print messages to the console.
+     */
+    public static final String MESSAGES_CONSOLE = "console";
+
+    /**
+     * Value for <code>--messages</code> to not report messages at all.
+     */
+    public static final String MESSAGES_NONE = "none";
+
     /**
      * Exactly one of these options must be specified.
      */
@@ -60,6 +79,22 @@ public class GrotagJsap extends JSAP {
                 + ", --" + ARG_PRETTY + " or --" + ARG_VALIDATE);
         registerParameter(fileOption);
 
+        Switch batchSwitch = new Switch(ARG_BATCH);
+        batchSwitch.setShortFlag('b');
+        batchSwitch.setLongFlag(ARG_BATCH);
+        batchSwitch.setHelp("with --" + ARG_DOCBOOK + ", --" + ARG_HTML + ", --" + ARG_VALIDATE + " or --"
+                + ARG_XHTML + ", process all Amigaguide files in the specified files and folders, the last of "
+                + "which is the output folder unless validating; use --" + ARG_THREADS
+                + " to process several of them at the same time");
+        registerParameter(batchSwitch);
+
+        Switch cacheSwitch = new Switch(ARG_CACHE);
+        cacheSwitch.setShortFlag('c');
+        cacheSwitch.setLongFlag(ARG_CACHE);
+        cacheSwitch.setHelp("cache parsed Amigaguide documents in ~/.grotag/cache so that unchanged documents "
+                + "can be read faster the next time; the viewer always uses the cache");
+        registerParameter(cacheSwitch);
+
         Switch docBookSwitch = new Switch(ARG_DOCBOOK);
         docBookSwitch.setShortFlag('d');
         docBookSwitch.setLongFlag(ARG_DOCBOOK);
@@ -68,6 +103,14 @@ public class GrotagJsap extends JSAP {
                 + "is written to a file with the suffix changed to \".xml\"");
         registerParameter(docBookSwitch);
 
+        FlaggedOption fileListOption = new FlaggedOption(ARG_FILE_LIST);
+        fileListOption.setShortFlag(NO_SHORTFLAG);
+        fileListOption.setLongFlag(ARG_FILE_LIST);
+        fileListOption.setStringParser(FileStringParser.getParser());
+        fileListOption.setHelp("with --" + ARG_BATCH
+                + ", also process the files and folders listed in the specified text file, one per line");
+        registerParameter(fileListOption);
+
         Switch htmlSwitch = new Switch(ARG_HTML);
         htmlSwitch.setShortFlag('w');
         htmlSwitch.setLongFlag(ARG_HTML);
@@ -76,12 +119,53 @@ public class GrotagJsap extends JSAP {
                 + "is written to the current directory");
         registerParameter(htmlSwitch);
 
+        Switch incrementalSwitch = new Switch(ARG_INCREMENTAL);
+        incrementalSwitch.setShortFlag('i');
+        incrementalSwitch.setLongFlag(ARG_INCREMENTAL);
+        incrementalSwitch.setHelp("with --" + ARG_HTML + " or --" + ARG_XHTML
+                + ", only write the HTML files for nodes that changed since the previous export to the same "
+                + "output folder and remove those of nodes that do not exist anymore");
+        registerParameter(incrementalSwitch);
+
+        FlaggedOption messageLimitOption = new FlaggedOption(ARG_MESSAGE_LIMIT);
+        messageLimitOption.setShortFlag(NO_SHORTFLAG);
+        messageLimitOption.setLongFlag(ARG_MESSAGE_LIMIT);
+        messageLimitOption.setStringParser(JSAP.INTEGER_PARSER);
+        messageLimitOption.setDefault("0");
+        messageLimitOption.setHelp("maximum number of messages to report for each Amigaguide file; "
+                + "0 means no limit");
+        registerParameter(messageLimitOption);
+
+        FlaggedOption messagesOption = new FlaggedOption(ARG_MESSAGES);
+        messagesOption.setShortFlag('m');
+        messagesOption.setLongFlag(ARG_MESSAGES);
+        messagesOption.setDefault(MESSAGES_CONSOLE);
+        messagesOption.setHelp("where to report messages about broken Amigaguide files: \"" + MESSAGES_CONSOLE
+                + "\", \"" + MESSAGES_NONE + "\" or the path of a text file to write them to");
+        registerParameter(messagesOption);
+
         Switch prettySwitch = new Switch(ARG_PRETTY);
         prettySwitch.setShortFlag('v');
         prettySwitch.setLongFlag(ARG_PRETTY);
         prettySwitch.setHelp("cleanup specified Amigaguide file, overwritting the original");
         registerParameter(prettySwitch);
 
+        Switch streamSwitch = new Switch(ARG_STREAM);
+        streamSwitch.setShortFlag('s');
+        streamSwitch.setLongFlag(ARG_STREAM);
+        streamSwitch.setHelp("with --" + ARG_HTML + " or --" + ARG_XHTML
+                + ", write the HTML files directly instead of building a DOM for each node first");
+        registerParameter(streamSwitch);
+
+        FlaggedOption threadsOption = new FlaggedOption(ARG_THREADS);
+        threadsOption.setShortFlag('t');
+        threadsOption.setLongFlag(ARG_THREADS);
+        threadsOption.setStringParser(JSAP.INTEGER_PARSER);
+        threadsOption.setDefault("1");
+        threadsOption.setHelp("number of threads to use to read linked guides and, with --" + ARG_HTML + " or --"
+                + ARG_XHTML + ", to create the HTML files for the nodes");
+        registerParameter(threadsOption);
+
         Switch validateSwitch = new Switch(ARG_VALIDATE);
         validateSwitch.setShortFlag('p');
         validateSwitch.setLongFlag(ARG_VALIDATE);
@@ -2,8 +2,12 @@ package net.sf.grotag.common;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -16,6 +20,11 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * List of mappings of Amiga paths to local folders.
+ * <p>
+ * To quickly find the mapping for an Amiga path, the mappings are compiled
+ * into a case insensitive prefix tree once they are needed. Additionally, the
+ * list remembers the most recently resolved local files, because many links
+ * of a guide usually refer to the same few files.
  * 
  * @author Thomas Aglassinger
  */
@@ -93,30 +102,166 @@ public class AmigaPathList {
         }
     }
 
+    /**
+     * Node in the prefix tree of the Amiga paths.
+     * 
+     * @author Thomas Aglassinger
+     */
+    private static class AmigaPathNode {
+        private Map<Character, AmigaPathNode> children;
+        private AmigaPathFilePair pair;
+        private int pairIndex;
+
+        private AmigaPathNode() {
+            children = new HashMap<Character, AmigaPathNode>();
+        }
+    }
+
+    /**
+     * Number of resolved local files to remember.
+     */
+    private static final int MAX_RESOLVED_FILES = 4096;
+
     private List<AmigaPathFilePair> pathList;
+    private AmigaPathNode rootNode;
+    private Map<String, File> resolvedFileMap;
+    private int hitCount;
+    private int missCount;
 
     public AmigaPathList() {
-        pathList = new LinkedList<AmigaPathFilePair>();
+        pathList = new ArrayList<AmigaPathFilePair>();
+        resolvedFileMap = new LinkedHashMap<String, File>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+                return size() > MAX_RESOLVED_FILES;
+            }
+        };
     }
 
-    public void read(File inFile) throws SAXException, IOException, ParserConfigurationException {
+    public synchronized void read(File inFile) throws SAXException, IOException, ParserConfigurationException {
         SAXParserFactory spf = SAXParserFactory.newInstance();
         SAXParser sp = spf.newSAXParser();
         AmigaPathXmlParser parser = new AmigaPathXmlParser(pathList);
-        sp.parse(inFile, parser);
+        try {
+            sp.parse(inFile, parser);
+        } finally {
+            mappingsChanged();
+        }
     }
 
     /**
      * Add undefined Amiga path.
      */
-    public void addUndefined(String newAmigaPath) {
+    public synchronized void addUndefined(String newAmigaPath) {
         assert newAmigaPath != null;
         assert newAmigaPath.contains(":");
         pathList.add(new AmigaPathFilePair(newAmigaPath));
+        mappingsChanged();
+    }
+
+    /**
+     * All mappings in the order they were read. The list cannot be modified.
+     */
+    public synchronized List<AmigaPathFilePair> items() {
+        return Collections.unmodifiableList(new ArrayList<AmigaPathFilePair>(pathList));
+    }
 
+    private void mappingsChanged() {
+        rootNode = null;
+        resolvedFileMap.clear();
     }
 
-    public List<AmigaPathFilePair> items() {
-        return pathList;
+    /**
+     * The first mapping in the list whose Amiga path <code>amigaPath</code>
+     * starts with, ignoring case, or <code>null</code> if there is none.
+     */
+    public synchronized AmigaPathFilePair getPairFor(String amigaPath) {
+        assert amigaPath != null;
+
+        if (rootNode == null) {
+            rootNode = createRootNode();
+        }
+
+        AmigaPathFilePair result = null;
+        int resultIndex = Integer.MAX_VALUE;
+        AmigaPathNode node = rootNode;
+        int charIndex = 0;
+        while (node != null) {
+            if ((node.pair != null) && (node.pairIndex < resultIndex)) {
+                result = node.pair;
+                resultIndex = node.pairIndex;
+            }
+            if (charIndex < amigaPath.length()) {
+                char ch = Character.toLowerCase(amigaPath.charAt(charIndex));
+                node = node.children.get(Character.valueOf(ch));
+                charIndex += 1;
+            } else {
+                node = null;
+            }
+        }
+        return result;
+    }
+
+    private AmigaPathNode createRootNode() {
+        AmigaPathNode result = new AmigaPathNode();
+        for (int pairIndex = 0; pairIndex < pathList.size(); pairIndex += 1) {
+            AmigaPathFilePair pair = pathList.get(pairIndex);
+            String amigaPath = pair.getAmigaPath();
+            AmigaPathNode node = result;
+            for (int charIndex = 0; charIndex < amigaPath.length(); charIndex += 1) {
+                Character ch = Character.valueOf(amigaPath.charAt(charIndex));
+                AmigaPathNode child = node.children.get(ch);
+                if (child == null) {
+                    child = new AmigaPathNode();
+                    node.children.put(ch, child);
+                }
+                node = child;
+            }
+            // If the same Amiga path is mapped several times, the first
+            // mapping wins.
+            if (node.pair == null) {
+                node.pair = pair;
+                node.pairIndex = pairIndex;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The local file <code>amigaPath</code> has been resolved to relative to
+     * <code>currentFolder</code> before, or <code>null</code> if it is not
+     * remembered.
+     */
+    synchronized File getResolvedFile(File currentFolder, String amigaPath) {
+        File result = resolvedFileMap.get(resolvedFileKey(currentFolder, amigaPath));
+        if (result != null) {
+            hitCount += 1;
+        } else {
+            missCount += 1;
+        }
+        return result;
+    }
+
+    synchronized void putResolvedFile(File currentFolder, String amigaPath, File resolvedFile) {
+        assert resolvedFile != null;
+        resolvedFileMap.put(resolvedFileKey(currentFolder, amigaPath), resolvedFile);
+    }
+
+    private String resolvedFileKey(File currentFolder, String amigaPath) {
+        return currentFolder.getPath() + '\n' + amigaPath;
+    }
+
+    /**
+     * Number of Amiga paths that could use a local file resolved earlier.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Number of Amiga paths that had to be resolved.
+     */
+    public synchronized int getMissCount() {
+        return missCount;
     }
 }
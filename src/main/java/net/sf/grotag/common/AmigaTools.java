@@ -78,89 +78,105 @@ public class AmigaTools {
         return getFileFor(amigaPath, new File(currentFolderPath), amigaPaths);
     }
 
+    /**
+     * The local file <code>amigaPath</code> refers to. Absolute Amiga paths
+     * are resolved using the mappings in <code>amigaPaths</code>; unknown
+     * assigns refer to the temporary folder. Relative paths are resolved
+     * from <code>currentFolder</code>, with each additional slash referring to
+     * the parent folder.
+     */
     public File getFileFor(String amigaPath, File currentFolder, AmigaPathList amigaPaths) {
         assert amigaPath != null;
         assert currentFolder != null;
         assert amigaPaths != null;
 
-        String result = "";
+        File result = amigaPaths.getResolvedFile(currentFolder, amigaPath);
+        if (result == null) {
+            result = resolvedFileFor(amigaPath, currentFolder, amigaPaths);
+            amigaPaths.putResolvedFile(currentFolder, amigaPath, result);
+        }
+        return result;
+    }
+
+    private File resolvedFileFor(String amigaPath, File currentFolder, AmigaPathList amigaPaths) {
+        String baseFolderPath = null;
         int charIndex = 0;
 
         int colonIndex = amigaPath.indexOf(':');
         if (colonIndex >= 0) {
             // Resolve absolute Amiga path.
-            String lowerAmigaPath = amigaPath.toLowerCase();
-            int amigaPathIndex = 0;
-            boolean pathFound = false;
-            while (!pathFound && (amigaPathIndex < amigaPaths.items().size())) {
-                AmigaPathFilePair pair = amigaPaths.items().get(amigaPathIndex);
-                if (lowerAmigaPath.startsWith(pair.getAmigaPath())) {
-                    pathFound = true;
-                } else {
-                    amigaPathIndex += 1;
-                }
-            }
-            if (pathFound) {
-                AmigaPathFilePair pairFound = amigaPaths.items().get(amigaPathIndex);
+            AmigaPathFilePair pairFound = amigaPaths.getPairFor(amigaPath);
+            if (pairFound != null) {
                 File localFolder = pairFound.getLocalFolder();
                 if (localFolder != null) {
-                    result = localFolder.getAbsolutePath();
+                    baseFolderPath = localFolder.getAbsolutePath();
                     charIndex = pairFound.getAmigaPath().length();
                 } else {
-                    pathFound = false;
                     amigaPaths.addUndefined(amigaPath.substring(0, colonIndex));
                 }
             }
-            if (!pathFound) {
+            if (baseFolderPath == null) {
                 // Assign unknown Amiga paths to the temporary folder.
-                result = System.getProperty("java.io.tmpdir");
+                baseFolderPath = new File(System.getProperty("java.io.tmpdir")).getAbsolutePath();
                 charIndex = colonIndex + 1;
             }
         } else {
-            charIndex = 0;
+            baseFolderPath = currentFolder.getAbsolutePath();
         }
 
-        if (result.length() == 0) {
-            result = currentFolder.getAbsolutePath();
-        } else {
-            result = new File(result).getAbsolutePath();
-        }
-        result += File.separator;
+        StringBuilder result = new StringBuilder(baseFolderPath);
 
         // Resolve leading slashes.
         while ((charIndex < amigaPath.length()) && (amigaPath.charAt(charIndex) == '/')) {
-            result = new File(result).getParent();
+            removeLastName(result);
             charIndex += 1;
         }
 
         // Resolve double slashes within path.
         boolean lastWasSlash = false;
+        boolean isNameStart = true;
         while (charIndex < amigaPath.length()) {
             char ch = amigaPath.charAt(charIndex);
             if (ch == '/') {
                 if (lastWasSlash) {
-                    result = new File(result).getParent();
+                    removeLastName(result);
                 } else {
                     lastWasSlash = true;
                 }
+                isNameStart = true;
             } else {
-                if (lastWasSlash) {
-                    result += File.separator;
+                if (isNameStart) {
+                    if ((result.length() == 0) || (result.charAt(result.length() - 1) != File.separatorChar)) {
+                        result.append(File.separatorChar);
+                    }
                     lastWasSlash = false;
+                    isNameStart = false;
                 }
-                result += ch;
+                result.append(ch);
             }
             charIndex += 1;
         }
 
         // Amiga path terminates with slash.
         if (lastWasSlash) {
-            result = new File(result).getParent();
+            removeLastName(result);
         }
 
         // TODO: Adjust upper/lower case according to folders and files in local
         // file system.
-        return new File(result);
+        return new File(result.toString());
+    }
+
+    /**
+     * Change <code>path</code> to its parent folder, unless it already is a
+     * root folder.
+     */
+    private void removeLastName(StringBuilder path) {
+        String parentPath = new File(path.toString()).getParent();
+        if (parentPath != null) {
+            path.setLength(0);
+            path.append(parentPath);
+        }
     }
 
     public String escapedForAmigaguide(String some) {
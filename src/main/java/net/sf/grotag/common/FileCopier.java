@@ -0,0 +1,105 @@
+package net.sf.grotag.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copier for files that skips files already copied before and keeps track of
+ * how much it copied how fast. Several threads can use the same copier at the
+ * same time.
+ * <p>
+ * A target file counts as unchanged if it has the same size and modification
+ * time as the source file. To make this work, copies get the modification
+ * time of their source.
+ *
+ * @author Thomas Aglassinger
+ */
+public class FileCopier {
+    private Logger log;
+    private Tools tools;
+    private int copiedFileCount;
+    private int skippedFileCount;
+    private long copiedByteCount;
+    private long copyNanos;
+
+    public FileCopier() {
+        log = Logger.getLogger(FileCopier.class.getName());
+        tools = Tools.getInstance();
+    }
+
+    /**
+     * Copy <code>source</code> to <code>target</code> unless
+     * <code>target</code> already is a copy of it.
+     *
+     * @return <code>true</code> if the file has been copied,
+     *         <code>false</code> if it has been skipped
+     */
+    public boolean copy(File source, File target) throws IOException {
+        assert source != null;
+        assert target != null;
+        boolean result;
+
+        if (isUnchanged(source, target)) {
+            log.log(Level.FINE, "skip unchanged {0}", tools.sourced(target));
+            synchronized (this) {
+                skippedFileCount += 1;
+            }
+            result = false;
+        } else {
+            long startTime = System.nanoTime();
+            log.log(Level.INFO, "copy {0} to {1}", new Object[] { tools.sourced(source), tools.sourced(target) });
+            tools.copyFile(source, target);
+            if (!target.setLastModified(source.lastModified())) {
+                log.warning("cannot set modification time of " + tools.sourced(target));
+            }
+            long duration = System.nanoTime() - startTime;
+            synchronized (this) {
+                copiedFileCount += 1;
+                copiedByteCount += target.length();
+                copyNanos += duration;
+            }
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * Does <code>target</code> have the same size and modification time as
+     * <code>source</code>?
+     */
+    public boolean isUnchanged(File source, File target) {
+        return target.isFile() && (target.length() == source.length())
+                && (target.lastModified() == source.lastModified());
+    }
+
+    public synchronized int getCopiedFileCount() {
+        return copiedFileCount;
+    }
+
+    public synchronized int getSkippedFileCount() {
+        return skippedFileCount;
+    }
+
+    public synchronized long getCopiedByteCount() {
+        return copiedByteCount;
+    }
+
+    /**
+     * Average throughput of all copies in megabytes per second, adding up
+     * the time each copy took. With several threads copying at the same
+     * time, the actual throughput consequently is higher.
+     */
+    public synchronized double getMegabytesPerSecond() {
+        double seconds = Math.max(copyNanos, 1) / 1000000000.0;
+        return copiedByteCount / (1024.0 * 1024) / seconds;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "copied " + copiedFileCount + " files with " + copiedByteCount + " bytes at "
+                + (Math.round(getMegabytesPerSecond() * 10) / 10.0) + " MB/s, skipped " + skippedFileCount
+                + " unchanged files";
+    }
+}
@@ -17,6 +17,9 @@ import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -458,27 +461,40 @@ public class Tools {
         return result;
     }
 
+    /**
+     * Copy <code>source</code> to <code>target</code>, creating the folder
+     * of <code>target</code> if necessary. The data are transferred by the
+     * operating system without passing them through the Java heap where
+     * possible.
+     * 
+     * @see FileCopier
+     */
     public void copyFile(File source, File target) throws IOException {
         boolean copied = false;
 
         mkdirs(target.getParentFile());
 
-        InputStream in = new FileInputStream(source);
+        FileInputStream in = new FileInputStream(source);
         try {
-            OutputStream out = new FileOutputStream(target);
+            FileOutputStream out = new FileOutputStream(target);
 
             try {
-                byte[] buffer = new byte[BUFFER_SIZE];
-
-                while (!copied) {
-                    int bytesRead = in.read(buffer);
-
-                    if (bytesRead > 0) {
-                        out.write(buffer, 0, bytesRead);
-                    } else {
-                        copied = true;
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+
+                // transferTo() might transfer less than requested, and
+                // nothing at all if the source got shorter meanwhile.
+                while (position < size) {
+                    long transferred = inChannel.transferTo(position, size - position, outChannel);
+                    if (transferred == 0) {
+                        throw new IOException("cannot copy " + sourced(source) + " because it got shorter ("
+                                + position + " of " + size + " bytes copied)");
                     }
+                    position += transferred;
                 }
+                copied = true;
             } finally {
                 out.close();
                 if (!copied) {
@@ -503,7 +519,7 @@ public class Tools {
         do {
             bytesRead = in.read(buffer);
             if (bytesRead > 0) {
-                out.write(buffer);
+                out.write(buffer, 0, bytesRead);
             }
         } while (bytesRead > 0);
     }
@@ -541,6 +557,54 @@ public class Tools {
         }
     }
 
+    /**
+     * A new SHA-1 message digest.
+     */
+    public MessageDigest createSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException("SHA-1 must be supported", error);
+        }
+    }
+
+    /**
+     * The value of <code>digest</code> as lower case hex digits. This resets
+     * the digest.
+     */
+    public String hexDigest(MessageDigest digest) {
+        assert digest != null;
+
+        byte[] hash = digest.digest();
+        StringBuilder result = new StringBuilder(2 * hash.length);
+        for (byte some : hash) {
+            result.append(Character.forDigit((some >> 4) & 0xf, 16));
+            result.append(Character.forDigit(some & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The SHA-1 hash of the content of <code>file</code> as hex digits.
+     */
+    public String getSha1(File file) throws IOException {
+        assert file != null;
+
+        MessageDigest digest = createSha1Digest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead = in.read(buffer);
+            while (bytesRead >= 0) {
+                digest.update(buffer, 0, bytesRead);
+                bytesRead = in.read(buffer);
+            }
+        } finally {
+            in.close();
+        }
+        return hexDigest(digest);
+    }
+
     public String[] getRelativePaths(File baseDir, File[] filesInBaseDir) {
         // TODO #3: Use streams.
         String[] result = new String[filesInBaseDir.length];
@@ -32,10 +32,6 @@ import org.w3c.dom.Node;
  * @author Thomas Aglassinger
  */
 abstract public class AbstractDomFactory {
-    private enum NodeParserState {
-        BEFORE_NODE, INSIDE_NODE, AFTER_NODE;
-    }
-
     private GuidePile pile;
     private Document dom;
     private Logger log;
@@ -139,172 +135,180 @@ abstract public class AbstractDomFactory {
         assert nodeInfo != null;
 
         Element heading = createNodeHeading(nodeInfo.getTitle());
-        result.appendChild(heading);
+        appendBlock(result, heading);
 
         // Traverse node items.
-        NodeParserState parserState = NodeParserState.BEFORE_NODE;
         Wrap wrap = nodeInfo.getWrap();
         boolean isProportional = nodeInfo.isProportional();
         Element paragraph = createParagraph(wrap, isProportional);
         String text = "";
         boolean lastTextWasNewLine = false;
 
-        for (AbstractItem item : guide.getItems()) {
-            log.log(Level.FINER, "parserState={0}: {1}", new Object[] { parserState, item });
-            if (parserState == NodeParserState.BEFORE_NODE) {
-                if (item == nodeInfo.getStartNode()) {
-                    parserState = NodeParserState.INSIDE_NODE;
-                    log.log(Level.FINER, "found start node: {0}", item);
-                }
-            } else if (parserState == NodeParserState.INSIDE_NODE) {
-                if (item == nodeInfo.getEndNode()) {
-                    parserState = NodeParserState.AFTER_NODE;
-                    log.log(Level.FINER, "found end node: {0}", item);
-                } else {
-                    boolean flushText = false;
-                    boolean flushParagraph = false;
-                    Node nodeToAppend = null;
-                    Node nodeToAppendAfterParagraph = null;
-
-                    if (item instanceof SpaceItem) {
-                        text += ((SpaceItem) item).getSpace();
+        for (AbstractItem item : guide.getNodeItems(nodeInfo)) {
+            log.log(Level.FINER, "process: {0}", item);
+            boolean flushText = false;
+            boolean flushParagraph = false;
+            Node nodeToAppend = null;
+            Node nodeToAppendAfterParagraph = null;
+
+            if (item instanceof SpaceItem) {
+                text += ((SpaceItem) item).getSpace();
+                lastTextWasNewLine = false;
+            } else if (item instanceof AbstractTextItem) {
+                text += ((AbstractTextItem) item).getText();
+                lastTextWasNewLine = false;
+            } else if (item instanceof NewLineItem) {
+                if (wrap == Wrap.NONE) {
+                    text += "\n";
+                } else if (wrap == Wrap.SMART) {
+                    if (lastTextWasNewLine) {
+                        flushText = true;
+                        flushParagraph = true;
                         lastTextWasNewLine = false;
-                    } else if (item instanceof AbstractTextItem) {
-                        text += ((AbstractTextItem) item).getText();
-                        lastTextWasNewLine = false;
-                    } else if (item instanceof NewLineItem) {
-                        if (wrap == Wrap.NONE) {
-                            text += "\n";
-                        } else if (wrap == Wrap.SMART) {
-                            if (lastTextWasNewLine) {
-                                flushText = true;
-                                flushParagraph = true;
-                                lastTextWasNewLine = false;
+                    } else {
+                        text += "\n";
+                        lastTextWasNewLine = true;
+                    }
+                } else if (wrap == Wrap.WORD) {
+                    flushText = true;
+                    flushParagraph = true;
+                } else {
+                    assert false : "wrap=" + wrap;
+                }
+            } else if (item instanceof CommandItem) {
+                CommandItem command = (CommandItem) item;
+                String commandName = command.getCommandName();
+                Tag.Name commandTag = Tag.Name.valueOfOrNull(commandName);
+                if (command.isLink()) {
+                    // Create and append link.
+                    log.log(Level.FINE, "connect link: {0}", command);
+                    Link link = pile.getLink(command);
+                    String linkLabel = command.getLinkLabel();
+                    if (link != null) {
+                        if (link.getState() == Link.State.VALID) {
+                            // Valid link to Amigaguide document and
+                            // node.
+                            Link.Type linkType = link.getType();
+                            String targetNode = link.getTargetNodeName();
+                            File linkedFile = link.getLocalTargetFile();
+                            Guide targetGuide = pile.getGuide(linkedFile);
+
+                            if (linkType == Link.Type.guide) {
+                                // Assert that target node has been set
+                                // by validateLinks().
+                                assert targetNode != null;
                             } else {
-                                text += "\n";
-                                lastTextWasNewLine = true;
+                                // Assert that all @{alink}s have been
+                                // changed to @{link}.
+                                assert linkType == Link.Type.link : "linkType=" + linkType;
                             }
-                        } else if (wrap == Wrap.WORD) {
-                            flushText = true;
-                            flushParagraph = true;
-                        } else {
-                            assert false : "wrap=" + wrap;
-                        }
-                    } else if (item instanceof CommandItem) {
-                        CommandItem command = (CommandItem) item;
-                        String commandName = command.getCommandName();
-                        Tag.Name commandTag = Tag.Name.valueOfOrNull(commandName);
-                        if (command.isLink()) {
-                            // Create and append link.
-                            log.log(Level.FINE, "connect link: {0}", command);
-                            Link link = pile.getLink(command);
-                            String linkLabel = command.getLinkLabel();
-                            if (link != null) {
-                                if (link.getState() == Link.State.VALID) {
-                                    // Valid link to Amigaguide document and
-                                    // node.
-                                    Link.Type linkType = link.getType();
-                                    String targetNode = link.getTargetNodeName();
-                                    File linkedFile = link.getLocalTargetFile();
-                                    Guide targetGuide = pile.getGuide(linkedFile);
-
-                                    if (linkType == Link.Type.guide) {
-                                        // Assert that target node has been set
-                                        // by validateLinks().
-                                        assert targetNode != null;
-                                    } else {
-                                        // Assert that all @{alink}s have been
-                                        // changed to @{link}.
-                                        assert linkType == Link.Type.link : "linkType=" + linkType;
-                                    }
-
-                                    if (targetGuide != null) {
-                                        // Link within DocBook document.
-                                        if (link.isDataLink()) {
-                                            nodeToAppend = createLinkToGuideNode(guide, targetGuide.getSourceFile(),
-                                                    targetNode, linkLabel);
-                                        } else {
-                                            // FIXME: Figure out how this case
-                                            // can happen and what would be the
-                                            // proper resolution to it.
-                                            assert false : "no data link";
-                                        }
-                                    } else if (linkedFile.exists()) {
-                                        nodeToAppend = createOtherFileLinkNode(guide, linkedFile, linkLabel);
-                                    } else {
-                                        log.warning("skipped link to unknown file: " + command.toPrettyAmigaguide());
-                                    }
-                                } else if (link.getState() == Link.State.VALID_OTHER_FILE) {
-                                    // Valid link to non-Amigaguide file.
-                                    log.log(Level.FINE, "connect to non-guide: {0}", command);
-                                    nodeToAppend = createLinkToNonGuideNode(guide, link.getLocalTargetFile(), link
-                                            .getLabel());
+
+                            if (targetGuide != null) {
+                                // Link within DocBook document.
+                                if (link.isDataLink()) {
+                                    nodeToAppend = createLinkToGuideNode(guide, targetGuide.getSourceFile(),
+                                            targetNode, linkLabel);
                                 } else {
-                                    log.warning("skipped link with state=" + link.getState() + ": "
-                                            + command.toPrettyAmigaguide());
+                                    // FIXME: Figure out how this case
+                                    // can happen and what would be the
+                                    // proper resolution to it.
+                                    assert false : "no data link";
                                 }
+                            } else if (linkedFile.exists()) {
+                                nodeToAppend = createOtherFileLinkNode(guide, linkedFile, linkLabel);
                             } else {
-                                log.warning("skipped invalid link: " + command.toPrettyAmigaguide());
-                            }
-
-                            // Link was not appended for some reason, so at
-                            // least make sure the link label shows up.
-                            if (nodeToAppend == null) {
-                                text += linkLabel;
-                            } else {
-                                flushText = true;
+                                log.warning("skipped link to unknown file: " + command.toPrettyAmigaguide());
                             }
-                        } else if (commandTag == Tag.Name.amigaguide) {
-                            // Replace @{amigaguide} by text.
-                            flushText = true;
-                            nodeToAppend = createAmigaguideNode();
-                        } else if (commandTag == Tag.Name.embed) {
-                            // Include content specified by @embed
-                            // FIXME: Add @embed base path.
-                            File baseFolder = guide.getSourceFile().getParentFile();
-                            String amigaPathToFileToEmbed = command.getOption(0);
-                            File embeddedFile = amigaTools.getFileFor(amigaPathToFileToEmbed, baseFolder, amigaPaths);
-                            flushText = true;
-                            flushParagraph = true;
-                            log.log(Level.INFO, "embed: {0}", tools.sourced(embeddedFile));
-                            nodeToAppendAfterParagraph = createEmbeddedFile(embeddedFile);
-                        }
-                    }
-                    if (flushText) {
-                        log.log(Level.FINER, "append text: {0}", tools.sourced(text));
-                        if (nodeToAppend == null) {
-                            text = withoutPossibleTrailingNewLine(text);
-                        }
-                        if (text.length() > 0) {
-                            paragraph.appendChild(dom.createTextNode(text));
+                        } else if (link.getState() == Link.State.VALID_OTHER_FILE) {
+                            // Valid link to non-Amigaguide file.
+                            log.log(Level.FINE, "connect to non-guide: {0}", command);
+                            nodeToAppend = createLinkToNonGuideNode(guide, link.getLocalTargetFile(), link
+                                    .getLabel());
+                        } else {
+                            log.warning("skipped link with state=" + link.getState() + ": "
+                                    + command.toPrettyAmigaguide());
                         }
-                        text = "";
-                    }
-                    if (nodeToAppend != null) {
-                        paragraph.appendChild(nodeToAppend);
+                    } else {
+                        log.warning("skipped invalid link: " + command.toPrettyAmigaguide());
                     }
-                    if (flushParagraph) {
-                        result.appendChild(paragraph);
-                        paragraph = createParagraph(wrap, isProportional);
-                    }
-                    if (nodeToAppendAfterParagraph != null) {
-                        result.appendChild(nodeToAppendAfterParagraph);
+
+                    // Link was not appended for some reason, so at
+                    // least make sure the link label shows up.
+                    if (nodeToAppend == null) {
+                        text += linkLabel;
+                    } else {
+                        flushText = true;
                     }
+                } else if (commandTag == Tag.Name.amigaguide) {
+                    // Replace @{amigaguide} by text.
+                    flushText = true;
+                    nodeToAppend = createAmigaguideNode();
+                } else if (commandTag == Tag.Name.embed) {
+                    // Include content specified by @embed
+                    File embeddedFile = getEmbeddedFile(guide, command);
+                    flushText = true;
+                    flushParagraph = true;
+                    log.log(Level.INFO, "embed: {0}", tools.sourced(embeddedFile));
+                    nodeToAppendAfterParagraph = createEmbeddedFile(embeddedFile);
+                }
+            }
+            if (flushText) {
+                log.log(Level.FINER, "append text: {0}", tools.sourced(text));
+                if (nodeToAppend == null) {
+                    text = withoutPossibleTrailingNewLine(text);
+                }
+                if (text.length() > 0) {
+                    paragraph.appendChild(dom.createTextNode(text));
                 }
-            } else {
-                assert parserState == NodeParserState.AFTER_NODE : "parserState=" + parserState;
-                // Do nothing, just move on past the end.
+                text = "";
+            }
+            if (nodeToAppend != null) {
+                paragraph.appendChild(nodeToAppend);
+            }
+            if (flushParagraph) {
+                appendBlock(result, paragraph);
+                paragraph = createParagraph(wrap, isProportional);
+            }
+            if (nodeToAppendAfterParagraph != null) {
+                appendBlock(result, nodeToAppendAfterParagraph);
             }
         }
 
-        assert parserState != NodeParserState.INSIDE_NODE : "parserState=" + parserState;
-
         if (text.length() > 0) {
             paragraph.appendChild(dom.createTextNode(withoutPossibleTrailingNewLine(text)));
-            result.appendChild(paragraph);
+            appendBlock(result, paragraph);
         }
     }
 
+    /**
+     * The file to be included for the <code>@embed</code> command
+     * <code>embedCommand</code> in <code>guide</code>.
+     */
+    protected File getEmbeddedFile(Guide guide, CommandItem embedCommand) {
+        assert guide != null;
+        assert embedCommand != null;
+        assert embedCommand.getCommandName().equals(Tag.Name.embed.toString()) : "command="
+                + embedCommand.toPrettyAmigaguide();
+
+        // FIXME: Add @embed base path.
+        File baseFolder = guide.getSourceFile().getParentFile();
+        String amigaPathToFileToEmbed = embedCommand.getOption(0);
+        File result = amigaTools.getFileFor(amigaPathToFileToEmbed, baseFolder, amigaPaths);
+        return result;
+    }
+
+    /**
+     * Append <code>block</code> (for example a heading or paragraph) to
+     * <code>parent</code>. Once this has been called, the factory does not
+     * modify <code>block</code> anymore, so derived classes can write it
+     * right away instead of keeping it in the DOM.
+     */
+    protected void appendBlock(Element parent, Node block) throws IOException {
+        assert parent != null;
+        assert block != null;
+        parent.appendChild(block);
+    }
+
     /**
      * Same as <code>some</code> except if the last character is a new line
      * ("\n") in which case it will be removed. This is useful at the end of a
@@ -0,0 +1,405 @@
+package net.sf.grotag.guide;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.MessagePool;
+
+/**
+ * Converter for many independent Amigaguide documents in a single run, for
+ * example all documents of an archive.
+ * <p>
+ * The documents are grouped by the folder they are located in. Each group is
+ * processed by one of several worker threads, which converts the documents
+ * of the group one after another. Documents already read as part of the pile
+ * of a previous document in the same group are skipped. If a pile cannot be
+ * converted, the error is logged and the conversion continues with the next
+ * pile.
+ *
+ * @author Thomas Aglassinger
+ */
+public class BatchConverter {
+    public enum Format {
+        DOCBOOK, HTML, VALIDATE, XHTML
+    }
+
+    /**
+     * Statistics about a batch conversion.
+     *
+     * @author Thomas Aglassinger
+     */
+    public static class Summary {
+        private int pileCount;
+        private int guideCount;
+        private long byteCount;
+        private long duration;
+        private List<File> failedGuideFiles;
+
+        private Summary() {
+            failedGuideFiles = new ArrayList<File>();
+        }
+
+        /**
+         * Number of piles converted successfully.
+         */
+        public int getPileCount() {
+            return pileCount;
+        }
+
+        /**
+         * Number of guides in the piles converted successfully.
+         */
+        public int getGuideCount() {
+            return guideCount;
+        }
+
+        /**
+         * Size of the guides in the piles converted successfully.
+         */
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        /**
+         * Time the conversion took in milliseconds.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * The guides whose piles could not be converted.
+         */
+        public List<File> getFailedGuideFiles() {
+            return failedGuideFiles;
+        }
+
+        public double getGuidesPerSecond() {
+            return guideCount * 1000.0 / Math.max(duration, 1);
+        }
+
+        public double getMegabytesPerSecond() {
+            return byteCount * 1000.0 / (1024 * 1024) / Math.max(duration, 1);
+        }
+
+        private String rounded(double value) {
+            return String.valueOf(Math.round(value * 10) / 10.0);
+        }
+
+        @Override
+        public String toString() {
+            String result = "converted " + getGuideCount() + " guides in " + getPileCount() + " piles with "
+                    + rounded(getByteCount() / (1024.0 * 1024)) + " MB in " + rounded(getDuration() / 1000.0)
+                    + " s: " + rounded(getGuidesPerSecond()) + " files/s, " + rounded(getMegabytesPerSecond())
+                    + " MB/s";
+            if (!getFailedGuideFiles().isEmpty()) {
+                result += "; failed piles: " + getFailedGuideFiles().size();
+            }
+            return result;
+        }
+    }
+
+    private Logger log;
+    private Tools tools;
+    private AmigaTools amigaTools;
+    private ExportTools exportTools;
+    private Format format;
+    private AmigaPathList amigaPaths;
+    private MessagePool messagePool;
+    private int threadCount;
+    private boolean isStreaming;
+    private boolean isIncremental;
+
+    /**
+     * The guides to convert, grouped by their folder. Each group maps the
+     * guides to the path of the output relative to the target folder, without
+     * suffix.
+     */
+    private Map<File, Map<File, String>> folderToGuidesMap;
+    private Set<String> targetPaths;
+    private Summary summary;
+
+    /**
+     * @param newThreadCount
+     *                the number of worker threads to convert the piles
+     */
+    public BatchConverter(Format newFormat, AmigaPathList newAmigaPaths, MessagePool newMessagePool,
+            int newThreadCount) {
+        assert newFormat != null;
+        assert newAmigaPaths != null;
+        assert newMessagePool != null;
+        assert newThreadCount > 0;
+
+        log = Logger.getLogger(BatchConverter.class.getName());
+        tools = Tools.getInstance();
+        amigaTools = AmigaTools.getInstance();
+        exportTools = ExportTools.getInstance();
+        format = newFormat;
+        amigaPaths = newAmigaPaths;
+        messagePool = newMessagePool;
+        threadCount = newThreadCount;
+        folderToGuidesMap = new TreeMap<File, Map<File, String>>();
+        targetPaths = new HashSet<String>();
+    }
+
+    /**
+     * With <code>Format.HTML</code> or <code>Format.XHTML</code>, write
+     * the HTML files directly instead of building a DOM for each node first?
+     */
+    public boolean isStreaming() {
+        return isStreaming;
+    }
+
+    public void setStreaming(boolean newStreaming) {
+        isStreaming = newStreaming;
+    }
+
+    /**
+     * With <code>Format.HTML</code> or <code>Format.XHTML</code>, only
+     * write the HTML files of nodes that changed since the previous
+     * conversion?
+     */
+    public boolean isIncremental() {
+        return isIncremental;
+    }
+
+    public void setIncremental(boolean newIncremental) {
+        isIncremental = newIncremental;
+    }
+
+    /**
+     * Add <code>fileOrFolder</code> to the guides to convert. Folders are
+     * searched recursively, and all Amigaguide documents found are added.
+     */
+    public void add(File fileOrFolder) throws IOException {
+        assert fileOrFolder != null;
+
+        File canonicalFile = fileOrFolder.getCanonicalFile();
+        if (canonicalFile.isDirectory()) {
+            addFolder(canonicalFile, canonicalFile.getName());
+        } else {
+            String targetPath = canonicalFile.getName();
+            File folder = canonicalFile.getParentFile();
+            if ((folder != null) && (folder.getName().length() > 0)) {
+                targetPath = folder.getName() + File.separator + targetPath;
+            }
+            if (amigaTools.isAmigaguide(canonicalFile)) {
+                addGuide(canonicalFile, targetPath);
+            } else {
+                log.warning("ignored file that is not an Amigaguide document: " + tools.sourced(canonicalFile));
+            }
+        }
+    }
+
+    /**
+     * Add all files and folders listed in <code>fileList</code>, one per
+     * line. Empty lines and lines starting with "#" are ignored. Relative
+     * paths refer to the folder <code>fileList</code> is located in.
+     */
+    public void addFileList(File fileList) throws IOException {
+        assert fileList != null;
+
+        File baseFolder = fileList.getAbsoluteFile().getParentFile();
+        BufferedReader listReader = tools.createBufferedReader(fileList);
+        try {
+            String line = listReader.readLine();
+            while (line != null) {
+                String path = line.trim();
+                if ((path.length() > 0) && !path.startsWith("#")) {
+                    File fileOrFolder = new File(path);
+                    if (!fileOrFolder.isAbsolute()) {
+                        fileOrFolder = new File(baseFolder, path);
+                    }
+                    add(fileOrFolder);
+                }
+                line = listReader.readLine();
+            }
+        } finally {
+            listReader.close();
+        }
+    }
+
+    private void addFolder(File folder, String targetPath) throws IOException {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            log.warning("ignored folder that cannot be read: " + tools.sourced(folder));
+        } else {
+            Arrays.sort(files);
+            for (File file : files) {
+                String fileTargetPath = targetPath + File.separator + file.getName();
+                if (file.isDirectory()) {
+                    addFolder(file, fileTargetPath);
+                } else if (file.isFile()) {
+                    try {
+                        if (amigaTools.isAmigaguide(file)) {
+                            addGuide(file, fileTargetPath);
+                        }
+                    } catch (IOException error) {
+                        log.log(Level.WARNING, "ignored file that cannot be read: " + tools.sourced(file), error);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addGuide(File guideFile, String targetPath) {
+        String targetPathWithoutSuffix = tools.getWithoutLastSuffix(targetPath);
+        Map<File, String> guidesInFolder = folderToGuidesMap.get(guideFile.getParentFile());
+
+        if ((guidesInFolder != null) && guidesInFolder.containsKey(guideFile)) {
+            log.fine("ignored guide added before: " + tools.sourced(guideFile));
+        } else if (!targetPaths.add(targetPathWithoutSuffix)) {
+            log.warning("ignored guide because its output would overwrite the output of another guide: "
+                    + tools.sourced(guideFile));
+        } else {
+            if (guidesInFolder == null) {
+                guidesInFolder = new TreeMap<File, String>();
+                folderToGuidesMap.put(guideFile.getParentFile(), guidesInFolder);
+            }
+            guidesInFolder.put(guideFile, targetPathWithoutSuffix);
+        }
+    }
+
+    /**
+     * The guides added so far.
+     */
+    public List<File> getGuideFiles() {
+        List<File> result = new ArrayList<File>();
+        for (Map<File, String> guidesInFolder : folderToGuidesMap.values()) {
+            result.addAll(guidesInFolder.keySet());
+        }
+        return result;
+    }
+
+    /**
+     * Convert all guides added so far and write the output to
+     * <code>targetFolder</code>.
+     *
+     * @param targetFolder
+     *                the folder to write the output to; with
+     *                <code>Format.VALIDATE</code>, this is ignored and can
+     *                be <code>null</code>
+     */
+    public Summary convert(File targetFolder) throws IOException {
+        assert (targetFolder != null) || (format == Format.VALIDATE);
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Object>> groupTasks = new ArrayList<Future<Object>>();
+
+        summary = new Summary();
+        try {
+            for (Map<File, String> guidesInFolder : folderToGuidesMap.values()) {
+                final Map<File, String> guidesToConvert = guidesInFolder;
+                final File groupTargetFolder = targetFolder;
+                groupTasks.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        convertGroup(guidesToConvert, groupTargetFolder);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> groupTask : groupTasks) {
+                waitFor(groupTask);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        summary.duration = System.currentTimeMillis() - startTime;
+        Collections.sort(summary.failedGuideFiles);
+        return summary;
+    }
+
+    private void waitFor(Future<Object> groupTask) throws IOException {
+        try {
+            groupTask.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException wrappedError = new InterruptedIOException("batch conversion has been interrupted");
+            wrappedError.initCause(error);
+            throw wrappedError;
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("cannot convert guides", cause);
+            }
+        }
+    }
+
+    private void convertGroup(Map<File, String> guidesToConvert, File targetFolder) {
+        Set<File> guideFilesRead = new HashSet<File>();
+
+        for (Map.Entry<File, String> guideEntry : guidesToConvert.entrySet()) {
+            File guideFile = guideEntry.getKey();
+            if (!guideFilesRead.contains(guideFile)) {
+                try {
+                    GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths, messagePool);
+                    int pileGuideCount = pile.getGuides().size();
+                    long pileByteCount = 0;
+
+                    for (Guide guide : pile.getGuides()) {
+                        File pileGuideFile = guide.getSourceFile().getAbsoluteFile();
+                        guideFilesRead.add(pileGuideFile);
+                        pileByteCount += pileGuideFile.length();
+                    }
+                    export(pile, targetFolder, guideEntry.getValue());
+                    synchronized (summary) {
+                        summary.pileCount += 1;
+                        summary.guideCount += pileGuideCount;
+                        summary.byteCount += pileByteCount;
+                    }
+                } catch (Exception error) {
+                    // Continue with the next pile.
+                    log.log(Level.SEVERE, "cannot convert " + tools.sourced(guideFile) + ": " + error.getMessage(),
+                            error);
+                    synchronized (summary) {
+                        summary.failedGuideFiles.add(guideFile);
+                    }
+                }
+            }
+        }
+    }
+
+    private void export(GuidePile pile, File targetFolder, String targetPath) throws IOException,
+            ParserConfigurationException, TransformerException {
+        if (format == Format.DOCBOOK) {
+            File targetFile = new File(targetFolder, targetPath + ".xml");
+            tools.mkdirs(targetFile.getParentFile());
+            exportTools.exportAsDocBookXml(pile, targetFile);
+        } else if ((format == Format.HTML) || (format == Format.XHTML)) {
+            DomWriter.Dtd dtd = (format == Format.HTML) ? DomWriter.Dtd.HTML : DomWriter.Dtd.XHTML;
+            File pileTargetFolder = new File(targetFolder, targetPath);
+            tools.mkdirs(pileTargetFolder);
+            exportTools.exportAsHtml(pile, pileTargetFolder, dtd, 1, isStreaming, isIncremental);
+        } else {
+            assert format == Format.VALIDATE : "format=" + format;
+        }
+    }
+}
@@ -3,6 +3,11 @@ package net.sf.grotag.guide;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,11 +41,34 @@ public class DomWriter {
 
     public static final String DEFAULT_ENCODING = "UTF-8";
 
+    /**
+     * Factory shared by all writers, so the (expensive) lookup of the
+     * implementation happens only once.
+     */
+    private static TransformerFactory transformerFactory;
+
+    /**
+     * Output properties for each DTD, used to set up new transformers.
+     */
+    private static final Map<Dtd, Properties> OUTPUT_PROPERTIES_MAP = createOutputPropertiesMap();
+
+    /**
+     * Transformers currently not in use for each DTD.
+     */
+    private static final Map<Dtd, Queue<Transformer>> TRANSFORMER_POOL_MAP = createTransformerPoolMap();
+
     private Logger log;
     private Tools tools;
     private String encoding;
-    private Transformer transformer;
+    private Properties outputProperties;
+    private Queue<Transformer> transformerPool;
 
+    /**
+     * Create a writer for documents of type <code>dtd</code>. Writers are
+     * cheap to create, as they share a pool of transformers with all other
+     * writers for the same DTD. Once the encoding is set, <code>write()</code>
+     * can be called from several threads at the same time.
+     */
     public DomWriter(Dtd dtd) throws TransformerConfigurationException {
         assert dtd != null;
 
@@ -48,26 +76,66 @@ public class DomWriter {
         tools = Tools.getInstance();
 
         encoding = DEFAULT_ENCODING;
+        outputProperties = OUTPUT_PROPERTIES_MAP.get(dtd);
+        transformerPool = TRANSFORMER_POOL_MAP.get(dtd);
+
+        // Create the first transformer right away so configuration errors
+        // show up early.
+        if (transformerPool.isEmpty()) {
+            transformerPool.add(createTransformer());
+        }
+    }
+
+    private static Map<Dtd, Properties> createOutputPropertiesMap() {
+        Map<Dtd, Properties> result = new EnumMap<Dtd, Properties>(Dtd.class);
+        for (Dtd dtd : Dtd.values()) {
+            Properties properties = new Properties();
+            properties.setProperty(OutputKeys.INDENT, "yes");
+            if (dtd == Dtd.DOCBOOK) {
+                properties.setProperty(OutputKeys.METHOD, "xml");
+                properties.setProperty(OutputKeys.DOCTYPE_PUBLIC, "-//OASIS//DTD DocBook XML V4.5//EN");
+                properties.setProperty(OutputKeys.DOCTYPE_SYSTEM,
+                        "http://www.oasis-open.org/docbook/xml/4.5/docbookx.dtd");
+            } else if (dtd == Dtd.HTML) {
+                properties.setProperty(OutputKeys.METHOD, "html");
+                properties.setProperty(OutputKeys.DOCTYPE_PUBLIC, "-//W3C//DTD HTML 4.01//EN");
+                properties.setProperty(OutputKeys.DOCTYPE_SYSTEM, "http://www.w3.org/TR/html4/strict.dtd");
+            } else {
+                assert dtd == Dtd.XHTML : "dtd=" + dtd;
+                properties.setProperty(OutputKeys.METHOD, "xml");
+                properties.setProperty(OutputKeys.DOCTYPE_PUBLIC, "-//W3C//DTD XHTML 1.0 Strict//EN");
+                properties.setProperty(OutputKeys.DOCTYPE_SYSTEM,
+                        "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd");
+            }
+            result.put(dtd, properties);
+        }
+        return result;
+    }
+
+    private static Map<Dtd, Queue<Transformer>> createTransformerPoolMap() {
+        Map<Dtd, Queue<Transformer>> result = new EnumMap<Dtd, Queue<Transformer>>(Dtd.class);
+        for (Dtd dtd : Dtd.values()) {
+            result.put(dtd, new ConcurrentLinkedQueue<Transformer>());
+        }
+        return result;
+    }
+
+    private static synchronized TransformerFactory getTransformerFactory() {
+        if (transformerFactory == null) {
+            transformerFactory = TransformerFactory.newInstance();
+        }
+        return transformerFactory;
+    }
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        if (dtd == Dtd.DOCBOOK) {
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//OASIS//DTD DocBook XML V4.5//EN");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
-                    "http://www.oasis-open.org/docbook/xml/4.5/docbookx.dtd");
-        } else if (dtd == Dtd.HTML) {
-            transformer.setOutputProperty(OutputKeys.METHOD, "html");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//W3C//DTD HTML 4.01//EN");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, "http://www.w3.org/TR/html4/strict.dtd");
-        } else if (dtd == Dtd.XHTML) {
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//W3C//DTD XHTML 1.0 Strict//EN");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd");
-        } else {
-            assert false : "dtd=" + dtd;
+    private Transformer createTransformer() throws TransformerConfigurationException {
+        Transformer result;
+        // TransformerFactory is not thread safe.
+        TransformerFactory factory = getTransformerFactory();
+        synchronized (factory) {
+            result = factory.newTransformer();
         }
+        result.setOutputProperties(outputProperties);
+        return result;
     }
 
     public void setEncoding(String newEncoding) {
@@ -84,8 +152,15 @@ public class DomWriter {
         tools.mkdirs(targetFile.getParentFile());
         Writer targetWriter = tools.createBufferedWriter(targetFile, encoding);
         try {
+            Transformer transformer = transformerPool.poll();
+            if (transformer == null) {
+                transformer = createTransformer();
+            }
             transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
             transformer.transform(new DOMSource(dom), new StreamResult(targetWriter));
+            // Only return the transformer to the pool if it worked, so it
+            // cannot be left in a broken state.
+            transformerPool.add(transformer);
         } finally {
             targetWriter.close();
         }
@@ -0,0 +1,197 @@
+package net.sf.grotag.guide;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.Tools;
+
+/**
+ * Manifest of the files written by an HTML export, stored in the output
+ * folder so that the next export of the same pile can skip all nodes that
+ * did not change. For each guide, the manifest stores the hash of the source
+ * file; for each node, it stores the hash of the items of the node and the
+ * hash of the targets of all links in it.
+ *
+ * @see HtmlDomFactory#getNodeContentHash(Guide, NodeInfo)
+ * @see HtmlDomFactory#getNodeLinkHash(Guide, NodeInfo)
+ * @author Thomas Aglassinger
+ */
+public class ExportManifest {
+    /**
+     * Name of the file in the output folder the manifest is stored in.
+     */
+    public static final String MANIFEST_NAME = "grotag-manifest.properties";
+
+    private static final String SETTINGS_KEY = "settings";
+    private static final String GUIDE_KEY_PREFIX = "guide.";
+    private static final String NODE_KEY_PREFIX = "node.";
+
+    private File outputFolder;
+    private File manifestFile;
+    private Properties previousEntries;
+    private Properties entries;
+    private boolean isSameSettings;
+    private Logger log;
+    private Tools tools;
+
+    /**
+     * Create a manifest for an export to <code>newOutputFolder</code> and
+     * read the manifest of the previous export to it, if there is any.
+     *
+     * @param newSettings
+     *                description of all settings that influence the exported
+     *                files; if they differ from the previous export, all
+     *                nodes are considered to be changed
+     */
+    public ExportManifest(File newOutputFolder, String newSettings) throws IOException {
+        assert newOutputFolder != null;
+        assert newSettings != null;
+
+        log = Logger.getLogger(ExportManifest.class.getName());
+        tools = Tools.getInstance();
+
+        outputFolder = newOutputFolder;
+        manifestFile = new File(outputFolder, MANIFEST_NAME);
+        previousEntries = readPreviousEntries();
+        isSameSettings = newSettings.equals(previousEntries.getProperty(SETTINGS_KEY));
+        if (!isSameSettings && !previousEntries.isEmpty()) {
+            log.log(Level.INFO, "export settings changed, exporting all nodes to {0}", tools.sourced(outputFolder));
+        }
+        entries = new Properties();
+        entries.setProperty(SETTINGS_KEY, newSettings);
+    }
+
+    private Properties readPreviousEntries() throws IOException {
+        Properties result = new Properties();
+        try {
+            InputStream manifestIn = new FileInputStream(manifestFile);
+            try {
+                result.load(manifestIn);
+            } catch (IllegalArgumentException error) {
+                log.log(Level.WARNING, "ignored broken manifest " + tools.sourced(manifestFile), error);
+                result.clear();
+            } finally {
+                manifestIn.close();
+            }
+        } catch (FileNotFoundException errorToIgnore) {
+            log.log(Level.FINE, "no previous manifest found in {0}", tools.sourced(outputFolder));
+        }
+        return result;
+    }
+
+    /**
+     * Remember the hash of the source file of <code>guide</code>.
+     *
+     * @return <code>true</code> if the previous export had the same hash.
+     */
+    public boolean putGuide(Guide guide, String sourceHash) {
+        assert guide != null;
+        assert sourceHash != null;
+
+        String key = GUIDE_KEY_PREFIX + guide.getSourceFile().getAbsolutePath();
+        entries.setProperty(key, sourceHash);
+        return isSameSettings && sourceHash.equals(previousEntries.getProperty(key));
+    }
+
+    /**
+     * The content hash the node stored in <code>targetFile</code> had in the
+     * previous export, or <code>null</code> if there was no such node.
+     */
+    public String getPreviousContentHash(File targetFile) {
+        String result = null;
+        String previousValue = previousEntries.getProperty(nodeKey(targetFile));
+        if (previousValue != null) {
+            int blankIndex = previousValue.indexOf(' ');
+            if (blankIndex >= 0) {
+                result = previousValue.substring(0, blankIndex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Is the node to be stored in <code>targetFile</code> the same as in the
+     * previous export, and does <code>targetFile</code> still exist?
+     */
+    public boolean isUnchanged(File targetFile, String contentHash, String linkHash) {
+        assert targetFile != null;
+        assert contentHash != null;
+        assert linkHash != null;
+
+        String previousValue = previousEntries.getProperty(nodeKey(targetFile));
+        boolean result = isSameSettings && nodeValue(contentHash, linkHash).equals(previousValue)
+                && targetFile.exists();
+        return result;
+    }
+
+    /**
+     * Remember that <code>targetFile</code> holds a node with the specified
+     * hashes. This method can be called from several threads at the same
+     * time.
+     */
+    public void putNode(File targetFile, String contentHash, String linkHash) {
+        assert targetFile != null;
+        assert contentHash != null;
+        assert linkHash != null;
+
+        entries.setProperty(nodeKey(targetFile), nodeValue(contentHash, linkHash));
+    }
+
+    /**
+     * Delete all files written by the previous export that have not been
+     * passed to <code>putNode()</code> in this export.
+     *
+     * @return the files that have been deleted
+     */
+    public List<File> deleteOrphanedFiles() {
+        List<File> result = new ArrayList<File>();
+
+        for (Object keyObject : previousEntries.keySet()) {
+            String key = (String) keyObject;
+            if (key.startsWith(NODE_KEY_PREFIX) && !entries.containsKey(key)) {
+                String relativePath = key.substring(NODE_KEY_PREFIX.length());
+                File orphanedFile = new File(outputFolder, relativePath.replace('/', File.separatorChar));
+                if (orphanedFile.exists()) {
+                    log.log(Level.INFO, "delete orphaned {0}", tools.sourced(orphanedFile));
+                    if (tools.deleteOrWarn(orphanedFile) == Tools.DeleteResult.DELETED) {
+                        result.add(orphanedFile);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write the manifest to the output folder, replacing the one of the
+     * previous export.
+     */
+    public void write() throws IOException {
+        tools.mkdirs(outputFolder);
+        OutputStream manifestOut = new FileOutputStream(manifestFile);
+        try {
+            entries.store(manifestOut, "Grotag export manifest");
+        } finally {
+            manifestOut.close();
+        }
+    }
+
+    private String nodeKey(File targetFile) {
+        String relativePath = tools.getRelativePath(outputFolder, targetFile);
+        return NODE_KEY_PREFIX + relativePath.replace(File.separatorChar, '/');
+    }
+
+    private String nodeValue(String contentHash, String linkHash) {
+        return contentHash + " " + linkHash;
+    }
+}
@@ -2,12 +2,25 @@ package net.sf.grotag.guide;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import net.sf.grotag.common.Tools;
+import net.sf.grotag.common.Version;
 
 import org.w3c.dom.Document;
 
@@ -19,6 +32,8 @@ import org.w3c.dom.Document;
 public class ExportTools {
     private static ExportTools instance;
 
+    private Logger log;
+
     public static synchronized final ExportTools getInstance() {
         if (instance == null) {
             instance = new ExportTools();
@@ -28,6 +43,7 @@ public class ExportTools {
 
     private ExportTools() {
         super();
+        log = Logger.getLogger(ExportTools.class.getName());
     }
 
     public File targetFileFor(File sourceFile, File targetFolder, String targetSuffix) {
@@ -51,15 +67,331 @@ public class ExportTools {
 
     public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd) throws ParserConfigurationException,
             IOException, TransformerConfigurationException, TransformerException {
-        for (Guide guide : pile.getGuides()) {
+        exportAsHtml(pile, outputFolder, dtd, 1, false);
+    }
+
+    /**
+     * Same as <code>exportAsHtml(GuidePile, File, DomWriter.Dtd)</code>
+     * but using <code>threadCount</code> threads to create and write the
+     * HTML documents for the nodes.
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd, int threadCount)
+            throws ParserConfigurationException, IOException, TransformerConfigurationException,
+            TransformerException {
+        exportAsHtml(pile, outputFolder, dtd, threadCount, false);
+    }
+
+    /**
+     * Same as <code>exportAsHtml(GuidePile, File, DomWriter.Dtd, int)</code>
+     * but optionally writing the HTML documents directly using
+     * <code>HtmlStreamWriter</code> instead of building a DOM for each node
+     * and writing it using <code>DomWriter</code>.
+     * 
+     * @see HtmlStreamWriter
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd, int threadCount,
+            boolean isStreaming) throws ParserConfigurationException, IOException,
+            TransformerConfigurationException, TransformerException {
+        exportAsHtml(pile, outputFolder, dtd, threadCount, isStreaming, false);
+    }
+
+    /**
+     * Same as
+     * <code>exportAsHtml(GuidePile, File, DomWriter.Dtd, int, boolean)</code>
+     * but optionally only writing those nodes that changed since the previous
+     * export to <code>outputFolder</code> and removing HTML files of nodes
+     * that do not exist anymore.
+     * 
+     * @see ExportManifest
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd, int threadCount,
+            boolean isStreaming, boolean isIncremental) throws ParserConfigurationException, IOException,
+            TransformerConfigurationException, TransformerException {
+        assert pile != null;
+        assert outputFolder != null;
+        assert dtd != null;
+        assert threadCount > 0;
+
+        if (threadCount == 1) {
             HtmlDomFactory factory = new HtmlDomFactory(pile, outputFolder);
+            ExportManifest manifest = createManifest(factory, outputFolder, dtd, isStreaming, isIncremental);
+            HtmlNodeExporter exporter = new HtmlNodeExporter(factory, dtd, createHtmlWriter(dtd, isStreaming));
+            int nodeCount = 0;
+            int nodesWritten = 0;
+
             factory.copyStyleFile();
-            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            factory.exportNonGuideFiles(null);
+            for (Guide guide : pile.getGuides()) {
+                boolean isGuideUnchanged = putGuide(manifest, guide);
+                for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                    nodeCount += 1;
+                    if (exporter.export(guide, nodeInfo, manifest, isGuideUnchanged)) {
+                        nodesWritten += 1;
+                    }
+                }
+            }
+            finishManifest(manifest, outputFolder, nodeCount, nodesWritten);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                exportAsHtml(pile, outputFolder, dtd, executor, isStreaming, isIncremental);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Same as <code>exportAsHtml(GuidePile, File, DomWriter.Dtd)</code>
+     * but creating and writing the HTML documents for the nodes concurrently
+     * using <code>executor</code>. Each thread uses its own DOM and borrows its
+     * own <code>Transformer</code> from the <code>DomWriter</code>, so the
+     * resulting files are the same as with the sequential export.
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd, Executor executor)
+            throws ParserConfigurationException, IOException, TransformerConfigurationException,
+            TransformerException {
+        exportAsHtml(pile, outputFolder, dtd, executor, false);
+    }
+
+    /**
+     * Same as
+     * <code>exportAsHtml(GuidePile, File, DomWriter.Dtd, Executor)</code>
+     * but optionally writing the HTML documents directly using
+     * <code>HtmlStreamWriter</code>.
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd, Executor executor,
+            boolean isStreaming) throws ParserConfigurationException, IOException,
+            TransformerConfigurationException, TransformerException {
+        exportAsHtml(pile, outputFolder, dtd, executor, isStreaming, false);
+    }
+
+    /**
+     * Same as
+     * <code>exportAsHtml(GuidePile, File, DomWriter.Dtd, Executor, boolean)</code>
+     * but optionally only writing those nodes that changed since the previous
+     * export.
+     * 
+     * @see ExportManifest
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, final DomWriter.Dtd dtd, Executor executor,
+            final boolean isStreaming, boolean isIncremental) throws ParserConfigurationException, IOException,
+            TransformerConfigurationException, TransformerException {
+        assert pile != null;
+        assert outputFolder != null;
+        assert dtd != null;
+        assert executor != null;
+
+        final HtmlDomFactory templateFactory = new HtmlDomFactory(pile, outputFolder);
+        final DomWriter htmlWriter = createHtmlWriter(dtd, isStreaming);
+        final ExportManifest manifest = createManifest(templateFactory, outputFolder, dtd, isStreaming,
+                isIncremental);
+        final ThreadLocal<HtmlNodeExporter> exporters = new ThreadLocal<HtmlNodeExporter>();
+        List<FutureTask<Boolean>> tasks = new ArrayList<FutureTask<Boolean>>();
+
+        templateFactory.copyStyleFile();
+        templateFactory.exportNonGuideFiles(executor);
+        for (final Guide guide : pile.getGuides()) {
+            final boolean isGuideUnchanged = putGuide(manifest, guide);
+            for (final NodeInfo nodeInfo : guide.getNodeInfos()) {
+                FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        HtmlNodeExporter exporter = exporters.get();
+                        if (exporter == null) {
+                            exporter = new HtmlNodeExporter(new HtmlDomFactory(templateFactory), dtd,
+                                    htmlWriter);
+                            exporters.set(exporter);
+                        }
+                        return Boolean.valueOf(exporter.export(guide, nodeInfo, manifest, isGuideUnchanged));
+                    }
+                });
+                tasks.add(task);
+                executor.execute(task);
+            }
+        }
+
+        int nodesWritten = 0;
+        try {
+            for (FutureTask<Boolean> task : tasks) {
+                if (waitFor(task).booleanValue()) {
+                    nodesWritten += 1;
+                }
+            }
+        } finally {
+            // In case of errors, do not bother with the remaining nodes.
+            for (FutureTask<Boolean> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        finishManifest(manifest, outputFolder, tasks.size(), nodesWritten);
+    }
+
+    /**
+     * The manifest to check and remember which nodes changed, or
+     * <code>null</code> unless <code>isIncremental</code>.
+     */
+    private ExportManifest createManifest(HtmlDomFactory factory, File outputFolder, DomWriter.Dtd dtd,
+            boolean isStreaming, boolean isIncremental) throws IOException {
+        ExportManifest result;
+        if (isIncremental) {
+            String settings = "version=" + Version.VERSION_TAG + ", dtd=" + dtd + ", streaming=" + isStreaming
+                    + ", addDublinCore=" + factory.isAddDublinCore() + ", addNavigationBar="
+                    + factory.isAddNavigationBar() + ", convertIffIlbm=" + factory.isConvertIffIlbm()
+                    + ", copyNonGuides=" + factory.isCopyNonGuides();
+            result = new ExportManifest(outputFolder, settings);
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Remember the source of <code>guide</code> in <code>manifest</code>
+     * (if any).
+     * 
+     * @return <code>true</code> if the source is the same as in the previous
+     *         export.
+     */
+    private boolean putGuide(ExportManifest manifest, Guide guide) throws IOException {
+        boolean result;
+        if (manifest != null) {
+            String sourceHash = Tools.getInstance().getSha1(guide.getSourceFile());
+            result = manifest.putGuide(guide, sourceHash);
+        } else {
+            result = false;
+        }
+        return result;
+    }
+
+    private void finishManifest(ExportManifest manifest, File outputFolder, int nodeCount, int nodesWritten)
+            throws IOException {
+        if (manifest != null) {
+            List<File> deletedFiles = manifest.deleteOrphanedFiles();
+            manifest.write();
+            log.log(Level.INFO, "wrote {0} of {1} nodes and deleted {2} orphaned files in {3}", new Object[] {
+                    nodesWritten, nodeCount, deletedFiles.size(), Tools.getInstance().sourced(outputFolder) });
+        }
+    }
+
+    /**
+     * The <code>DomWriter</code> to write HTML documents, or
+     * <code>null</code> if <code>isStreaming</code>.
+     */
+    private DomWriter createHtmlWriter(DomWriter.Dtd dtd, boolean isStreaming)
+            throws TransformerConfigurationException {
+        DomWriter result;
+        if (isStreaming) {
+            result = null;
+        } else {
+            result = new DomWriter(dtd);
+        }
+        return result;
+    }
+
+    /**
+     * Wait for <code>task</code> to finish, passing on any exception it
+     * might have thrown.
+     */
+    private <T> T waitFor(FutureTask<T> task) throws ParserConfigurationException, IOException,
+            TransformerException {
+        try {
+            return task.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException wrappedError = new InterruptedIOException("HTML export has been interrupted");
+            wrappedError.initCause(error);
+            throw wrappedError;
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof TransformerException) {
+                throw (TransformerException) cause;
+            } else if (cause instanceof ParserConfigurationException) {
+                throw (ParserConfigurationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("cannot export node", cause);
+            }
+        }
+    }
+
+    /**
+     * Factory to export nodes as HTML documents, to be used by one thread
+     * only. The <code>DomWriter</code> can be shared between exporters; if
+     * it is <code>null</code>, documents are written using
+     * <code>HtmlStreamWriter</code>.
+     */
+    private static class HtmlNodeExporter {
+        private HtmlDomFactory factory;
+        private DomWriter.Dtd dtd;
+        private DomWriter htmlWriter;
+        private Logger log;
+        private Tools tools;
+
+        HtmlNodeExporter(HtmlDomFactory newFactory, DomWriter.Dtd newDtd, DomWriter newHtmlWriter) {
+            factory = newFactory;
+            dtd = newDtd;
+            htmlWriter = newHtmlWriter;
+            log = Logger.getLogger(HtmlNodeExporter.class.getName());
+            tools = Tools.getInstance();
+        }
+
+        /**
+         * Export <code>nodeInfo</code> unless <code>manifest</code> tells
+         * that it did not change since the previous export.
+         * 
+         * @param manifest
+         *                the manifest of an incremental export, or
+         *                <code>null</code> to always export the node
+         * @param isGuideUnchanged
+         *                is the source of <code>guide</code> the same as in the
+         *                previous export, so the content hash of the node can
+         *                be taken from the manifest instead of computing it
+         * @return <code>true</code> if the node has been written
+         */
+        boolean export(Guide guide, NodeInfo nodeInfo, ExportManifest manifest, boolean isGuideUnchanged)
+                throws ParserConfigurationException, IOException, TransformerException {
+            File targetFile = factory.getTargetFileFor(guide, nodeInfo);
+            String contentHash = null;
+            String linkHash = null;
+            boolean isUnchanged = false;
+
+            if (manifest != null) {
+                if (isGuideUnchanged) {
+                    contentHash = manifest.getPreviousContentHash(targetFile);
+                }
+                if (contentHash == null) {
+                    contentHash = factory.getNodeContentHash(guide, nodeInfo);
+                }
+                linkHash = factory.getNodeLinkHash(guide, nodeInfo);
+                isUnchanged = manifest.isUnchanged(targetFile, contentHash, linkHash);
+            }
+
+            if (isUnchanged) {
+                log.log(Level.FINE, "skip unchanged {0}", tools.sourced(targetFile));
+            } else if (htmlWriter != null) {
                 Document htmlDocument = factory.createNodeDocument(guide, nodeInfo);
-                File targetFile = factory.getTargetFileFor(guide, nodeInfo);
-                DomWriter htmlWriter = new DomWriter(dtd);
                 htmlWriter.write(htmlDocument, targetFile);
+            } else {
+                tools.mkdirs(targetFile.getParentFile());
+                Writer targetWriter = tools.createBufferedWriter(targetFile, DomWriter.DEFAULT_ENCODING);
+                try {
+                    HtmlStreamWriter streamWriter = new HtmlStreamWriter(targetWriter, dtd,
+                            DomWriter.DEFAULT_ENCODING);
+                    factory.writeNodeDocument(guide, nodeInfo, streamWriter);
+                } finally {
+                    targetWriter.close();
+                }
+            }
+
+            if (manifest != null) {
+                manifest.putNode(targetFile, contentHash, linkHash);
             }
+            return !isUnchanged;
         }
     }
 }
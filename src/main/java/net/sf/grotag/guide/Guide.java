@@ -1,12 +1,18 @@
 package net.sf.grotag.guide;
 
 import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -20,13 +26,15 @@ import net.sf.grotag.parse.AbstractItem;
 import net.sf.grotag.parse.AbstractSource;
 import net.sf.grotag.parse.AbstractTextItem;
 import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.CompactItemList;
 import net.sf.grotag.parse.FileSource;
+import net.sf.grotag.parse.ItemCodec;
 import net.sf.grotag.parse.ItemReader;
+import net.sf.grotag.parse.MacroExpansionCache;
 import net.sf.grotag.parse.MessageItem;
 import net.sf.grotag.parse.MessagePool;
 import net.sf.grotag.parse.NewLineItem;
 import net.sf.grotag.parse.SpaceItem;
-import net.sf.grotag.parse.StringSource;
 import net.sf.grotag.parse.Tag;
 import net.sf.grotag.parse.TagOption;
 import net.sf.grotag.parse.TagPool;
@@ -48,27 +56,33 @@ public class Guide {
     private int uniqueNodeCounter;
     private Map<String, CommandItem> nodeMap;
     private Map<String, CommandItem> endNodeMap;
+    private String currentNodeName;
     private Map<String, CommandItem> uniqueGlobalCommandsOccurred;
     private Map<String, CommandItem> uniqueNodeCommandsOccurred;
     private boolean hasMacros;
     private DatabaseInfo databaseInfo;
     private Map<String, NodeInfo> nodeInfoMap;
+    private List<NodeInfo> nodeInfos;
     private List<Link> links;
     private Map<Relation, Link> globalRelationLinkMap;
     private AmigaPathList amigaPaths;
+    private NodeBoundaryIndex boundaryIndex;
+    private Map<String, NodeBoundaryIndex.LineRange> nodeToBodyRangeMap;
+    private Map<String, List<AbstractItem>> nodeToItemsMap;
 
-    private Guide(AbstractSource newGuideSource, AmigaPathList newAmigaPaths) {
+    private Guide(AbstractSource newGuideSource, AmigaPathList newAmigaPaths, MessagePool newMessagePool) {
         assert newGuideSource != null;
         assert newAmigaPaths != null;
+        assert newMessagePool != null;
 
         tools = Tools.getInstance();
-        messagePool = MessagePool.getInstance();
+        messagePool = newMessagePool;
         log = Logger.getLogger(Guide.class.getName());
 
         guideSource = newGuideSource;
         amigaPaths = newAmigaPaths;
         tagPool = new TagPool();
-        nodeInfoMap = new TreeMap<String, NodeInfo>();
+        nodeInfoMap = new HashMap<String, NodeInfo>();
         globalRelationLinkMap = new TreeMap<Relation, Link>();
     }
 
@@ -109,44 +123,86 @@ public class Guide {
     }
 
     /**
-     * Replace all items calling a macro by the resolved sequence of items.
+     * Replace all items calling a macro by the resolved sequence of items and
+     * collect the nodes from the result. Macros can call other macros, so the
+     * resolved items are processed the same way before continuing with the
+     * items after the call. The resolved items are appended to a new list, so
+     * that neither resolving macros nor fixing missing or dangling
+     * <code>@endnode</code>s has to shift the remaining items.
      */
-    private void resolveMacros() throws IOException {
-        int itemIndex = 0;
-        while (itemIndex < items.size()) {
-            AbstractItem item = items.get(itemIndex);
-            log.fine("process " + item);
-            if (isInlineCommand(item)) {
-                CommandItem tagItem = (CommandItem) item;
-                Tag macro = tagPool.getMacro(tagItem.getCommandName());
+    private void resolveMacrosAndCollectNodes() throws IOException {
+        List<AbstractItem> sourceItems = items;
+        MacroExpansionCache expansionCache = new MacroExpansionCache(messagePool);
+
+        items = new ArrayList<AbstractItem>(sourceItems.size());
+        nodeList = new ArrayList<CommandItem>();
+        nodeMap = new TreeMap<String, CommandItem>();
+        endNodeMap = new TreeMap<String, CommandItem>();
+        currentNodeName = null;
+
+        resolveMacros(sourceItems, null, expansionCache);
+        if (currentNodeName != null) {
+            appendMissingEndnodeAtEndOfFile(currentNodeName);
+            currentNodeName = null;
+        }
+        if (hasMacros && log.isLoggable(Level.FINE)) {
+            log.fine("resolved macros with " + expansionCache.getMissCount() + " expansions read and "
+                    + expansionCache.getHitCount() + " taken from cache");
+        }
+        if (log.isLoggable(Level.FINE)) {
+            for (CommandItem node : nodeList) {
+                log.fine("node: " + node);
+                log.fine("  endnode: " + endNodeMap.get(getNodeName(node)));
+            }
+        }
+    }
+
+    /**
+     * Resolve the macros called by <code>sourceItems</code> and append the
+     * result to <code>targetItems</code>, or pass it to
+     * <code>collectNode()</code> if <code>targetItems</code> is
+     * <code>null</code>.
+     */
+    private void resolveMacros(List<AbstractItem> sourceItems, List<AbstractItem> targetItems,
+            MacroExpansionCache expansionCache) throws IOException {
+        LinkedList<Iterator<AbstractItem>> itemIteratorStack = new LinkedList<Iterator<AbstractItem>>();
+
+        itemIteratorStack.addFirst(sourceItems.iterator());
+        while (!itemIteratorStack.isEmpty()) {
+            Iterator<AbstractItem> itemIterator = itemIteratorStack.getFirst();
+            if (itemIterator.hasNext()) {
+                AbstractItem item = itemIterator.next();
+                Tag macro = null;
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("process " + item);
+                }
+                if (hasMacros && isInlineCommand(item)) {
+                    macro = tagPool.getMacro(((CommandItem) item).getCommandName());
+                }
                 if (macro != null) {
-                    // messagePool.add(new MessageItem(tagItem, "resolving
-                    // macro @{" + macro.getName() + "}..."));
-                    // Write resolved macro to file and parse it.
-                    String resolvedMacro = resolveMacro(tagItem, macro);
-                    StringSource macroSource = new StringSource(guideSource.getShortName() + "@macro-"
+                    String resolvedMacro = resolveMacro((CommandItem) item, macro);
+                    List<AbstractItem> macroItems = expansionCache.getItems(guideSource.getShortName() + "@macro-"
                             + macro.getName(), resolvedMacro);
 
-                    ItemReader itemReader = new ItemReader(macroSource);
-                    itemReader.read();
-                    List<AbstractItem> macroItems = itemReader.getItems();
-
                     assert macroItems.size() > 0;
                     assert macroItems.get(macroItems.size() - 1) instanceof NewLineItem;
                     macroItems.remove(macroItems.size() - 1);
-                    items.remove(itemIndex);
-                    items.addAll(itemIndex, macroItems);
-                    itemIndex -= 1;
+                    itemIteratorStack.addFirst(macroItems.iterator());
+                } else if (targetItems == null) {
+                    collectNode(item);
+                } else {
+                    targetItems.add(item);
                 }
+            } else {
+                itemIteratorStack.removeFirst();
             }
-            itemIndex += 1;
         }
     }
 
     private String resolveMacro(CommandItem caller, Tag macro) {
         // Replace macro options.
         String macroText = macro.getMacroTextItem().getText();
-        String result = "";
+        StringBuilder result = new StringBuilder(macroText.length());
         int i = 0;
         while (i < macroText.length()) {
             char some = macroText.charAt(i);
@@ -164,24 +220,32 @@ public class Guide {
 
                 if (accessOptionIndex < caller.getItems().size()) {
                     optionText = ((AbstractTextItem) caller.getItems().get(accessOptionIndex)).getText();
-                    log.fine("  substituting $" + optionIndex + " by: " + tools.sourced(optionText));
+                    if (log.isLoggable(Level.FINE)) {
+                        log.fine("  substituting $" + optionIndex + " by: " + tools.sourced(optionText));
+                    }
                 } else {
                     optionText = "";
                     log.fine("  substituting $" + optionIndex + " by empty text");
                 }
-                result += optionText;
+                result.append(optionText);
             } else {
-                result += some;
+                result.append(some);
             }
             i += 1;
         }
-        log.fine("resolved macro: " + result);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("resolved macro: " + result);
+        }
 
-        return result;
+        return result.toString();
     }
 
-    private void collectLinks() {
-        links = new ArrayList<Link>();
+    /**
+     * Collect the links from relations, followed by the links from link
+     * commands found by <code>validateCommandsAndCollectLinks()</code>.
+     */
+    private void collectLinks(List<Link> commandLinks) {
+        links = new ArrayList<Link>(commandLinks.size() + 2 * nodeList.size());
 
         // Collect links from relations.
         // TODO #3: Check if streams are useful here.
@@ -190,52 +254,49 @@ public class Guide {
             collectLinksFromRelationMap(nodeInfo.getRelationLinkMap());
         }
 
-        // Collect links from link commands.
-        for (AbstractItem item : items) {
-            if (item instanceof CommandItem) {
-                CommandItem command = (CommandItem) item;
-                if (command.isLink()) {
-                    String label = command.getOriginalCommandName();
-                    label = label.substring(1, label.length() - 1);
-                    String type = command.getOption(0);
-                    Tag linkTag = tagPool.getTag(type, Tag.Scope.LINK);
-
-                    if (linkTag != null) {
-                        assert !linkTag.nameEquals(Tag.Name.alink) : "alink must have been replaced: " + command;
-                        if (linkTag.nameEquals(Tag.Name.link) || linkTag.nameEquals(Tag.Name.guide)) {
-                            String target = command.getOption(1);
-                            assert target != null : "empty target: " + command;
-                            if (target.length() > 0) {
-                                try {
-                                    Link link = new Link(command, amigaPaths);
-                                    links.add(link);
-                                } catch (NumberFormatException error) {
-                                    String lineText = command.getOption(2);
-                                    log
-                                            .log(Level.INFO, "ignored broken line number: " + tools.sourced(lineText),
-                                                    error);
-                                    MessageItem message = new MessageItem(command.getOptionItem(2),
-                                            "ignored broken line number: " + tools.sourced(lineText));
-                                    messagePool.add(message);
-                                    command.cutOptionsAt(2);
-                                    Link link = new Link(command, amigaPaths);
-                                    links.add(link);
-                                }
-                            } else {
-                                // Empty link, for example @{"label" link ""}.
-                                MessageItem message = new MessageItem(command.getOptionItem(1),
-                                        "ignored empty link target");
-                                messagePool.add(message);
-                            }
-                        }
-                    } else {
-                        // Unknown link type, for example: @{"label" oops}.
-                        MessageItem message = new MessageItem(command.getOptionItem(0), "ignored unknown link type "
-                                + tools.sourced(type) + ", valid types are: " + tagPool.getValidLinkTypes());
+        links.addAll(commandLinks);
+    }
+
+    /**
+     * Add the link <code>command</code> refers to to <code>commandLinks</code>
+     * if it is a link to a node or guide.
+     */
+    private void collectLink(CommandItem command, List<Link> commandLinks) {
+        assert command.isLink();
+
+        String type = command.getOption(0);
+        Tag linkTag = tagPool.getTag(type, Tag.Scope.LINK);
+
+        if (linkTag != null) {
+            assert !linkTag.nameEquals(Tag.Name.alink) : "alink must have been replaced: " + command;
+            if (linkTag.nameEquals(Tag.Name.link) || linkTag.nameEquals(Tag.Name.guide)) {
+                String target = command.getOption(1);
+                assert target != null : "empty target: " + command;
+                if (target.length() > 0) {
+                    try {
+                        Link link = new Link(command, amigaPaths);
+                        commandLinks.add(link);
+                    } catch (NumberFormatException error) {
+                        String lineText = command.getOption(2);
+                        log.log(Level.INFO, "ignored broken line number: " + tools.sourced(lineText), error);
+                        MessageItem message = new MessageItem(command.getOptionItem(2), "ignored broken line number: "
+                                + tools.sourced(lineText));
                         messagePool.add(message);
+                        command.cutOptionsAt(2);
+                        Link link = new Link(command, amigaPaths);
+                        commandLinks.add(link);
                     }
+                } else {
+                    // Empty link, for example @{"label" link ""}.
+                    MessageItem message = new MessageItem(command.getOptionItem(1), "ignored empty link target");
+                    messagePool.add(message);
                 }
             }
+        } else {
+            // Unknown link type, for example: @{"label" oops}.
+            MessageItem message = new MessageItem(command.getOptionItem(0), "ignored unknown link type "
+                    + tools.sourced(type) + ", valid types are: " + tagPool.getValidLinkTypes());
+            messagePool.add(message);
         }
     }
 
@@ -247,82 +308,70 @@ public class Guide {
         }
     }
 
-    private void collectNodes() {
-        nodeList = new ArrayList<CommandItem>();
-        nodeMap = new TreeMap<String, CommandItem>();
-        endNodeMap = new TreeMap<String, CommandItem>();
-
-        String nodeName = null;
-        int i = 0;
-
-        while (i < items.size()) {
-            AbstractItem item = items.get(i);
-            if (isLineCommand(item)) {
-                CommandItem command = (CommandItem) item;
-                String commandName = command.getCommandName();
-
-                if (commandName.equals("node")) {
-                    if (nodeName != null) {
-                        // Add missing @endnode.
-                        CommandItem endNodeItem = new CommandItem(command.getFile(), command.getLine(), command
-                                .getColumn(), "endnode", false, new ArrayList<AbstractItem>());
-                        items.add(i, endNodeItem);
-                        endNodeMap.put(nodeName, endNodeItem);
-                        i += 1;
-                        CommandItem startNodeItem = nodeList.get(nodeList.size() - 1);
-
-                        MessageItem message = new MessageItem(command, "added missing @endnode before @node");
-                        MessageItem seeAlso = new MessageItem(startNodeItem, "previous @node");
+    /**
+     * Append <code>item</code> to the items, adding a missing
+     * <code>@endnode</code> before it or dropping it if it is a dangling
+     * <code>@endnode</code>, and keep track of the nodes.
+     */
+    private void collectNode(AbstractItem item) {
+        boolean isItemToAppend = true;
+
+        if (isLineCommand(item)) {
+            CommandItem command = (CommandItem) item;
+            String commandName = command.getCommandName();
+
+            if (commandName.equals("node")) {
+                if (currentNodeName != null) {
+                    // Add missing @endnode.
+                    CommandItem endNodeItem = new CommandItem(command.getFile(), command.getLine(), command
+                            .getColumn(), "endnode", false, new ArrayList<AbstractItem>());
+                    items.add(endNodeItem);
+                    endNodeMap.put(currentNodeName, endNodeItem);
+                    CommandItem startNodeItem = nodeList.get(nodeList.size() - 1);
+
+                    MessageItem message = new MessageItem(command, "added missing @endnode before @node");
+                    MessageItem seeAlso = new MessageItem(startNodeItem, "previous @node");
+                    message.setSeeAlso(seeAlso);
+                    messagePool.add(message);
+                }
+                currentNodeName = getNodeNameOrNull(command);
+                if (currentNodeName != null) {
+                    CommandItem nodeWithSameName = nodeMap.get(currentNodeName);
+                    if (nodeWithSameName != null) {
+                        // Change duplicate node name to something unique.
+                        AbstractTextItem uniqueNodeNameItem = getUniqueNodeNameItem(command.getItems().get(1));
+                        currentNodeName = uniqueNodeNameItem.getText();
+                        command.setOption(0, currentNodeName);
+                        MessageItem message = new MessageItem(command, "changed duplicate node name "
+                                + tools.sourced(currentNodeName) + " to " + tools.sourced(currentNodeName));
+                        MessageItem seeAlso = new MessageItem(nodeWithSameName, "existing node with same name");
                         message.setSeeAlso(seeAlso);
                         messagePool.add(message);
                     }
-                    nodeName = getNodeNameOrNull(command);
-                    if (nodeName != null) {
-                        CommandItem nodeWithSameName = nodeMap.get(nodeName);
-                        if (nodeWithSameName != null) {
-                            // Change duplicate node name to something unique.
-                            AbstractTextItem uniqueNodeNameItem = getUniqueNodeNameItem(command.getItems().get(1));
-                            nodeName = uniqueNodeNameItem.getText();
-                            command.setOption(0, nodeName);
-                            MessageItem message = new MessageItem(command, "changed duplicate node name "
-                                    + tools.sourced(nodeName) + " to " + tools.sourced(nodeName));
-                            MessageItem seeAlso = new MessageItem(nodeWithSameName, "existing node with same name");
-                            message.setSeeAlso(seeAlso);
-                            messagePool.add(message);
-                        }
-                    } else {
-                        nodeName = getUniqueNodeName();
-                        command.getItems().add(
-                                new SpaceItem(command.getFile(), command.getLine(), command.getColumn(), " "));
-                        command.getItems().add(
-                                new TextItem(command.getFile(), command.getLine(), command.getColumn(), nodeName));
-                        MessageItem message = new MessageItem(command, "assigned name " + tools.sourced(nodeName)
-                                + " to unnamed node");
-                        messagePool.add(message);
-                    }
-                    nodeList.add(command);
-                    nodeMap.put(nodeName, command);
-                } else if (commandName.equals("endnode")) {
-                    if (nodeName == null) {
-                        items.remove(i);
-                        i -= 1;
-                        messagePool.add(new MessageItem(command, "removed dangling @endnode"));
-                    } else {
-                        endNodeMap.put(nodeName, command);
-                        nodeName = null;
-                    }
+                } else {
+                    currentNodeName = getUniqueNodeName();
+                    command.getItems().add(
+                            new SpaceItem(command.getFile(), command.getLine(), command.getColumn(), " "));
+                    command.getItems().add(
+                            new TextItem(command.getFile(), command.getLine(), command.getColumn(), currentNodeName));
+                    MessageItem message = new MessageItem(command, "assigned name "
+                            + tools.sourced(currentNodeName) + " to unnamed node");
+                    messagePool.add(message);
+                }
+                nodeList.add(command);
+                nodeMap.put(currentNodeName, command);
+            } else if (commandName.equals("endnode")) {
+                if (currentNodeName == null) {
+                    isItemToAppend = false;
+                    messagePool.add(new MessageItem(command, "removed dangling @endnode"));
+                } else {
+                    endNodeMap.put(currentNodeName, command);
+                    currentNodeName = null;
                 }
-
             }
-            i += 1;
-        }
-        if (nodeName != null) {
-            appendMissingEndnodeAtEndOfFile(nodeName);
         }
-
-        for (CommandItem node : nodeList) {
-            log.fine("node: " + node);
-            log.fine("  endnode: " + endNodeMap.get(getNodeName(node)));
+        if (isItemToAppend) {
+            items.add(item);
         }
     }
 
@@ -373,30 +422,44 @@ public class Guide {
         assert nodeList.size() == nodeMap.size();
         assert nodeList.size() == endNodeMap.size();
         assert nodeList.size() == nodeInfoMap.size() : "nls=" + nodeList.size() + ", nims=" + nodeInfoMap.size();
+        assert nodeList.size() == nodeInfos.size();
 
-        for (CommandItem nodeItem : nodeList) {
+        for (int nodeIndex = 0; nodeIndex < nodeList.size(); nodeIndex += 1) {
+            CommandItem nodeItem = nodeList.get(nodeIndex);
             String nodeName = getNodeName(nodeItem);
             assert nodeName != null;
             assert nodeMap.get(nodeName) != null;
             assert endNodeMap.get(nodeName) != null;
             NodeInfo nodeInfo = nodeInfoMap.get(nodeName);
             assert nodeInfo != null;
+            assert nodeInfos.get(nodeIndex) == nodeInfo;
             assert nodeInfo.getStartNode() != null;
             assert nodeInfo.getEndNode() != null;
+            assert items.get(nodeInfo.getStartItemIndex()) == nodeInfo.getStartNode();
+            assert items.get(nodeInfo.getEndItemIndex()) == nodeInfo.getEndNode();
         }
     }
 
-    private void validateCommands() {
+    /**
+     * Validate all commands, collect information about the database and the
+     * nodes from them and finally collect all links.
+     */
+    private void validateCommandsAndCollectLinks() {
+        List<Link> commandLinks = new ArrayList<Link>();
+        List<NodeInfo> nodeInfoList = new ArrayList<NodeInfo>(nodeList.size());
         uniqueGlobalCommandsOccurred = new TreeMap<String, CommandItem>();
         uniqueNodeCommandsOccurred = new TreeMap<String, CommandItem>();
         NodeInfo currentNodeInfo = null;
+        int currentNodeItemIndex = -1;
         int itemIndex = 0;
 
         while (itemIndex < items.size()) {
             AbstractItem item = items.get(itemIndex);
             if (item instanceof CommandItem) {
                 CommandItem command = (CommandItem) item;
-                log.log(Level.FINE, "validate {0}", item.toPrettyAmigaguide());
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, "validate {0}", item.toPrettyAmigaguide());
+                }
                 if (command.getCommandName().equals("node")) {
                     assert currentNodeInfo == null;
                     String nodeName = getNodeName(command);
@@ -405,138 +468,170 @@ public class Guide {
 
                     currentNodeInfo = new NodeInfo(getDatabaseInfo(), nodeName, nodeTitle);
                     currentNodeInfo.setStartAndEndNode(command, matchingEndNode);
+                    currentNodeItemIndex = itemIndex;
                     assert !nodeInfoMap.containsKey(nodeName);
                     nodeInfoMap.put(nodeName, currentNodeInfo);
+                    nodeInfoList.add(currentNodeInfo);
 
                 } else if (command.getCommandName().equals("endnode")) {
                     assert currentNodeInfo != null;
+                    assert command == currentNodeInfo.getEndNode();
+                    currentNodeInfo.setItemRange(currentNodeItemIndex, itemIndex);
                     currentNodeInfo = null;
                     uniqueNodeCommandsOccurred.clear();
                 }
 
-                int oldItemCount = items.size();
-                Tag.Scope scope = getScopeFor(command, (currentNodeInfo != null));
-                if (scope == Tag.Scope.LINK) {
-                    validateLink(itemIndex, command);
-                } else {
-                    boolean removeCommand = false;
-                    Tag tag = tagPool.getTag(command.getCommandName(), scope);
-                    if (tag != null) {
-                        TagOption[] tagOptions = tag.getOptions();
-                        boolean lastOptionIsAnyOrSome = false;
-                        int optionIndex = 0;
+                validateCommand(items, itemIndex, currentNodeInfo, commandLinks, null);
+            }
+            itemIndex += 1;
+        }
 
-                        removeCommand = !isValidPossiblyUniqueCommand(command, tag);
+        // At this point, a possible missing @endnode should have been fixed
+        // already.
+        assert currentNodeInfo == null;
 
-                        if (!removeCommand) {
-                            validateUnusedAndObsoleteCommand(command, tag);
-                        }
-                        while (!removeCommand && (tagOptions != null) && (optionIndex < tagOptions.length)) {
-                            TagOption tagOption = tagOptions[optionIndex];
-                            String optionValue = command.getOption(optionIndex);
-                            String validationError = tagOption.validationError(optionValue);
-                            if (validationError != null) {
-                                AbstractItem baseItem = command.getOptionItem(optionIndex);
-
-                                if (baseItem == null) {
-                                    baseItem = command;
-                                }
-                                MessageItem message = new MessageItem(baseItem, "removed "
-                                        + command.toShortAmigaguide() + " because option #" + (optionIndex + 1)
-                                        + " is broken: " + validationError);
-                                messagePool.add(message);
-                                removeCommand = true;
-                            } else {
-                                assert !lastOptionIsAnyOrSome : "option of type \"any\" or \"some\" must be the last: "
-                                        + tag;
-                                lastOptionIsAnyOrSome = (tagOption.getType() == TagOption.Type.ANY)
-                                        || (tagOption.getType() == TagOption.Type.SOME);
-                            }
-                            optionIndex += 1;
-                        }
+        nodeInfos = Collections.unmodifiableList(nodeInfoList);
+        assertNodeConsistency();
 
-                        if (!removeCommand && !lastOptionIsAnyOrSome) {
-                            AbstractTextItem optionItem = command.getOptionItem(optionIndex);
-                            if (optionItem != null) {
-                                MessageItem message = new MessageItem(optionItem, "ignored unexpected option #"
-                                        + (optionIndex + 1) + " (and possible further options) for "
-                                        + command.toShortAmigaguide() + ": " + tools.sourced(optionItem.getText()));
-                                messagePool.add(message);
-                            }
-                        }
+        // No more need for those, but GC wouldn't know.
+        uniqueGlobalCommandsOccurred = null;
+        uniqueNodeCommandsOccurred = null;
 
-                        // Validate and process special commands.
-                        if (!removeCommand) {
-                            String commandName = command.getCommandName();
-                            AbstractInfo scopedInfo;
+        collectLinks(commandLinks);
+    }
 
-                            if (currentNodeInfo == null) {
-                                scopedInfo = getDatabaseInfo();
-                            } else {
-                                scopedInfo = currentNodeInfo;
-                            }
+    /**
+     * Validate the command at <code>itemIndex</code> of
+     * <code>itemsToValidate</code>, which is part of
+     * <code>currentNodeInfo</code> or global if this is <code>null</code>,
+     * and add the link it represents, if any, to <code>commandLinks</code>.
+     *
+     * @param relationLinks
+     *                the list to add the links of relations within a node
+     *                to, or <code>null</code> to only set them for the node
+     *                and leave collecting them to <code>collectLinks()</code>
+     */
+    private void validateCommand(List<AbstractItem> itemsToValidate, int itemIndex, NodeInfo currentNodeInfo,
+            List<Link> commandLinks, List<Link> relationLinks) {
+        CommandItem command = (CommandItem) itemsToValidate.get(itemIndex);
+        Tag.Scope scope = getScopeFor(command, (currentNodeInfo != null));
+        if (scope == Tag.Scope.LINK) {
+            validateLink(itemsToValidate, itemIndex, command);
+        } else {
+            boolean removeCommand = false;
+            Tag tag = tagPool.getTag(command.getCommandName(), scope);
+            if (tag != null) {
+                TagOption[] tagOptions = tag.getOptions();
+                boolean lastOptionIsAnyOrSome = false;
+                int optionIndex = 0;
 
-                            if (commandName.equals("author")) {
-                                databaseInfo.setAuthor(command.getAllOptionsText());
-                            } else if (commandName.equals("font")) {
-                                removeCommand = !isValidFont(command);
-                                if (!removeCommand) {
-                                    String fontName = command.getOption(0);
-                                    int fontSize = Integer.parseInt(command.getOption(1));
-                                    scopedInfo.setFont(fontName, fontSize);
-                                }
-                            } else if (commandName.equals(Tag.Name.proportional.toString())
-                                    && (currentNodeInfo != null)) {
-                                currentNodeInfo.setProportional(true);
-                            } else if (commandName.equals("smartwrap")) {
-                                scopedInfo.setWrap(Wrap.SMART);
-                            } else if (commandName.equals("wordwrap")) {
-                                scopedInfo.setWrap(Wrap.WORD);
-                            } else if (commandName.equals("$ver:")) {
-                                databaseInfo.setVersion(command.getAllOptionsText());
-                            } else if (commandName.equals("(c)")) {
-                                databaseInfo.setCopyright(command.getAllOptionsText());
-                            } else if (command.isRelation()) {
-                                assert command.getOption(0) != null : "tag must be defined to require 1 option: "
-                                        + commandName;
-                                Relation relation = Relation.valueOf(commandName);
-                                Link link = new Link(command, amigaPaths);
-                                if (currentNodeInfo == null) {
-                                    assert !globalRelationLinkMap.containsKey(relation) : "tag must be defined to be unique: "
-                                            + commandName;
-                                    globalRelationLinkMap.put(relation, link);
-                                } else {
-                                    assert currentNodeInfo.getRelation(relation) == null : "tag must be defined to be unique: "
-                                            + commandName;
-                                    currentNodeInfo.setEmptyRelationToDefault(relation, link);
-                                }
-                            }
+                removeCommand = !isValidPossiblyUniqueCommand(command, tag);
+
+                if (!removeCommand) {
+                    validateUnusedAndObsoleteCommand(command, tag);
+                }
+                while (!removeCommand && (tagOptions != null) && (optionIndex < tagOptions.length)) {
+                    TagOption tagOption = tagOptions[optionIndex];
+                    String optionValue = command.getOption(optionIndex);
+                    String validationError = tagOption.validationError(optionValue);
+                    if (validationError != null) {
+                        AbstractItem baseItem = command.getOptionItem(optionIndex);
+
+                        if (baseItem == null) {
+                            baseItem = command;
                         }
-                    } else {
-                        MessageItem message = new MessageItem(command, "removed unknown command "
-                                + command.toShortAmigaguide());
+                        MessageItem message = new MessageItem(baseItem, "removed "
+                                + command.toShortAmigaguide() + " because option #" + (optionIndex + 1)
+                                + " is broken: " + validationError);
                         messagePool.add(message);
                         removeCommand = true;
+                    } else {
+                        assert !lastOptionIsAnyOrSome : "option of type \"any\" or \"some\" must be the last: "
+                                + tag;
+                        lastOptionIsAnyOrSome = (tagOption.getType() == TagOption.Type.ANY)
+                                || (tagOption.getType() == TagOption.Type.SOME);
                     }
+                    optionIndex += 1;
+                }
 
-                    // TODO: Move global commands inside node below @database.
+                if (!removeCommand && !lastOptionIsAnyOrSome) {
+                    AbstractTextItem optionItem = command.getOptionItem(optionIndex);
+                    if (optionItem != null) {
+                        MessageItem message = new MessageItem(optionItem, "ignored unexpected option #"
+                                + (optionIndex + 1) + " (and possible further options) for "
+                                + command.toShortAmigaguide() + ": " + tools.sourced(optionItem.getText()));
+                        messagePool.add(message);
+                    }
                 }
-                // Adjust itemIndex to whatever number validateXXX() has
-                // added or removed.
-                itemIndex += items.size() - oldItemCount;
-            }
-            itemIndex += 1;
-        }
 
-        // At this point, a possible missing @endnode should have been fixed
-        // already.
-        assert currentNodeInfo == null;
+                // Validate and process special commands.
+                if (!removeCommand) {
+                    String commandName = command.getCommandName();
+                    AbstractInfo scopedInfo;
 
-        assertNodeConsistency();
+                    if (currentNodeInfo == null) {
+                        scopedInfo = getDatabaseInfo();
+                    } else {
+                        scopedInfo = currentNodeInfo;
+                    }
 
-        // No more need for those, but GC wouldn't know.
-        uniqueGlobalCommandsOccurred = null;
-        uniqueNodeCommandsOccurred = null;
+                    if (commandName.equals("author")) {
+                        databaseInfo.setAuthor(command.getAllOptionsText());
+                    } else if (commandName.equals("font")) {
+                        removeCommand = !isValidFont(command);
+                        if (!removeCommand) {
+                            String fontName = command.getOption(0);
+                            int fontSize = Integer.parseInt(command.getOption(1));
+                            scopedInfo.setFont(fontName, fontSize);
+                        }
+                    } else if (commandName.equals(Tag.Name.proportional.toString())
+                            && (currentNodeInfo != null)) {
+                        currentNodeInfo.setProportional(true);
+                    } else if (commandName.equals("smartwrap")) {
+                        scopedInfo.setWrap(Wrap.SMART);
+                    } else if (commandName.equals("wordwrap")) {
+                        scopedInfo.setWrap(Wrap.WORD);
+                    } else if (commandName.equals("$ver:")) {
+                        databaseInfo.setVersion(command.getAllOptionsText());
+                    } else if (commandName.equals("(c)")) {
+                        databaseInfo.setCopyright(command.getAllOptionsText());
+                    } else if (command.isRelation()) {
+                        assert command.getOption(0) != null : "tag must be defined to require 1 option: "
+                                + commandName;
+                        Relation relation = Relation.valueOf(commandName);
+                        Link link = new Link(command, amigaPaths);
+                        if (currentNodeInfo == null) {
+                            assert !globalRelationLinkMap.containsKey(relation) : "tag must be defined to be unique: "
+                                    + commandName;
+                            globalRelationLinkMap.put(relation, link);
+                        } else if (relationLinks == null) {
+                            assert currentNodeInfo.getRelation(relation) == null : "tag must be defined to be unique: "
+                                    + commandName;
+                            currentNodeInfo.setEmptyRelationToDefault(relation, link);
+                        } else {
+                            // Replace the default relation the pile might
+                            // have set already.
+                            currentNodeInfo.setRelation(relation, link);
+                            relationLinks.add(link);
+                        }
+                    }
+                }
+            } else {
+                MessageItem message = new MessageItem(command, "removed unknown command "
+                        + command.toShortAmigaguide());
+                messagePool.add(message);
+                removeCommand = true;
+            }
+
+            // TODO: Move global commands inside node below @database.
+        }
+
+        // Validation only replaces items, so the validated item is
+        // still at the same index.
+        AbstractItem validatedItem = itemsToValidate.get(itemIndex);
+        if ((validatedItem instanceof CommandItem) && ((CommandItem) validatedItem).isLink()) {
+            collectLink((CommandItem) validatedItem, commandLinks);
+        }
     }
 
     private boolean isValidFont(CommandItem command) {
@@ -627,7 +722,7 @@ public class Guide {
         }
     }
 
-    private void validateLink(int itemIndex, CommandItem command) {
+    private void validateLink(List<AbstractItem> itemsToValidate, int itemIndex, CommandItem command) {
         String linkType = command.getOption(0);
         String reasonToReplaceLinkByText = null;
         MessageItem seeAlso = null;
@@ -685,7 +780,7 @@ public class Guide {
                 message.setSeeAlso(seeAlso);
             }
             messagePool.add(message);
-            items.set(itemIndex, command.toTextItem());
+            itemsToValidate.set(itemIndex, command.toTextItem());
         }
     }
 
@@ -727,22 +822,273 @@ public class Guide {
         return result;
     }
 
+    /**
+     * Same as <code>createGuide(File, AmigaPathList, MessagePool)</code> but
+     * adding messages to a pool of its own.
+     */
     public static Guide createGuide(File newGuideFile, AmigaPathList newAmigaPaths) throws IOException {
+        return createGuide(newGuideFile, newAmigaPaths, new MessagePool());
+    }
+
+    /**
+     * Read the guide stored in <code>newGuideFile</code>, fix any broken
+     * parts and add messages about them to <code>newMessagePool</code>.
+     */
+    public static Guide createGuide(File newGuideFile, AmigaPathList newAmigaPaths, MessagePool newMessagePool)
+            throws IOException {
         assert newGuideFile != null;
 
         AmigaTools amigaTools = AmigaTools.getInstance();
-        Guide result = new Guide(new FileSource(newGuideFile), newAmigaPaths);
+        GuideCache cache = GuideCache.getInstance();
+        Guide result = new Guide(new FileSource(newGuideFile), newAmigaPaths, newMessagePool);
         amigaTools.ensureIsAmigaguide(newGuideFile);
-        result.readItems();
-        result.defineMacros();
-        result.resolveMacros();
-        result.collectNodes();
-        result.validateCommands();
-        result.collectLinks();
+        if (cache.isEnabled()) {
+            GuideCache.Fingerprint fingerprint = cache.createFingerprint(newGuideFile);
+            if (!cache.attemptToRead(result, fingerprint)) {
+                List<MessageItem> messages;
+                result.messagePool.startRecording();
+                try {
+                    result.readAndCollectNodes();
+                } finally {
+                    messages = result.messagePool.stopRecording();
+                }
+                cache.attemptToWrite(result, fingerprint, messages);
+            }
+        } else {
+            result.readAndCollectNodes();
+        }
+        result.validateCommandsAndCollectLinks();
+        result.compactItems();
 
         return result;
     }
 
+    /**
+     * Same as <code>createGuide()</code> but only reading the skeleton of
+     * the guide for now, which consists of the global commands and the
+     * <code>@node</code> and <code>@endnode</code> lines. This is enough to
+     * know all nodes and the database information. The body of a node is
+     * read, tokenized and validated once <code>readNode()</code> is called
+     * for it, so opening a large guide does not have to wait for all of it.
+     * <p>
+     * Macros that expand to <code>@node</code> or <code>@endnode</code>
+     * have no effect on the nodes found this way.
+     *
+     * @see NodeBoundaryIndex
+     * @see GuidePile#readNode(Guide, NodeInfo)
+     */
+    static Guide createLazyGuide(File newGuideFile, AmigaPathList newAmigaPaths, MessagePool newMessagePool)
+            throws IOException {
+        assert newGuideFile != null;
+
+        AmigaTools amigaTools = AmigaTools.getInstance();
+        Guide result = new Guide(new FileSource(newGuideFile), newAmigaPaths, newMessagePool);
+        amigaTools.ensureIsAmigaguide(newGuideFile);
+        result.readSkeletonAndCollectNodes();
+        result.validateCommandsAndCollectLinks();
+        result.compactItems();
+        result.mapBodyRanges();
+
+        return result;
+    }
+
+    /**
+     * Replace the items by a <code>CompactItemList</code> so that guides use
+     * less memory when kept around, for example by the viewer. This must be
+     * the last step because the result cannot be modified.
+     */
+    private void compactItems() {
+        items = new CompactItemList(items);
+        assertNodeConsistency();
+    }
+
+    /**
+     * Read the items, resolve macros and collect the nodes. This is the part
+     * of <code>createGuide()</code> that does not depend on anything else but
+     * the content of the guide, and consequently can be cached.
+     * 
+     * @see GuideCache
+     */
+    private void readAndCollectNodes() throws IOException {
+        // Start from scratch in case reading the cache failed half way.
+        databaseInfo = null;
+        hasMacros = false;
+        readItems();
+        defineMacros();
+        resolveMacrosAndCollectNodes();
+    }
+
+    /**
+     * Same as <code>readAndCollectNodes()</code> but only reading the
+     * skeleton of the guide.
+     */
+    private void readSkeletonAndCollectNodes() throws IOException {
+        databaseInfo = null;
+        hasMacros = false;
+
+        char[] chars = guideSource.readChars();
+        boundaryIndex = new NodeBoundaryIndex(chars);
+        readSkeletonItems(chars);
+        defineMacros();
+        resolveMacrosAndCollectNodes();
+    }
+
+    /**
+     * Remember which body range of <code>boundaryIndex</code> belongs to
+     * which node, so that <code>readNode()</code> can find it.
+     */
+    private void mapBodyRanges() {
+        List<NodeBoundaryIndex.LineRange> bodyRanges = boundaryIndex.getBodyRanges();
+
+        // Without @database, the skeleton is dropped with all its nodes.
+        assert (getDatabaseInfo() == null) || (bodyRanges.size() == nodeInfos.size()) : "bodies="
+                + bodyRanges.size() + ", nodes=" + nodeInfos.size();
+        nodeToBodyRangeMap = new HashMap<String, NodeBoundaryIndex.LineRange>();
+        nodeToItemsMap = new HashMap<String, List<AbstractItem>>();
+        for (int nodeIndex = 0; nodeIndex < nodeInfos.size(); nodeIndex += 1) {
+            nodeToBodyRangeMap.put(nodeInfos.get(nodeIndex).getName(), bodyRanges.get(nodeIndex));
+        }
+    }
+
+    /**
+     * Has the body of <code>nodeInfo</code> been read? This always is the
+     * case unless the guide has been created by <code>createLazyGuide()</code>.
+     */
+    public synchronized boolean isNodeRead(NodeInfo nodeInfo) {
+        assert nodeInfo != null;
+        return (boundaryIndex == null) || nodeToItemsMap.containsKey(nodeInfo.getName());
+    }
+
+    /**
+     * Read, tokenize and validate the body of <code>nodeInfo</code> unless
+     * this already happened, and add its links to <code>getLinks()</code>.
+     * The body is read from the guide file using the offsets found by
+     * <code>createLazyGuide()</code>.
+     *
+     * @return the links in the body, which still have to be validated by the
+     *         pile
+     * @see GuidePile#readNode(Guide, NodeInfo)
+     */
+    synchronized List<Link> readNode(NodeInfo nodeInfo) throws IOException {
+        assert nodeInfo != null;
+        assert nodeInfo == getNodeInfo(nodeInfo.getName()) : "node must be part of guide: " + nodeInfo;
+        List<Link> result;
+
+        if (isNodeRead(nodeInfo)) {
+            result = Collections.emptyList();
+        } else {
+            NodeBoundaryIndex.LineRange bodyRange = nodeToBodyRangeMap.get(nodeInfo.getName());
+            assert bodyRange != null;
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("read node " + tools.sourced(nodeInfo.getName()) + " from " + bodyRange);
+            }
+            char[] chars = ((FileSource) guideSource).readChars(bodyRange.getStart(), bodyRange.getLength());
+            ItemReader itemReader = new ItemReader(guideSource, messagePool);
+            itemReader.read(chars, 0, chars.length, bodyRange.getFirstLineNumber(), nodeInfo.getStartNode());
+
+            List<AbstractItem> bodyItems;
+            if (hasMacros) {
+                bodyItems = new ArrayList<AbstractItem>();
+                resolveMacros(itemReader.getItems(), bodyItems, new MacroExpansionCache(messagePool));
+            } else {
+                bodyItems = itemReader.getItems();
+            }
+
+            List<Link> commandLinks = new ArrayList<Link>();
+            result = new ArrayList<Link>();
+            uniqueNodeCommandsOccurred = new TreeMap<String, CommandItem>();
+            try {
+                for (int itemIndex = 0; itemIndex < bodyItems.size(); itemIndex += 1) {
+                    if (bodyItems.get(itemIndex) instanceof CommandItem) {
+                        validateCommand(bodyItems, itemIndex, nodeInfo, commandLinks, result);
+                    }
+                }
+            } finally {
+                uniqueNodeCommandsOccurred = null;
+            }
+            result.addAll(commandLinks);
+            links.addAll(result);
+            nodeToItemsMap.put(nodeInfo.getName(), new CompactItemList(bodyItems));
+        }
+        return result;
+    }
+
+    /**
+     * Write the result of <code>readAndCollectNodes()</code> and the
+     * <code>messages</code> it caused to <code>out</code>.
+     */
+    void writeCache(DataOutput out, List<MessageItem> messages) throws IOException {
+        assert out != null;
+        assert messages != null;
+
+        ItemCodec codec = new ItemCodec(guideSource);
+        DatabaseInfo dbInfo = getDatabaseInfo();
+        out.writeBoolean(dbInfo != null);
+        if (dbInfo != null) {
+            out.writeUTF(dbInfo.getName());
+        }
+        out.writeBoolean(hasMacros);
+        codec.writeItems(out, items);
+        codec.writeMessages(out, messages);
+    }
+
+    /**
+     * Set up the guide from data written by <code>writeCache()</code>
+     * instead of <code>readAndCollectNodes()</code>, and add the messages
+     * stored with it to the message pool.
+     */
+    void readCache(DataInput in) throws IOException {
+        assert in != null;
+
+        ItemCodec codec = new ItemCodec(guideSource);
+        if (in.readBoolean()) {
+            databaseInfo = new DatabaseInfo(in.readUTF());
+        }
+        hasMacros = in.readBoolean();
+        items = codec.readItems(in);
+        List<MessageItem> messages = codec.readMessages(in);
+        collectCachedNodes();
+        for (MessageItem message : messages) {
+            messagePool.add(message);
+        }
+    }
+
+    /**
+     * Collect the nodes from items that have already been cleaned up by
+     * <code>resolveMacrosAndCollectNodes()</code>.
+     */
+    private void collectCachedNodes() throws IOException {
+        nodeList = new ArrayList<CommandItem>();
+        nodeMap = new TreeMap<String, CommandItem>();
+        endNodeMap = new TreeMap<String, CommandItem>();
+
+        String nodeName = null;
+        for (AbstractItem item : items) {
+            if (isLineCommand(item)) {
+                CommandItem command = (CommandItem) item;
+                String commandName = command.getCommandName();
+
+                if (commandName.equals("node")) {
+                    nodeName = getNodeNameOrNull(command);
+                    if ((nodeName == null) || nodeMap.containsKey(nodeName)) {
+                        throw new IOException("cached nodes must have unique names: " + command);
+                    }
+                    nodeList.add(command);
+                    nodeMap.put(nodeName, command);
+                } else if (commandName.equals("endnode")) {
+                    if (nodeName == null) {
+                        throw new IOException("cached @endnode must match @node: " + command);
+                    }
+                    endNodeMap.put(nodeName, command);
+                    nodeName = null;
+                }
+            }
+        }
+        if (nodeName != null) {
+            throw new IOException("cached @node must have matching @endnode: " + nodeMap.get(nodeName));
+        }
+    }
+
     private Tag createMacro(CommandItem macro) {
         assert macro.getCommandName().equals("macro");
         Tag result = null;
@@ -787,12 +1133,56 @@ public class Guide {
     }
 
     private void readItems() throws IOException {
-        ItemReader itemReader = new ItemReader(guideSource);
+        ItemReader itemReader = new ItemReader(guideSource, messagePool);
 
         itemReader.read();
         items = itemReader.getItems();
+        collectDatabaseInfo();
+    }
 
-        // Setup initial @database information.
+    /**
+     * Read the items of the lines in the skeleton of the guide as found by
+     * <code>boundaryIndex</code>, which consists of <code>chars</code>.
+     */
+    private void readSkeletonItems(char[] chars) throws IOException {
+        ItemReader itemReader = new ItemReader(guideSource, messagePool);
+
+        items = new ArrayList<AbstractItem>();
+        for (NodeBoundaryIndex.LineRange skeletonRange : boundaryIndex.getSkeletonRanges()) {
+            AbstractItem precedingItem = items.isEmpty() ? null : items.get(items.size() - 1);
+            itemReader.read(chars, skeletonRange.getStart(), skeletonRange.getEnd(), skeletonRange
+                    .getFirstLineNumber(), precedingItem);
+            items.addAll(itemReader.getItems());
+        }
+
+        NodeBoundaryIndex.LineRange trailingRange = boundaryIndex.getTrailingLineRange();
+        if (trailingRange != null) {
+            // Only the new line at the end is needed, so the missing
+            // @endnode can be added after it. The rest of the line is part
+            // of a node body, which reports its messages once it is read,
+            // so discard them here.
+            MessagePool discardedMessagePool = new MessagePool();
+            discardedMessagePool.setSink(null);
+            discardedMessagePool.setCollecting(false);
+            ItemReader trailingReader = new ItemReader(guideSource, discardedMessagePool);
+            trailingReader.read(chars, trailingRange.getStart(), trailingRange.getEnd(), trailingRange
+                    .getFirstLineNumber(), new NewLineItem(guideSource, trailingRange.getFirstLineNumber(), 0));
+            List<AbstractItem> trailingItems = trailingReader.getItems();
+            AbstractItem lastItem = trailingItems.isEmpty() ? null : trailingItems.get(trailingItems.size() - 1);
+            if (lastItem instanceof NewLineItem) {
+                items.add(lastItem);
+            } else {
+                items.add(new NewLineItem(guideSource, trailingRange.getFirstLineNumber(), 0));
+            }
+        }
+        collectDatabaseInfo();
+    }
+
+    /**
+     * Set up the initial <code>@database</code> information from the first
+     * item, and drop all items if there is none.
+     */
+    private void collectDatabaseInfo() {
         if (items.size() > 0) {
             AbstractItem firstItem = items.get(0);
             if (firstItem instanceof CommandItem) {
@@ -825,11 +1215,42 @@ public class Guide {
 
     /**
      * Items the guide consists of after it has been fixed and cleaned up.
+     * For guides created by <code>createLazyGuide()</code>, these only are
+     * the items of the skeleton. The result cannot be modified.
+     * 
+     * @see CompactItemList
      */
     public List<AbstractItem> getItems() {
         return items;
     }
 
+    /**
+     * Items between <code>@node</code> and <code>@endnode</code> of
+     * <code>nodeInfo</code> (both excluded). The result is a view on
+     * <code>getItems()</code> computed from the item range collected while
+     * validating the guide, so no scanning is involved. For guides created
+     * by <code>createLazyGuide()</code>, these are the items read by
+     * <code>readNode()</code>, which must have been called before.
+     */
+    public List<AbstractItem> getNodeItems(NodeInfo nodeInfo) {
+        assert nodeInfo != null;
+        assert nodeInfo == getNodeInfo(nodeInfo.getName()) : "node must be part of guide: " + nodeInfo;
+        assert nodeInfo.getStartItemIndex() >= 0 : "item range must be set: " + nodeInfo;
+        List<AbstractItem> result;
+
+        if (boundaryIndex == null) {
+            result = items.subList(nodeInfo.getStartItemIndex() + 1, nodeInfo.getEndItemIndex());
+        } else {
+            synchronized (this) {
+                result = nodeToItemsMap.get(nodeInfo.getName());
+            }
+            if (result == null) {
+                throw new IllegalStateException("node must be read before accessing its items: " + nodeInfo);
+            }
+        }
+        return result;
+    }
+
     /**
      * Information about this guide.
      */
@@ -845,23 +1266,11 @@ public class Guide {
 
     /**
      * List of <code>NodeInfo</code>s in the same order as the nodes occurred
-     * in the guide.
+     * in the guide. The list is computed once while validating the guide and
+     * cannot be modified.
      */
     public List<NodeInfo> getNodeInfos() {
-        List<NodeInfo> result = new ArrayList<NodeInfo>(nodeList.size());
-        // TODO #3: Check if streams are useful here.
-        for (CommandItem nodeCommand : nodeList) {
-            String nodeName = getNodeName(nodeCommand);
-            assert nodeName != null;
-            NodeInfo nodeInfo = getNodeInfo(nodeName);
-            assert nodeInfo != null;
-            assert nodeInfo.getName().equals(nodeName);
-            result.add(nodeInfo);
-        }
-        assert result.size() == nodeList.size();
-        assert result.size() == nodeInfoMap.size();
-
-        return result;
+        return nodeInfos;
     }
 
     // TODO: Implement pretty printing with macros and remove
@@ -902,12 +1311,21 @@ public class Guide {
 
     /**
      * Links and relations to nodes or other files. This does not include pseudo
-     * links like "beep" or "rx".
+     * links like "beep" or "rx". For guides created by
+     * <code>createLazyGuide()</code>, this only includes the links of the
+     * nodes read so far.
      */
     public List<Link> getLinks() {
         return links;
     }
 
+    /**
+     * The pool messages about broken parts of the guide are added to.
+     */
+    public MessagePool getMessagePool() {
+        return messagePool;
+    }
+
     /**
      * The source the guide was created from.
      */
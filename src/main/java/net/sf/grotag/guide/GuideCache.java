@@ -0,0 +1,231 @@
+package net.sf.grotag.guide;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.common.Version;
+import net.sf.grotag.parse.MessageItem;
+
+/**
+ * Cache on disk for guides that have been read and had their macros resolved
+ * and nodes collected, so that unchanged guides can be loaded faster by later
+ * invocations of Grotag. Entries are stored in one file per guide and are
+ * only used if path, size, modification time and SHA-1 hash of the guide
+ * still match.
+ * <p>
+ * The validation of commands and links is not cached because it depends on
+ * the <code>AmigaPathList</code> in use, and it is fast anyway.
+ *
+ * @author Thomas Aglassinger
+ */
+public class GuideCache {
+    /**
+     * Version of the cache format; increment whenever the data written by
+     * <code>Guide.writeCache()</code> change.
+     */
+    private static final int FORMAT_VERSION = 1;
+    private static final String CACHE_SUFFIX = ".cache";
+
+    private static GuideCache instance;
+
+    private File cacheFolder;
+    private boolean isEnabled;
+    private Logger log;
+    private Tools tools;
+
+    /**
+     * Path, size, modification time and hash of a guide file at the time it
+     * was read.
+     */
+    static class Fingerprint {
+        private String path;
+        private long size;
+        private long lastModified;
+        private String sha1;
+
+        private Fingerprint(String newPath, long newSize, long newLastModified, String newSha1) {
+            path = newPath;
+            size = newSize;
+            lastModified = newLastModified;
+            sha1 = newSha1;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            boolean result = (other instanceof Fingerprint);
+            if (result) {
+                Fingerprint otherFingerprint = (Fingerprint) other;
+                result = path.equals(otherFingerprint.path) && (size == otherFingerprint.size)
+                        && (lastModified == otherFingerprint.lastModified) && sha1.equals(otherFingerprint.sha1);
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return sha1.hashCode();
+        }
+    }
+
+    public static synchronized final GuideCache getInstance() {
+        if (instance == null) {
+            instance = new GuideCache();
+        }
+        return instance;
+    }
+
+    private GuideCache() {
+        log = Logger.getLogger(GuideCache.class.getName());
+        tools = Tools.getInstance();
+        cacheFolder = new File(new File(System.getProperty("user.home"), ".grotag"), "cache");
+    }
+
+    /**
+     * Folder where cached guides are stored, by default
+     * <code>~/.grotag/cache</code>.
+     */
+    public synchronized File getCacheFolder() {
+        return cacheFolder;
+    }
+
+    public synchronized void setCacheFolder(File newCacheFolder) {
+        assert newCacheFolder != null;
+        cacheFolder = newCacheFolder;
+    }
+
+    /**
+     * Should <code>Guide.createGuide()</code> use the cache? By default, the
+     * cache is disabled.
+     */
+    public synchronized boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public synchronized void setEnabled(boolean newEnabled) {
+        isEnabled = newEnabled;
+    }
+
+    Fingerprint createFingerprint(File guideFile) throws IOException {
+        assert guideFile != null;
+
+        long size = guideFile.length();
+        long lastModified = guideFile.lastModified();
+        String sha1 = tools.getSha1(guideFile);
+        return new Fingerprint(guideFile.getAbsolutePath(), size, lastModified, sha1);
+    }
+
+    /**
+     * The file in which the cached data for the guide stored in
+     * <code>guidePath</code> are stored.
+     */
+    private File getCacheFileFor(String guidePath) {
+        MessageDigest digest = tools.createSha1Digest();
+        try {
+            digest.update(guidePath.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException error) {
+            throw new IllegalStateException("UTF-8 must be supported", error);
+        }
+        return new File(getCacheFolder(), tools.hexDigest(digest) + CACHE_SUFFIX);
+    }
+
+    /**
+     * Attempt to set up <code>guide</code> from the cache.
+     *
+     * @return <code>true</code> if the cache contained an entry for a guide
+     *         file with <code>fingerprint</code>.
+     */
+    boolean attemptToRead(Guide guide, Fingerprint fingerprint) {
+        assert guide != null;
+        assert fingerprint != null;
+
+        boolean result = false;
+        File cacheFile = getCacheFileFor(fingerprint.path);
+        try {
+            DataInputStream cacheIn = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                int formatVersion = cacheIn.readInt();
+                if ((formatVersion == FORMAT_VERSION) && cacheIn.readUTF().equals(Version.VERSION_TAG)) {
+                    Fingerprint cachedFingerprint = new Fingerprint(cacheIn.readUTF(), cacheIn.readLong(), cacheIn
+                            .readLong(), cacheIn.readUTF());
+                    if (cachedFingerprint.equals(fingerprint)) {
+                        guide.readCache(cacheIn);
+                        result = true;
+                        log.log(Level.INFO, "read {0} from cache {1}", new Object[] {
+                                tools.sourced(fingerprint.path), tools.sourced(cacheFile) });
+                    }
+                }
+            } finally {
+                cacheIn.close();
+            }
+        } catch (FileNotFoundException error) {
+            log.log(Level.FINE, "no cache for {0}", tools.sourced(fingerprint.path));
+        } catch (IOException error) {
+            log.log(Level.WARNING, "ignored broken cache " + tools.sourced(cacheFile), error);
+        }
+        return result;
+    }
+
+    /**
+     * Attempt to store <code>guide</code> and the <code>messages</code>
+     * caused by reading it in the cache. In case this fails, just log a
+     * warning.
+     */
+    void attemptToWrite(Guide guide, Fingerprint fingerprint, List<MessageItem> messages) {
+        assert guide != null;
+        assert fingerprint != null;
+        assert messages != null;
+
+        File cacheFile = getCacheFileFor(fingerprint.path);
+        try {
+            File folder = cacheFile.getParentFile();
+            tools.mkdirs(folder);
+
+            // Write to a temporary file first so other processes reading the
+            // same guide do not see a partial entry.
+            File tempFile = File.createTempFile("grotag-", ".tmp", folder);
+            try {
+                DataOutputStream cacheOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        tempFile)));
+                try {
+                    cacheOut.writeInt(FORMAT_VERSION);
+                    cacheOut.writeUTF(Version.VERSION_TAG);
+                    cacheOut.writeUTF(fingerprint.path);
+                    cacheOut.writeLong(fingerprint.size);
+                    cacheOut.writeLong(fingerprint.lastModified);
+                    cacheOut.writeUTF(fingerprint.sha1);
+                    guide.writeCache(cacheOut, messages);
+                } finally {
+                    cacheOut.close();
+                }
+                if (cacheFile.exists()) {
+                    tools.delete(cacheFile);
+                }
+                if (!tempFile.renameTo(cacheFile)) {
+                    throw new IOException("cannot rename " + tools.sourced(tempFile) + " to "
+                            + tools.sourced(cacheFile));
+                }
+                log.log(Level.INFO, "wrote {0} to cache {1}", new Object[] { tools.sourced(fingerprint.path),
+                        tools.sourced(cacheFile) });
+            } finally {
+                if (tempFile.exists()) {
+                    tools.deleteOrWarn(tempFile);
+                }
+            }
+        } catch (IOException error) {
+            log.log(Level.WARNING, "cannot write cache " + tools.sourced(cacheFile), error);
+        }
+    }
+}
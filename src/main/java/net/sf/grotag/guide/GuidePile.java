@@ -3,15 +3,25 @@ package net.sf.grotag.guide;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
 import net.sf.grotag.common.Tools;
 import net.sf.grotag.parse.CommandItem;
 import net.sf.grotag.parse.FileSource;
@@ -27,26 +37,48 @@ public class GuidePile {
     private Map<String, Guide> guideMap;
     private List<Guide> guideList;
     private List<Link> linksToValidate;
-    private Map<CommandItem, Link> linkMap;
+    private List<Link> linkList;
     private Logger log;
     private MessagePool messagePool;
     private Tools tools;
+    private AmigaTools amigaTools;
     private AmigaPathList amigaPaths;
+    private Executor executor;
+    private ConcurrentMap<String, FutureTask<Guide>> guideTaskMap;
+    private boolean isLazy;
+    private int completedGuideCount;
 
-    private GuidePile(AmigaPathList newAmigaPaths) {
+    private GuidePile(AmigaPathList newAmigaPaths, Executor newExecutor, MessagePool newMessagePool) {
         assert newAmigaPaths != null;
+        assert newMessagePool != null;
 
         log = Logger.getLogger(GuidePile.class.getName());
         tools = Tools.getInstance();
-        messagePool = MessagePool.getInstance();
+        amigaTools = AmigaTools.getInstance();
+        messagePool = newMessagePool;
 
         amigaPaths = newAmigaPaths;
+        executor = newExecutor;
         guideMap = new TreeMap<String, Guide>();
         guideList = new ArrayList<Guide>();
         linksToValidate = new ArrayList<Link>();
-        linkMap = new TreeMap<CommandItem, Link>();
+        linkList = new ArrayList<Link>();
     }
 
+    /**
+     * The pool messages about all guides in the pile and the links between
+     * them are added to.
+     */
+    public MessagePool getMessagePool() {
+        return messagePool;
+    }
+
+    /**
+     * The guides in the pile. For piles created by
+     * <code>createLazyGuidePile()</code>, this grows whenever
+     * <code>readNode()</code> finds links to further guides, so other threads
+     * should only access it while synchronized on the pile.
+     */
     public List<Guide> getGuides() {
         return guideList;
     }
@@ -71,14 +103,60 @@ public class GuidePile {
 
         Guide result;
         String guidePath = guideFile.getAbsolutePath();
-        result = guideMap.get(guidePath);
+        if (isLazy) {
+            // Another thread might add guides using readNode().
+            synchronized (this) {
+                result = guideMap.get(guidePath);
+            }
+        } else {
+            result = guideMap.get(guidePath);
+        }
         return result;
     }
 
+    /**
+     * The link represented by <code>command</code> or <code>null</code> if
+     * the command is not part of the pile.
+     */
     public Link getLink(CommandItem command) {
         assert command != null;
         assert command.isLink();
-        return linkMap.get(command);
+
+        Link result;
+        if (isLazy) {
+            // Another thread might add links using readNode().
+            synchronized (this) {
+                result = getLinkForId(command);
+            }
+        } else {
+            result = getLinkForId(command);
+        }
+        return result;
+    }
+
+    private Link getLinkForId(CommandItem command) {
+        Link result = null;
+        int linkId = command.getLinkId();
+        if ((linkId >= 0) && (linkId < linkList.size())) {
+            Link possibleLink = linkList.get(linkId);
+            // The command might have been assigned its id by another pile.
+            if (possibleLink.getLinkCommand() == command) {
+                result = possibleLink;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Assign <code>link</code> the next link id unless it already has one,
+     * so that <code>getLink()</code> can find it.
+     */
+    private void addLink(Link link) {
+        CommandItem command = link.getLinkCommand();
+        if (getLinkForId(command) == null) {
+            command.setLinkId(linkList.size());
+            linkList.add(link);
+        }
     }
 
     private Guide getCachedGuideFor(File guideFile) throws IOException {
@@ -87,13 +165,114 @@ public class GuidePile {
         String guideKey = guideFile.getAbsolutePath();
         result = guideMap.get(guideKey);
         if (result == null) {
-            result = Guide.createGuide(guideFile, amigaPaths);
+            if (isLazy) {
+                result = Guide.createLazyGuide(guideFile, amigaPaths, messagePool);
+            } else if (executor == null) {
+                result = Guide.createGuide(guideFile, amigaPaths, messagePool);
+            } else {
+                result = waitFor(getGuideTask(guideFile));
+            }
             guideMap.put(guideKey, result);
             guideList.add(result);
         }
         return result;
     }
 
+    /**
+     * Task to parse <code>guideFile</code>, which is started using
+     * <code>executor</code> unless a task for the same file already exists.
+     * Once the guide is parsed, the task also starts tasks for all guides
+     * linked from it, so they are available by the time <code>add()</code>
+     * follows the links to them.
+     */
+    private FutureTask<Guide> getGuideTask(final File guideFile) {
+        assert executor != null;
+        assert guideFile != null;
+
+        String guideKey = guideFile.getAbsolutePath();
+        FutureTask<Guide> result = guideTaskMap.get(guideKey);
+
+        if (result == null) {
+            FutureTask<Guide> newTask = new FutureTask<Guide>(new Callable<Guide>() {
+                public Guide call() throws IOException {
+                    Guide guide = Guide.createGuide(guideFile, amigaPaths, messagePool);
+                    startGuideTasksForLinks(guide);
+                    return guide;
+                }
+            });
+            result = guideTaskMap.putIfAbsent(guideKey, newTask);
+            if (result == null) {
+                result = newTask;
+                log.log(Level.FINE, "start parsing {0}", tools.sourced(guideFile));
+                executor.execute(newTask);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start tasks for all guides <code>guide</code> links to. Links to files
+     * other than guides, for example pictures, are skipped, so the workers do
+     * not waste time on them.
+     */
+    private void startGuideTasksForLinks(Guide guide) {
+        assert guide != null;
+        for (Link link : guide.getLinks()) {
+            if (link.isDataLink()) {
+                File linkedFile = link.getLocalTargetFile();
+                assert linkedFile != null;
+                boolean hasGuideTask = guideTaskMap.containsKey(linkedFile.getAbsolutePath());
+                if (!hasGuideTask && isLinkedGuide(linkedFile)) {
+                    getGuideTask(linkedFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Is <code>linkedFile</code> a guide that can be read? If not,
+     * <code>followLinks()</code> reports why once it gets to the link.
+     */
+    private boolean isLinkedGuide(File linkedFile) {
+        boolean result;
+        try {
+            result = amigaTools.isAmigaguide(linkedFile);
+        } catch (IOException error) {
+            log.log(Level.FINE, "skip parsing unreadable " + tools.sourced(linkedFile) + " in advance", error);
+            result = false;
+        }
+        return result;
+    }
+
+    /**
+     * Wait for <code>guideTask</code> to finish, passing on any exception it
+     * might have thrown in the same way <code>Guide.createGuide()</code>
+     * would have done.
+     */
+    private Guide waitFor(FutureTask<Guide> guideTask) throws IOException {
+        Guide result;
+        try {
+            result = guideTask.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException wrappedError = new InterruptedIOException("reading guides has been interrupted");
+            wrappedError.initCause(error);
+            throw wrappedError;
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("cannot read guide", cause);
+            }
+        }
+        return result;
+    }
+
     private boolean hasCachedGuideFor(File guideFile) {
         assert guideFile != null;
         boolean result;
@@ -102,26 +281,178 @@ public class GuidePile {
         return result;
     }
 
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, MessagePool)</code>
+     * but adding messages to a pool of its own.
+     */
     public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths) throws IOException {
+        return createGuidePile(guideFile, newAmigaPaths, new MessagePool());
+    }
+
+    /**
+     * Read the guide stored in <code>guideFile</code> and all guides linked
+     * from it, and add messages about broken parts and links to
+     * <code>newMessagePool</code>.
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, MessagePool newMessagePool)
+            throws IOException {
+        return createGuidePile(guideFile, newAmigaPaths, (Executor) null, newMessagePool);
+    }
+
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, int,
+     * MessagePool)</code> but adding messages to a pool of its own.
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, int threadCount)
+            throws IOException {
+        return createGuidePile(guideFile, newAmigaPaths, threadCount, new MessagePool());
+    }
+
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, MessagePool)</code>
+     * but using <code>threadCount</code> threads to parse the guides.
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, int threadCount,
+            MessagePool newMessagePool) throws IOException {
+        assert threadCount > 0;
+        GuidePile result;
+
+        if (threadCount == 1) {
+            result = createGuidePile(guideFile, newAmigaPaths, newMessagePool);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                result = createGuidePile(guideFile, newAmigaPaths, executor, newMessagePool);
+            } finally {
+                executor.shutdown();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, Executor,
+     * MessagePool)</code> but adding messages to a pool of its own.
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, Executor executor)
+            throws IOException {
+        return createGuidePile(guideFile, newAmigaPaths, executor, new MessagePool());
+    }
+
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, MessagePool)</code>
+     * but parsing linked guides concurrently using <code>executor</code>. The
+     * order of the guides and the state of the links are the same as without
+     * <code>executor</code>.
+     * 
+     * @param executor
+     *                the executor to parse the guides, or <code>null</code>
+     *                to parse them one after another in the current thread
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, Executor executor,
+            MessagePool newMessagePool) throws IOException {
         assert guideFile != null;
         assert newAmigaPaths != null;
-        GuidePile result = new GuidePile(newAmigaPaths);
+        GuidePile result = new GuidePile(newAmigaPaths, executor, newMessagePool);
         result.add(guideFile);
         result.validateLinks();
         result.completeRelations();
         return result;
     }
 
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, MessagePool)</code>
+     * but only reading the skeleton of the guides for now, see
+     * <code>Guide.createLazyGuide()</code>. Because the links within a node
+     * are only known once the node is read, the pile initially consists of
+     * <code>guideFile</code> and the guides its global relations refer to.
+     * Further guides are added once <code>readNode()</code> finds links to
+     * them.
+     */
+    public static GuidePile createLazyGuidePile(File guideFile, AmigaPathList newAmigaPaths,
+            MessagePool newMessagePool) throws IOException {
+        assert guideFile != null;
+        assert newAmigaPaths != null;
+        GuidePile result = new GuidePile(newAmigaPaths, null, newMessagePool);
+        result.isLazy = true;
+        result.add(guideFile);
+        result.validateLinks();
+        result.completeRelations();
+        return result;
+    }
+
+    /**
+     * Read the body of <code>nodeInfo</code> in <code>guide</code> unless
+     * this already happened, validate its links and add the guides they refer
+     * to. For piles not created by <code>createLazyGuidePile()</code>, all
+     * nodes have been read already, so this has no effect.
+     */
+    public synchronized void readNode(Guide guide, NodeInfo nodeInfo) throws IOException {
+        assert guide != null;
+        assert nodeInfo != null;
+        assert getGuide(guide.getSourceFile()) == guide : "guide must be part of pile: " + guide.getSourceFile();
+
+        List<Link> nodeLinks = guide.readNode(nodeInfo);
+        if (!nodeLinks.isEmpty()) {
+            followLinks(new LinkedList<Link>(nodeLinks));
+            validateLinks();
+            completeRelations();
+        }
+    }
+
+    /**
+     * Read all nodes of all guides in the pile including the guides added
+     * while doing so, so that the pile contains the same guides, items and
+     * links as one created by <code>createGuidePile()</code>. This is
+     * necessary before exporting a pile created by
+     * <code>createLazyGuidePile()</code>. For other piles, this has no effect.
+     */
+    public synchronized void readAllNodes() throws IOException {
+        if (isLazy) {
+            // Reading a node can add guides to the end of the list.
+            for (int guideIndex = 0; guideIndex < guideList.size(); guideIndex += 1) {
+                Guide guide = guideList.get(guideIndex);
+                for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                    readNode(guide, nodeInfo);
+                }
+            }
+        }
+    }
+
     private void add(File guideFile) throws IOException {
         assert guideFile != null;
 
+        if (executor != null) {
+            guideTaskMap = new ConcurrentHashMap<String, FutureTask<Guide>>();
+            try {
+                followLinks(guideFile);
+            } finally {
+                for (FutureTask<Guide> guideTask : guideTaskMap.values()) {
+                    guideTask.cancel(false);
+                }
+                guideTaskMap.clear();
+            }
+        } else {
+            followLinks(guideFile);
+        }
+    }
+
+    private void followLinks(File guideFile) throws IOException {
+        assert guideFile != null;
+
         // Setup links to validate from links in the initial guide.
         Guide guide = getCachedGuideFor(guideFile);
-        List<Link> linksToFollow = new LinkedList<Link>(guide.getLinks());
+        followLinks(new LinkedList<Link>(guide.getLinks()));
+    }
 
+    /**
+     * Follow <code>linksToFollow</code> and the links of all guides added
+     * because of them, and schedule all of them for validation.
+     */
+    private void followLinks(List<Link> linksToFollow) throws IOException {
         while (!linksToFollow.isEmpty()) {
             Link link = linksToFollow.get(0);
-            linkMap.put(link.getLinkCommand(), link);
+            addLink(link);
             if (link.isDataLink()) {
                 File linkedFile = link.getLocalTargetFile();
                 assert linkedFile != null;
@@ -214,14 +545,24 @@ public class GuidePile {
 
         // Ensure there are no unchecked links anymore.
         // TODO #3: Check if streams are useful here.
-        for (Link link : linkMap.values()) {
+        for (Link link : linkList) {
             assert link.getState() != Link.State.UNCHECKED : "unchecked link: "
                     + link.getLinkCommand().toPrettyAmigaguide();
         }
+
+        // Links found later on, for example by readNode(), are validated
+        // separately.
+        linksToValidate.clear();
     }
     
+    /**
+     * Set the default relations of all nodes in guides added since the last
+     * call.
+     */
     private void completeRelations() {
-        for (Guide guide: getGuides()) {
+        List<Guide> guidesToComplete = getGuides().subList(completedGuideCount, getGuides().size());
+        completedGuideCount = getGuides().size();
+        for (Guide guide: guidesToComplete) {
             Link defaultHelpLink = guide.getRelation(Relation.help);
             Link defaultIndexLink = guide.getRelation(Relation.index);
             Link defaultTocLink = guide.getRelation(Relation.contents);
@@ -1,39 +1,45 @@
 package net.sf.grotag.guide;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.logging.Level;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 
-import javax.imageio.ImageIO;
-import javax.imageio.spi.ImageReaderSpi;
-import javax.imageio.stream.ImageInputStream;
 import javax.xml.parsers.ParserConfigurationException;
 
 import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.FileCopier;
 import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.Tag;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
-import com.twelvemonkeys.imageio.oldplugins.iff.IFFImageReaderSpi;
-
 public class HtmlDomFactory extends AbstractDomFactory {
     /**
      * Resource to copy the CSS from.
@@ -49,10 +55,14 @@ public class HtmlDomFactory extends AbstractDomFactory {
     private File pileBaseFolder;
     private File pileTargetFolder;
     private Tools tools;
-    private Map<String, File> targetFileMap;
+    private ConcurrentMap<String, File> targetFileMap;
     private Map<Relation, String> relationToNavigationLabelMap;
     private File styleFile;
     private Logger log;
+    private ConcurrentMap<File, NonGuideFile> nonGuideFileMap;
+    private FileCopier nonGuideCopier;
+    private Element streamBody;
+    private HtmlStreamWriter streamWriter;
     private boolean isCopyNonGuides;
     private boolean isConvertIffIlbm;
     private boolean isAddDublinCore;
@@ -77,14 +87,60 @@ public class HtmlDomFactory extends AbstractDomFactory {
         targetFileMap = createTargetFileMap();
 
         styleFile = new File(pileTargetFolder, "amigaguide.css");
+        nonGuideFileMap = createNonGuideFileMap();
+        nonGuideCopier = new FileCopier();
         isAddDublinCore = true;
         isAddNavigationBar = true;
         isConvertIffIlbm = true;
         isCopyNonGuides = true;
     }
 
+    /**
+     * Create a factory with its own DOM but otherwise the same pile, target
+     * files and settings as <code>templateFactory</code>. This allows several
+     * threads to create node documents for the same pile at the same time
+     * without having to compute the target files again.
+     */
+    public HtmlDomFactory(HtmlDomFactory templateFactory) throws ParserConfigurationException {
+        super(templateFactory.getPile());
+
+        log = templateFactory.log;
+        tools = templateFactory.tools;
+
+        pile = templateFactory.pile;
+        pileTargetFolder = templateFactory.pileTargetFolder;
+        pileBaseFolder = templateFactory.pileBaseFolder;
+        relationToNavigationLabelMap = templateFactory.relationToNavigationLabelMap;
+        targetFileMap = templateFactory.targetFileMap;
+
+        styleFile = templateFactory.styleFile;
+        nonGuideFileMap = templateFactory.nonGuideFileMap;
+        nonGuideCopier = templateFactory.nonGuideCopier;
+        isAddDublinCore = templateFactory.isAddDublinCore;
+        isAddNavigationBar = templateFactory.isAddNavigationBar;
+        isConvertIffIlbm = templateFactory.isConvertIffIlbm;
+        isCopyNonGuides = templateFactory.isCopyNonGuides;
+    }
+
+    /**
+     * The file the HTML page for <code>nodeInfo</code> is stored in. For
+     * guides added to a lazy pile after the factory was created, the target
+     * files of all their nodes are computed once the first of them is needed.
+     *
+     * @see GuidePile#createLazyGuidePile(File, AmigaPathList, MessagePool)
+     */
     public File getTargetFileFor(Guide guide, NodeInfo nodeInfo) {
-        File result = targetFileMap.get(nodeKey(guide, nodeInfo));
+        String key = nodeKey(guide, nodeInfo);
+        File result = targetFileMap.get(key);
+        if (result == null) {
+            synchronized (targetFileMap) {
+                result = targetFileMap.get(key);
+                if (result == null) {
+                    putTargetFiles(targetFileMap, guide);
+                    result = targetFileMap.get(key);
+                }
+            }
+        }
         assert result != null;
         return result;
     }
@@ -99,43 +155,51 @@ public class HtmlDomFactory extends AbstractDomFactory {
         return result;
     }
 
-    private Map<String, File> createTargetFileMap() {
-        Map<String, File> result = new HashMap<String, File>();
+    private ConcurrentMap<String, File> createTargetFileMap() {
+        ConcurrentMap<String, File> result = new ConcurrentHashMap<String, File>();
 
         // TODO #3: Check if streams are useful here.
         for (Guide guide : pile.getGuides()) {
-            Map<String, String> nodeToFileNameMap = new HashMap<String, String>();
-            Set<String> fileNameSet = new HashSet<String>();
-            File guideFile = guide.getSourceFile();
-            String relativeGuideFolder = tools.getRelativePath(pileBaseFolder, guideFile);
-            File htmlTargetFolder = new File(pileTargetFolder, tools.getWithoutLastSuffix(relativeGuideFolder));
-
-            // TODO #3: Check if streams are useful here.
-            for (NodeInfo nextNodeInfo : guide.getNodeInfos()) {
-                String nodeName = nextNodeInfo.getName();
-                assert nodeName.equals(nodeName.toLowerCase());
-
-                // Make sure the "main" node ends up in the HTML file "index".
-                if (nodeName.equals("main")) {
-                    nodeName = "index";
-                } else if (nodeName.equals("index")) {
-                    nodeName = "list";
-                }
-                String fileName = nodeName;
-                int uniqueCounter = 0;
-                while (fileNameSet.contains(fileName)) {
-                    uniqueCounter += 1;
-                    fileName = nodeName + "." + uniqueCounter;
-                }
-                fileNameSet.add(fileName);
-                nodeToFileNameMap.put(nodeName, fileName);
-                File htmlTargetFile = new File(htmlTargetFolder, fileName + ".html");
-                result.put(nodeKey(guide, nextNodeInfo), htmlTargetFile);
-            }
+            putTargetFiles(result, guide);
         }
         return result;
     }
 
+    /**
+     * Compute the target files for all nodes of <code>guide</code> and put
+     * them in <code>targetFiles</code>.
+     */
+    private void putTargetFiles(Map<String, File> targetFiles, Guide guide) {
+        Map<String, String> nodeToFileNameMap = new HashMap<String, String>();
+        Set<String> fileNameSet = new HashSet<String>();
+        File guideFile = guide.getSourceFile();
+        String relativeGuideFolder = tools.getRelativePath(pileBaseFolder, guideFile);
+        File htmlTargetFolder = new File(pileTargetFolder, tools.getWithoutLastSuffix(relativeGuideFolder));
+
+        // TODO #3: Check if streams are useful here.
+        for (NodeInfo nextNodeInfo : guide.getNodeInfos()) {
+            String nodeName = nextNodeInfo.getName();
+            assert nodeName.equals(nodeName.toLowerCase());
+
+            // Make sure the "main" node ends up in the HTML file "index".
+            if (nodeName.equals("main")) {
+                nodeName = "index";
+            } else if (nodeName.equals("index")) {
+                nodeName = "list";
+            }
+            String fileName = nodeName;
+            int uniqueCounter = 0;
+            while (fileNameSet.contains(fileName)) {
+                uniqueCounter += 1;
+                fileName = nodeName + "." + uniqueCounter;
+            }
+            fileNameSet.add(fileName);
+            nodeToFileNameMap.put(nodeName, fileName);
+            File htmlTargetFile = new File(htmlTargetFolder, fileName + ".html");
+            targetFiles.put(nodeKey(guide, nextNodeInfo), htmlTargetFile);
+        }
+    }
+
     @Override
     protected Node createAmigaguideNode() {
         Element result = getDom().createElement("span");
@@ -201,47 +265,302 @@ public class HtmlDomFactory extends AbstractDomFactory {
         return getDom();
     }
 
-    private boolean isIffImageFile(File possibleImageFile) throws IOException {
-        boolean result;
-        ImageReaderSpi iffSpi = new IFFImageReaderSpi();
-        ImageInputStream in = ImageIO.createImageInputStream(possibleImageFile);
+    /**
+     * Write the HTML document for <code>nodeInfo</code> to
+     * <code>writer</code> without building a DOM for the whole document. The
+     * head and navigation bar are still created as (small) DOM elements, but
+     * each heading and paragraph of the node content is written as soon as
+     * it is complete and then discarded.
+     * 
+     * @see #createNodeDocument(Guide, NodeInfo)
+     */
+    public void writeNodeDocument(Guide guide, NodeInfo nodeInfo, HtmlStreamWriter writer) throws IOException {
+        assert guide != null;
+        assert nodeInfo != null;
+        assert writer != null;
+        assert streamWriter == null : "writeNodeDocument() must not be called recursively";
+
+        writer.writeStartOfDocument();
+        writer.writeHead(createHead(guide, nodeInfo));
+        Element body = createNodeBody(guide, nodeInfo);
+        attemptToAppendNavigationBar(body, guide, nodeInfo);
+        writer.writeStartTag(body);
+        writer.writeChildren(body);
+        while (body.hasChildNodes()) {
+            body.removeChild(body.getFirstChild());
+        }
+        streamBody = body;
+        streamWriter = writer;
         try {
-            result = iffSpi.canDecodeInput(in);
+            appendNodeContent(body, guide, nodeInfo);
         } finally {
-            in.close();
+            streamBody = null;
+            streamWriter = null;
+        }
+        writer.writeEndTag(body);
+        writer.writeEndOfDocument();
+    }
+
+    /**
+     * Hash of everything in <code>guide</code> and <code>nodeInfo</code>
+     * that determines the HTML document for the node, except for the targets
+     * of links, which are covered by <code>getNodeLinkHash()</code>.
+     * 
+     * @see ExportManifest
+     */
+    public String getNodeContentHash(Guide guide, NodeInfo nodeInfo) {
+        assert guide != null;
+        assert nodeInfo != null;
+
+        MessageDigest digest = tools.createSha1Digest();
+        DatabaseInfo dbInfo = guide.getDatabaseInfo();
+        updateDigest(digest, dbInfo.getName());
+        updateDigest(digest, dbInfo.getAuthor());
+        updateDigest(digest, dbInfo.getCopyright());
+        updateDigest(digest, nodeInfo.getTitle());
+        updateDigest(digest, nodeInfo.getWrap().toString());
+        updateDigest(digest, Boolean.toString(nodeInfo.isProportional()));
+        for (AbstractItem item : guide.getNodeItems(nodeInfo)) {
+            updateDigest(digest, item.getClass().getName());
+            updateDigest(digest, item.toPrettyAmigaguide());
+        }
+        return tools.hexDigest(digest);
+    }
+
+    /**
+     * Hash of the targets of all links and relations in
+     * <code>nodeInfo</code>, and of all files it embeds or links to. Such
+     * targets can change even if the node itself did not, for example if a
+     * node was added to or removed from another guide in the pile.
+     * 
+     * @see ExportManifest
+     */
+    public String getNodeLinkHash(Guide guide, NodeInfo nodeInfo) {
+        assert guide != null;
+        assert nodeInfo != null;
+
+        MessageDigest digest = tools.createSha1Digest();
+        for (Relation relation : Relation.values()) {
+            updateDigest(digest, relation.toString());
+            updateDigest(digest, getRelationUrl(guide, nodeInfo, relation));
+        }
+        for (AbstractItem item : guide.getNodeItems(nodeInfo)) {
+            if (item instanceof CommandItem) {
+                CommandItem command = (CommandItem) item;
+                if (command.isLink()) {
+                    updateDigest(digest, getLinkTargetDescription(guide, command));
+                } else if (command.getCommandName().equals(Tag.Name.embed.toString())) {
+                    updateDigest(digest, getFileDescription(getEmbeddedFile(guide, command)));
+                }
+            }
+        }
+        return tools.hexDigest(digest);
+    }
+
+    private String getLinkTargetDescription(Guide sourceGuide, CommandItem linkCommand) {
+        String result;
+        Link link = pile.getLink(linkCommand);
+        if (link != null) {
+            Link.State state = link.getState();
+            result = state.toString();
+            if (state == Link.State.VALID) {
+                File linkedFile = link.getLocalTargetFile();
+                Guide targetGuide = pile.getGuide(linkedFile);
+                if (targetGuide != null) {
+                    NodeInfo targetNodeInfo = targetGuide.getNodeInfo(link.getTargetNodeName());
+                    if (targetNodeInfo != null) {
+                        NodeInfo anySourceNode = sourceGuide.getNodeInfos().get(0);
+                        File sourceHtmlFile = getTargetFileFor(sourceGuide, anySourceNode);
+                        File targetHtmlFile = getTargetFileFor(targetGuide, targetNodeInfo);
+                        result += " " + tools.getRelativeUrl(sourceHtmlFile, targetHtmlFile);
+                    }
+                } else {
+                    result += " " + getFileDescription(linkedFile);
+                }
+            } else if (state == Link.State.VALID_OTHER_FILE) {
+                result += " " + getFileDescription(link.getLocalTargetFile());
+            }
+        } else {
+            result = "none";
         }
         return result;
     }
 
+    /**
+     * Path, size and modification time of <code>file</code>, which is enough
+     * to tell if a file embedded or linked to has changed.
+     */
+    private String getFileDescription(File file) {
+        return file.getAbsolutePath() + " " + file.length() + " " + file.lastModified();
+    }
+
+    private void updateDigest(MessageDigest digest, String text) {
+        try {
+            digest.update(String.valueOf(text).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException error) {
+            throw new IllegalStateException("UTF-8 must be supported", error);
+        }
+        // Separate texts so that "ab" + "c" differs from "a" + "bc".
+        digest.update((byte) 0);
+    }
+
+    @Override
+    protected void appendBlock(Element parent, Node block) throws IOException {
+        if ((streamWriter != null) && (parent == streamBody)) {
+            streamWriter.writeNode(block);
+        } else {
+            super.appendBlock(parent, block);
+        }
+    }
+
+    /**
+     * Collect the files other than guides linked from the pile, so that each
+     * of them is exported only once even if several nodes link to it.
+     */
+    private ConcurrentMap<File, NonGuideFile> createNonGuideFileMap() {
+        ConcurrentMap<File, NonGuideFile> result = new ConcurrentHashMap<File, NonGuideFile>();
+
+        for (Guide guide : pile.getGuides()) {
+            for (Link link : guide.getLinks()) {
+                if (link.getState() == Link.State.VALID_OTHER_FILE) {
+                    File linkedFile = link.getLocalTargetFile().getAbsoluteFile();
+                    if (!result.containsKey(linkedFile)) {
+                        result.put(linkedFile, createNonGuideFile(guide, linkedFile));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private NonGuideFile createNonGuideFile(Guide sourceGuide, File linkedFile) {
+        NodeInfo anySourceNode = sourceGuide.getNodeInfos().get(0);
+        File targetBaseFolder = getTargetFileFor(sourceGuide, anySourceNode).getParentFile();
+        return new NonGuideFile(linkedFile, sourceGuide.getSourceFile().getParentFile(), targetBaseFolder);
+    }
+
+    private NonGuideFile getNonGuideFile(Guide sourceGuide, File linkedFile) {
+        File absoluteLinkedFile = linkedFile.getAbsoluteFile();
+        NonGuideFile result = nonGuideFileMap.get(absoluteLinkedFile);
+        if (result == null) {
+            // Only happens for links added after the factory was created.
+            NonGuideFile newNonGuideFile = createNonGuideFile(sourceGuide, absoluteLinkedFile);
+            result = nonGuideFileMap.putIfAbsent(absoluteLinkedFile, newNonGuideFile);
+            if (result == null) {
+                result = newNonGuideFile;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Convert or copy all files other than guides that the pile links to,
+     * each of them once, so that creating the node documents only has to
+     * refer to them. Files that are not exported in advance are exported
+     * once the first node linking to them is created.
+     * 
+     * @param executor
+     *                the executor to export the files concurrently, or
+     *                <code>null</code> to export them one after another in
+     *                the current thread
+     */
+    public void exportNonGuideFiles(Executor executor) throws IOException {
+        List<FutureTask<File>> tasks = new ArrayList<FutureTask<File>>();
+
+        for (final NonGuideFile nonGuideFile : nonGuideFileMap.values()) {
+            FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+                public File call() throws IOException {
+                    return nonGuideFile.export(isConvertIffIlbm(), isCopyNonGuides(), nonGuideCopier);
+                }
+            });
+            tasks.add(task);
+            if (executor == null) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+        }
+        try {
+            for (FutureTask<File> task : tasks) {
+                waitFor(task);
+            }
+            if (nonGuideCopier.getCopiedFileCount() + nonGuideCopier.getSkippedFileCount() > 0) {
+                log.info(nonGuideCopier.toString());
+            }
+        } finally {
+            for (FutureTask<File> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Copier for the files other than guides, which also tells how many files
+     * it copied or skipped because they did not change.
+     */
+    public FileCopier getNonGuideCopier() {
+        return nonGuideCopier;
+    }
+
+    private void waitFor(FutureTask<File> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException wrappedError = new InterruptedIOException(
+                    "export of non-guide files has been interrupted");
+            wrappedError.initCause(error);
+            throw wrappedError;
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("cannot export non-guide file", cause);
+            }
+        }
+    }
+
+    /**
+     * The file that links from <code>sourceGuide</code> to the non-guide
+     * file <code>linkedFile</code> refer to, converting or copying it first
+     * unless this already happened.
+     */
+    public File exportNonGuideFile(Guide sourceGuide, File linkedFile) throws IOException {
+        assert sourceGuide != null;
+        assert linkedFile != null;
+
+        // Factories created from the same template share the non-guide
+        // files, which make sure they are exported only once even if
+        // different threads refer to them at the same time.
+        return getNonGuideFile(sourceGuide, linkedFile).export(isConvertIffIlbm(), isCopyNonGuides(), nonGuideCopier);
+    }
+
+    /**
+     * Has <code>exportNonGuideFile()</code> converted <code>linkedFile</code>
+     * to a PNG image? This allows to tell which links refer to images without
+     * reading the exported files again.
+     */
+    public boolean isConvertedToPng(Guide sourceGuide, File linkedFile) throws IOException {
+        assert sourceGuide != null;
+        assert linkedFile != null;
+
+        NonGuideFile nonGuideFile = getNonGuideFile(sourceGuide, linkedFile);
+        nonGuideFile.export(isConvertIffIlbm(), isCopyNonGuides(), nonGuideCopier);
+        return nonGuideFile.isConvertedToPng();
+    }
+
     @Override
     protected Node createLinkToNonGuideNode(Guide sourceGuide, File linkedFile, String linkLabel) throws IOException {
         Element result = getDom().createElement("a");
         NodeInfo anySourceNode = sourceGuide.getNodeInfos().get(0);
         File sourceHtmlFile = getTargetFileFor(sourceGuide, anySourceNode);
-        String relativeLinkedFile = tools.getRelativePath(sourceGuide.getSourceFile().getParentFile(), linkedFile);
-        File targetBaseFolder = sourceHtmlFile.getParentFile();
-        File targetFile;
-
-        if (isIffImageFile(linkedFile) && isConvertIffIlbm()) {
-            relativeLinkedFile = tools.getWithoutLastSuffix(relativeLinkedFile) + ".png";
-            targetFile = new File(targetBaseFolder, relativeLinkedFile);
-            tools.mkdirs(targetFile.getParentFile());
-            log.log(Level.INFO, "convert {0} to {1}", new Object[] { tools.sourced(linkedFile),
-                    tools.sourced(targetFile) });
-            BufferedImage image = ImageIO.read(linkedFile);
-            if (image == null) {
-                throw new IOException("cannot read image: " + tools.sourced(linkedFile));
-            }
-            ImageIO.write(image, "png", targetFile);
-        } else if (isCopyNonGuides()) {
-            targetFile = new File(targetBaseFolder, relativeLinkedFile);
-            log.log(Level.INFO, "copy {0} to {1}",
-                    new Object[] { tools.sourced(linkedFile), tools.sourced(targetFile) });
-            tools.copyFile(linkedFile, targetFile);
-        } else {
-            targetFile = linkedFile;
-        }
 
+        File targetFile = exportNonGuideFile(sourceGuide, linkedFile);
         String relativeTargetUrl = tools.getRelativeUrl(sourceHtmlFile, targetFile);
 
         result.setAttribute("href", relativeTargetUrl);
@@ -378,7 +697,7 @@ public class HtmlDomFactory extends AbstractDomFactory {
         }
 
         // Append style sheet.
-        String styleUrl = tools.getRelativeUrl(targetFileMap.get(nodeKey(guide, nodeInfo)), getStyleFile());
+        String styleUrl = tools.getRelativeUrl(getTargetFileFor(guide, nodeInfo), getStyleFile());
         Element style = getDom().createElement("link");
         style.setAttribute("rel", REL_STYLESHEET);
         style.setAttribute("type", "text/css");
@@ -0,0 +1,243 @@
+package net.sf.grotag.guide;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writer to emit HTML or XHTML directly to a <code>Writer</code> without
+ * building a full DOM and passing it through a <code>Transformer</code>
+ * first.
+ * <p>
+ * The resulting document is equivalent to the one written by
+ * <code>DomWriter</code>: it has the same XML declaration, document type,
+ * elements, attributes and text. Only the whitespace between elements
+ * outside of <code>&lt;pre&gt;</code> may differ, and characters are written
+ * as they are instead of using named entities such as
+ * <code>&amp;auml;</code>, unless the encoding cannot represent them.
+ *
+ * @see DomWriter
+ * @author Thomas Aglassinger
+ */
+public class HtmlStreamWriter {
+    /**
+     * Name of HTML elements that never have an end tag, sorted for binary
+     * search.
+     */
+    private static final String[] EMPTY_HTML_ELEMENTS = new String[] { "area", "base", "br", "col", "hr", "img",
+            "input", "link", "meta", "param" };
+
+    /**
+     * Name of HTML elements that start on a new line, sorted for binary
+     * search.
+     */
+    private static final String[] BLOCK_ELEMENTS = new String[] { "blockquote", "body", "div", "h1", "h2", "h3",
+            "head", "hr", "link", "meta", "ol", "p", "pre", "table", "title", "ul" };
+
+    private Writer writer;
+    private DomWriter.Dtd dtd;
+    private String encoding;
+    private CharsetEncoder encoder;
+
+    public HtmlStreamWriter(Writer newWriter, DomWriter.Dtd newDtd, String newEncoding) {
+        assert newWriter != null;
+        assert (newDtd == DomWriter.Dtd.HTML) || (newDtd == DomWriter.Dtd.XHTML) : "dtd=" + newDtd;
+        assert newEncoding != null;
+
+        writer = newWriter;
+        dtd = newDtd;
+        encoding = newEncoding;
+        encoder = Charset.forName(encoding).newEncoder();
+    }
+
+    /**
+     * Write the XML declaration (for XHTML), the document type and the start
+     * tag of the <code>&lt;html&gt;</code> element.
+     */
+    public void writeStartOfDocument() throws IOException {
+        if (isXhtml()) {
+            writer.write("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?>\n");
+            writer.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" "
+                    + "\"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n");
+        } else {
+            writer.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\" "
+                    + "\"http://www.w3.org/TR/html4/strict.dtd\">\n");
+        }
+        writer.write("<html>");
+    }
+
+    /**
+     * Write the end tag of the <code>&lt;html&gt;</code> element and flush
+     * the underlying writer.
+     */
+    public void writeEndOfDocument() throws IOException {
+        writer.write("\n</html>\n");
+        writer.flush();
+    }
+
+    /**
+     * Write <code>&lt;head&gt;</code> including all its children. For HTML,
+     * this also adds the <code>&lt;meta&gt;</code> element for the content
+     * type in the same way <code>DomWriter</code> does.
+     */
+    public void writeHead(Element head) throws IOException {
+        assert head != null;
+        assert head.getNodeName().equals("head") : "head=" + head.getNodeName();
+
+        writeStartTag(head);
+        if (!isXhtml()) {
+            writer.write("\n<META http-equiv=\"Content-Type\" content=\"text/html; charset=" + encoding + "\">");
+        }
+        writeChildren(head);
+        writeEndTag(head);
+    }
+
+    /**
+     * Write the start tag of <code>element</code> without any of its
+     * children.
+     */
+    public void writeStartTag(Element element) throws IOException {
+        assert element != null;
+        String name = element.getNodeName();
+
+        if (isBlockElement(name)) {
+            writer.write('\n');
+        }
+        writer.write('<');
+        writer.write(name);
+        writeAttributes(element);
+        writer.write('>');
+    }
+
+    /**
+     * Write the end tag of <code>element</code>.
+     */
+    public void writeEndTag(Element element) throws IOException {
+        assert element != null;
+        String name = element.getNodeName();
+
+        if (name.equals("head") || name.equals("body")) {
+            writer.write('\n');
+        }
+        writer.write("</");
+        writer.write(name);
+        writer.write('>');
+    }
+
+    /**
+     * Write <code>node</code> including all its children.
+     */
+    public void writeNode(Node node) throws IOException {
+        assert node != null;
+        short nodeType = node.getNodeType();
+
+        if (nodeType == Node.ELEMENT_NODE) {
+            Element element = (Element) node;
+            String name = element.getNodeName();
+
+            if (!element.hasChildNodes() && (isXhtml() || isEmptyHtmlElement(name))) {
+                if (isBlockElement(name)) {
+                    writer.write('\n');
+                }
+                writer.write('<');
+                writer.write(name);
+                writeAttributes(element);
+                if (isXhtml()) {
+                    writer.write(" />");
+                } else {
+                    writer.write('>');
+                }
+            } else {
+                writeStartTag(element);
+                writeChildren(element);
+                writeEndTag(element);
+            }
+        } else if ((nodeType == Node.TEXT_NODE) || (nodeType == Node.CDATA_SECTION_NODE)) {
+            writeEscaped(node.getNodeValue(), false);
+        } else if (nodeType == Node.DOCUMENT_FRAGMENT_NODE) {
+            writeChildren(node);
+        } else {
+            assert false : "nodeType=" + nodeType;
+        }
+    }
+
+    /**
+     * Write all children of <code>parent</code>.
+     */
+    public void writeChildren(Node parent) throws IOException {
+        assert parent != null;
+        Node child = parent.getFirstChild();
+        while (child != null) {
+            writeNode(child);
+            child = child.getNextSibling();
+        }
+    }
+
+    private void writeAttributes(Element element) throws IOException {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i += 1) {
+            Attr attribute = (Attr) attributes.item(i);
+            writer.write(' ');
+            writer.write(attribute.getName());
+            writer.write("=\"");
+            writeEscaped(attribute.getValue(), true);
+            writer.write('"');
+        }
+    }
+
+    private void writeEscaped(String text, boolean isAttribute) throws IOException {
+        int textLength = text.length();
+        int unescapedStartIndex = 0;
+        int i = 0;
+
+        while (i < textLength) {
+            char some = text.charAt(i);
+            int charCount = 1;
+            String escaped = null;
+
+            if (some == '&') {
+                escaped = "&amp;";
+            } else if (some == '<') {
+                escaped = "&lt;";
+            } else if (some == '>') {
+                escaped = "&gt;";
+            } else if ((some == '"') && isAttribute) {
+                escaped = "&quot;";
+            } else if (some > 127) {
+                if (Character.isHighSurrogate(some) && (i + 1 < textLength)
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    charCount = 2;
+                }
+                if (!encoder.canEncode(text.subSequence(i, i + charCount))) {
+                    escaped = "&#" + text.codePointAt(i) + ";";
+                }
+            }
+            if (escaped != null) {
+                writer.write(text, unescapedStartIndex, i - unescapedStartIndex);
+                writer.write(escaped);
+                unescapedStartIndex = i + charCount;
+            }
+            i += charCount;
+        }
+        writer.write(text, unescapedStartIndex, textLength - unescapedStartIndex);
+    }
+
+    private boolean isXhtml() {
+        return dtd == DomWriter.Dtd.XHTML;
+    }
+
+    private boolean isEmptyHtmlElement(String name) {
+        return Arrays.binarySearch(EMPTY_HTML_ELEMENTS, name) >= 0;
+    }
+
+    private boolean isBlockElement(String name) {
+        return Arrays.binarySearch(BLOCK_ELEMENTS, name) >= 0;
+    }
+}
@@ -0,0 +1,221 @@
+package net.sf.grotag.guide;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of the nodes in the characters of a guide, found by only looking for
+ * lines starting with <code>@node</code> or <code>@endnode</code>. For each
+ * node, the index stores where its body starts and ends, so that the body
+ * can be read once it is needed without reading the rest of the guide.
+ * <p>
+ * The lines needed to know about all nodes make up the skeleton of the
+ * guide: the lines outside of nodes, which contain the global commands such
+ * as <code>@database</code>, the <code>@node</code> and
+ * <code>@endnode</code> lines themselves, and <code>@macro</code> lines,
+ * which also remain part of the body if they are within a node. Because
+ * guides are read using ISO-8859-1, character offsets are the same as byte
+ * offsets in the guide file.
+ *
+ * @author Thomas Aglassinger
+ */
+class NodeBoundaryIndex {
+    /**
+     * Consecutive lines of a guide.
+     *
+     * @author Thomas Aglassinger
+     */
+    static class LineRange {
+        private int start;
+        private int end;
+        private int firstLineNumber;
+
+        LineRange(int newStart, int newEnd, int newFirstLineNumber) {
+            assert newStart >= 0;
+            assert newEnd >= newStart;
+            assert newFirstLineNumber >= 0;
+
+            start = newStart;
+            end = newEnd;
+            firstLineNumber = newFirstLineNumber;
+        }
+
+        /**
+         * Offset of the first character of the first line.
+         */
+        int getStart() {
+            return start;
+        }
+
+        /**
+         * Offset after the last character of the last line, including its
+         * line separator.
+         */
+        int getEnd() {
+            return end;
+        }
+
+        int getLength() {
+            return end - start;
+        }
+
+        /**
+         * Number of the first line, starting with 0.
+         */
+        int getFirstLineNumber() {
+            return firstLineNumber;
+        }
+
+        @Override
+        public String toString() {
+            return "LineRange " + start + "-" + end + " from line " + firstLineNumber;
+        }
+    }
+
+    private List<LineRange> skeletonRanges;
+    private List<LineRange> bodyRanges;
+    private LineRange trailingLineRange;
+    private LineRange pendingSkeletonRange;
+
+    /**
+     * Create an index for the guide consisting of <code>chars</code>.
+     */
+    NodeBoundaryIndex(char[] chars) {
+        assert chars != null;
+
+        int charCount = chars.length;
+        int lineStart = 0;
+        int lineNumber = 0;
+        int bodyStart = 0;
+        int bodyLineNumber = 0;
+        boolean isInsideNode = false;
+        boolean isLastLineInSkeleton = true;
+        LineRange lastLineRange = null;
+
+        skeletonRanges = new ArrayList<LineRange>();
+        bodyRanges = new ArrayList<LineRange>();
+
+        // Split lines the same way as ItemReader does.
+        while (lineStart < charCount) {
+            int lineEnd = lineStart;
+            while ((lineEnd < charCount) && (chars[lineEnd] != '\n') && (chars[lineEnd] != '\r')) {
+                lineEnd += 1;
+            }
+            int nextLineStart = lineEnd + 1;
+            if ((lineEnd < charCount - 1) && (chars[lineEnd] == '\r') && (chars[lineEnd + 1] == '\n')) {
+                nextLineStart += 1;
+            }
+            nextLineStart = Math.min(nextLineStart, charCount);
+
+            String commandName = getLineCommandName(chars, lineStart, lineEnd);
+            boolean isSkeletonLine;
+            if ("node".equals(commandName)) {
+                if (isInsideNode) {
+                    // Missing @endnode, which is added while collecting the
+                    // nodes from the skeleton.
+                    bodyRanges.add(new LineRange(bodyStart, lineStart, bodyLineNumber));
+                }
+                isInsideNode = true;
+                isSkeletonLine = true;
+                bodyStart = nextLineStart;
+                bodyLineNumber = lineNumber + 1;
+            } else if ("endnode".equals(commandName) && isInsideNode) {
+                bodyRanges.add(new LineRange(bodyStart, lineStart, bodyLineNumber));
+                isInsideNode = false;
+                isSkeletonLine = true;
+            } else if ("macro".equals(commandName)) {
+                // Macros apply to the whole guide, even if defined within a
+                // node, so they have to be known before reading any body.
+                isSkeletonLine = true;
+            } else {
+                isSkeletonLine = !isInsideNode;
+            }
+            if (isSkeletonLine) {
+                addSkeletonLine(lineStart, nextLineStart, lineNumber);
+            }
+            isLastLineInSkeleton = isSkeletonLine;
+            lastLineRange = new LineRange(lineStart, nextLineStart, lineNumber);
+            lineStart = nextLineStart;
+            lineNumber += 1;
+        }
+        if (isInsideNode) {
+            bodyRanges.add(new LineRange(bodyStart, charCount, bodyLineNumber));
+        }
+        if (!isLastLineInSkeleton) {
+            trailingLineRange = lastLineRange;
+        }
+        if (pendingSkeletonRange != null) {
+            skeletonRanges.add(pendingSkeletonRange);
+            pendingSkeletonRange = null;
+        }
+        skeletonRanges = Collections.unmodifiableList(skeletonRanges);
+        bodyRanges = Collections.unmodifiableList(bodyRanges);
+    }
+
+    /**
+     * Add the line from <code>lineStart</code> to <code>lineEnd</code> to
+     * the skeleton, merging it with the previous line if possible.
+     */
+    private void addSkeletonLine(int lineStart, int lineEnd, int lineNumber) {
+        if ((pendingSkeletonRange != null) && (pendingSkeletonRange.getEnd() == lineStart)) {
+            pendingSkeletonRange.end = lineEnd;
+        } else {
+            if (pendingSkeletonRange != null) {
+                skeletonRanges.add(pendingSkeletonRange);
+            }
+            pendingSkeletonRange = new LineRange(lineStart, lineEnd, lineNumber);
+        }
+    }
+
+    /**
+     * All lower case name of the line command the line from
+     * <code>lineStart</code> to <code>lineEnd</code> starts with, or
+     * <code>null</code> if it does not start with a line command. This
+     * follows the rules of <code>LineTokenizer</code> without tokenizing the
+     * whole line.
+     */
+    private String getLineCommandName(char[] chars, int lineStart, int lineEnd) {
+        String result = null;
+        if ((lineEnd - lineStart >= 2) && (chars[lineStart] == '@')) {
+            char charAfterAtSign = chars[lineStart + 1];
+            if ((charAfterAtSign > ' ') && (charAfterAtSign != '{')) {
+                int nameEnd = lineStart + 2;
+                while ((nameEnd < lineEnd) && (chars[nameEnd] > ' ')) {
+                    nameEnd += 1;
+                }
+                result = new String(chars, lineStart + 1, nameEnd - lineStart - 1).toLowerCase();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ranges of the lines that make up the skeleton, in the order they occur
+     * in the guide. The result cannot be modified.
+     */
+    List<LineRange> getSkeletonRanges() {
+        return skeletonRanges;
+    }
+
+    /**
+     * Ranges of the bodies of all nodes, in the order they occur in the
+     * guide. The body of a node consists of all lines after the
+     * <code>@node</code> line up to the matching <code>@endnode</code> line,
+     * the next <code>@node</code> line or the end of the guide. The result
+     * cannot be modified.
+     */
+    List<LineRange> getBodyRanges() {
+        return bodyRanges;
+    }
+
+    /**
+     * Range of the last line of the guide if it is part of the body of a node
+     * that lacks its <code>@endnode</code>, otherwise <code>null</code>.
+     * Collecting the nodes from the skeleton needs it to add the missing
+     * <code>@endnode</code> at the same position as with all lines.
+     */
+    LineRange getTrailingLineRange() {
+        return trailingLineRange;
+    }
+}
@@ -17,6 +17,8 @@ public class NodeInfo extends AbstractInfo {
     private DatabaseInfo databaseInfo;
     private CommandItem startNode;
     private CommandItem endNode;
+    private int startItemIndex;
+    private int endItemIndex;
     private String title;
     private boolean isProportional;
     private Map<Relation, Link> relationLinkMap;
@@ -32,6 +34,8 @@ public class NodeInfo extends AbstractInfo {
             title = newName;
         }
         relationLinkMap = new TreeMap<Relation, Link>();
+        startItemIndex = -1;
+        endItemIndex = -1;
     }
 
     public String getTitle() {
@@ -56,6 +60,33 @@ public class NodeInfo extends AbstractInfo {
         return endNode;
     }
 
+    /**
+     * Index of the <code>@node</code> item in <code>Guide.getItems()</code>,
+     * or -1 if the item range has not been set yet.
+     * 
+     * @see Guide#getNodeItems(NodeInfo)
+     */
+    public int getStartItemIndex() {
+        return startItemIndex;
+    }
+
+    /**
+     * Index of the <code>@endnode</code> item in <code>Guide.getItems()</code>,
+     * or -1 if the item range has not been set yet.
+     * 
+     * @see Guide#getNodeItems(NodeInfo)
+     */
+    public int getEndItemIndex() {
+        return endItemIndex;
+    }
+
+    void setItemRange(int newStartItemIndex, int newEndItemIndex) {
+        assert newStartItemIndex >= 0;
+        assert newEndItemIndex > newStartItemIndex : "start=" + newStartItemIndex + ", end=" + newEndItemIndex;
+        startItemIndex = newStartItemIndex;
+        endItemIndex = newEndItemIndex;
+    }
+
     @Override
     public String getFontName() {
         String result = super.getFontName();
@@ -121,6 +152,16 @@ public class NodeInfo extends AbstractInfo {
         }
     }
 
+    /**
+     * Set <code>relation</code> to <code>link</code>, replacing a possible
+     * default set before.
+     */
+    void setRelation(Relation relation, Link link) {
+        assert relation != null;
+        assert link != null;
+        relationLinkMap.put(relation, link);
+    }
+
     Map<Relation, Link> getRelationLinkMap() {
         return relationLinkMap;
     }
@@ -0,0 +1,127 @@
+package net.sf.grotag.guide;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+import net.sf.grotag.common.FileCopier;
+import net.sf.grotag.common.Tools;
+
+import com.twelvemonkeys.imageio.oldplugins.iff.IFFImageReaderSpi;
+
+/**
+ * A file other than a guide that guides of a pile link to, for example a
+ * picture, together with the place it is copied or converted to when the
+ * pile is exported to HTML. No matter how many nodes link to the file, it is
+ * exported only once.
+ *
+ * @author Thomas Aglassinger
+ */
+class NonGuideFile {
+    /**
+     * Provider to check if a file is an IFF image. It does not keep any
+     * state between calls, so it can be shared.
+     */
+    private static final ImageReaderSpi IFF_SPI = new IFFImageReaderSpi();
+
+    private Logger log;
+    private Tools tools;
+    private File sourceFile;
+    private File sourceGuideFolder;
+    private File targetBaseFolder;
+    private File targetFile;
+    private boolean isConvertedToPng;
+
+    /**
+     * @param newSourceGuideFolder
+     *                the folder of the first guide linking to the file
+     * @param newTargetBaseFolder
+     *                the folder the HTML files for this guide are written
+     *                to
+     */
+    NonGuideFile(File newSourceFile, File newSourceGuideFolder, File newTargetBaseFolder) {
+        assert newSourceFile != null;
+        assert newSourceGuideFolder != null;
+        assert newTargetBaseFolder != null;
+
+        log = Logger.getLogger(NonGuideFile.class.getName());
+        tools = Tools.getInstance();
+        sourceFile = newSourceFile;
+        sourceGuideFolder = newSourceGuideFolder;
+        targetBaseFolder = newTargetBaseFolder;
+    }
+
+    File getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * Convert IFF images to PNG or copy the file to the target folder, unless
+     * this already happened or the target file is still up to date.
+     *
+     * @param copier
+     *                the copier to use for files that are copied; it skips
+     *                files copied by an earlier export that did not change
+     *                since then
+     * @return the file links should refer to
+     */
+    synchronized File export(boolean isConvertIffIlbm, boolean isCopy, FileCopier copier) throws IOException {
+        if (targetFile == null) {
+            String relativeSourceFile = tools.getRelativePath(sourceGuideFolder, sourceFile);
+            File newTargetFile;
+
+            if (isConvertIffIlbm && isIffImageFile()) {
+                newTargetFile = new File(targetBaseFolder, tools.getWithoutLastSuffix(relativeSourceFile) + ".png");
+                isConvertedToPng = true;
+                if (isUpToDate(newTargetFile)) {
+                    log.log(Level.FINE, "skip up to date {0}", tools.sourced(newTargetFile));
+                } else {
+                    log.log(Level.INFO, "convert {0} to {1}", new Object[] { tools.sourced(sourceFile),
+                            tools.sourced(newTargetFile) });
+                    tools.mkdirs(newTargetFile.getParentFile());
+                    BufferedImage image = ImageIO.read(sourceFile);
+                    if (image == null) {
+                        throw new IOException("cannot read image: " + tools.sourced(sourceFile));
+                    }
+                    ImageIO.write(image, "png", newTargetFile);
+                }
+            } else if (isCopy) {
+                newTargetFile = new File(targetBaseFolder, relativeSourceFile);
+                copier.copy(sourceFile, newTargetFile);
+            } else {
+                newTargetFile = sourceFile;
+            }
+            targetFile = newTargetFile;
+        }
+        return targetFile;
+    }
+
+    /**
+     * Has <code>export()</code> converted the file to a PNG image?
+     */
+    synchronized boolean isConvertedToPng() {
+        assert targetFile != null : "file must be exported first: " + sourceFile;
+        return isConvertedToPng;
+    }
+
+    private boolean isUpToDate(File possibleTargetFile) {
+        return possibleTargetFile.exists() && (possibleTargetFile.lastModified() > sourceFile.lastModified());
+    }
+
+    private boolean isIffImageFile() throws IOException {
+        boolean result;
+        ImageInputStream in = ImageIO.createImageInputStream(sourceFile);
+        try {
+            result = IFF_SPI.canDecodeInput(in);
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package net.sf.grotag.parse;
 
 import java.io.BufferedReader;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 
 /**
@@ -25,4 +26,25 @@ public abstract class AbstractSource {
      * Create a Reader for the source.
      */
     abstract public BufferedReader createBufferedReader() throws IOException;
+
+    /**
+     * All characters of the source at once. The default implementation reads
+     * them using <code>createBufferedReader()</code>; sources that can
+     * provide their content faster should override it.
+     */
+    public char[] readChars() throws IOException {
+        CharArrayWriter result = new CharArrayWriter();
+        BufferedReader reader = createBufferedReader();
+        try {
+            char[] buffer = new char[8192];
+            int charsRead = reader.read(buffer);
+            while (charsRead != -1) {
+                result.write(buffer, 0, charsRead);
+                charsRead = reader.read(buffer);
+            }
+        } finally {
+            reader.close();
+        }
+        return result.toCharArray();
+    }
 }
@@ -16,11 +16,18 @@ import net.sf.grotag.guide.Relation;
 public class CommandItem extends AbstractItem implements Comparable<CommandItem> {
     private static final int NO_OPTION_INDEX = -1;
 
+    /**
+     * Value of <code>getLinkId()</code> for commands that have not been
+     * assigned a link id.
+     */
+    public static final int NO_LINK_ID = -1;
+
     private String commandName;
     private String originalCommandName;
     private boolean isInline;
     private boolean isRelation;
     private List<AbstractItem> items;
+    private int linkId;
 
     public CommandItem(AbstractSource newSource, int newLine, int newColumn, String newCommandName,
             boolean newIsInline, List<AbstractItem> newItems) {
@@ -31,6 +38,7 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
 
         originalCommandName = newCommandName;
         commandName = newCommandName.toLowerCase();
+        linkId = NO_LINK_ID;
         isInline = newIsInline;
         if (isInline) {
             // Strip trailing "}".
@@ -49,6 +57,18 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
         }
     }
 
+    /**
+     * Create a command from items that already have the trailing "}" of an
+     * inline command removed, for example because they were read from an
+     * <code>ItemCodec</code>.
+     */
+    static CommandItem createFromStrippedItems(AbstractSource newSource, int newLine, int newColumn,
+            String newCommandName, boolean newIsInline, List<AbstractItem> newItems) {
+        CommandItem result = new CommandItem(newSource, newLine, newColumn, newCommandName, false, newItems);
+        result.isInline = newIsInline;
+        return result;
+    }
+
     /** Command name in all lower case for easy comparison. */
     public String getCommandName() {
         return commandName;
@@ -96,6 +116,20 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
         return result;
     }
 
+    /**
+     * Dense id of the link the command represents, which a
+     * <code>GuidePile</code> uses to find the link for the command without
+     * searching. <code>NO_LINK_ID</code> if no id was assigned.
+     */
+    public int getLinkId() {
+        return linkId;
+    }
+
+    public void setLinkId(int newLinkId) {
+        assert newLinkId >= 0;
+        linkId = newLinkId;
+    }
+
     /**
      * All options passed to this command, including white space.
      */
@@ -0,0 +1,254 @@
+package net.sf.grotag.parse;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Read only list of items that stores them in parallel arrays of primitives
+ * instead of one object per item, so that guides can be kept in memory at a
+ * fraction of the heap. The text of all items is stored in a single shared
+ * buffer, and each distinct text is stored only once.
+ * <p>
+ * <code>get()</code> yields a new item with the stored content, which
+ * consequently is equal to the original item but not the same object. The
+ * exceptions are line commands and links: other parts of a guide refer to
+ * them, for example <code>NodeInfo</code> and <code>Link</code>, so they are
+ * kept as they are and <code>get()</code> yields the original object.
+ * Modifying items yielded by <code>get()</code> has no effect on the list.
+ *
+ * @author Thomas Aglassinger
+ */
+public class CompactItemList extends AbstractList<AbstractItem> implements RandomAccess {
+    private static final byte NEW_LINE_ITEM = 0;
+    private static final byte SPACE_ITEM = 1;
+    private static final byte TEXT_ITEM = 2;
+    private static final byte STRING_ITEM = 3;
+    private static final byte COMMAND_ITEM = 4;
+    private static final byte KEPT_ITEM = 5;
+
+    private int size;
+    private byte[] kinds;
+    private int[] sourceIndexes;
+    private int[] lines;
+    private int[] columns;
+
+    /**
+     * For items with text, the start and length of the text in
+     * <code>chars</code>. For kept items, the index in <code>keptItems</code>.
+     * For commands, the index of the record holding the original command name
+     * and the number of option items, which are stored in the records
+     * following the name. These records are stored after all items of the
+     * list itself.
+     */
+    private int[] textStarts;
+    private int[] textLengths;
+
+    private char[] chars;
+    private AbstractSource[] sources;
+    private AbstractItem[] keptItems;
+
+    // Only needed while compacting.
+    private int nextRecordIndex;
+    private StringBuilder charBuilder;
+    private Map<String, Integer> textToStartMap;
+    private Map<AbstractSource, Integer> sourceToIndexMap;
+    private List<AbstractSource> sourceList;
+    private List<AbstractItem> keptItemList;
+
+    public CompactItemList(List<AbstractItem> items) {
+        assert items != null;
+
+        int recordCount = 0;
+        for (AbstractItem item : items) {
+            recordCount += getRecordCount(item);
+        }
+        size = items.size();
+        kinds = new byte[recordCount];
+        sourceIndexes = new int[recordCount];
+        lines = new int[recordCount];
+        columns = new int[recordCount];
+        textStarts = new int[recordCount];
+        textLengths = new int[recordCount];
+
+        charBuilder = new StringBuilder();
+        textToStartMap = new HashMap<String, Integer>();
+        sourceToIndexMap = new IdentityHashMap<AbstractSource, Integer>();
+        sourceList = new ArrayList<AbstractSource>();
+        keptItemList = new ArrayList<AbstractItem>();
+
+        nextRecordIndex = size;
+        for (int itemIndex = 0; itemIndex < size; itemIndex += 1) {
+            setRecord(itemIndex, items.get(itemIndex));
+        }
+        assert nextRecordIndex == recordCount;
+
+        chars = charBuilder.toString().toCharArray();
+        sources = sourceList.toArray(new AbstractSource[sourceList.size()]);
+        keptItems = keptItemList.toArray(new AbstractItem[keptItemList.size()]);
+
+        // No more need for those, but GC wouldn't know.
+        charBuilder = null;
+        textToStartMap = null;
+        sourceToIndexMap = null;
+        sourceList = null;
+        keptItemList = null;
+    }
+
+    /**
+     * Must <code>item</code> be kept as it is because other objects refer to
+     * it?
+     */
+    private boolean isToBeKept(AbstractItem item) {
+        boolean result;
+        if (item instanceof CommandItem) {
+            CommandItem command = (CommandItem) item;
+            result = !command.isInline() || command.isLink();
+        } else {
+            result = !((item instanceof NewLineItem) || (item instanceof SpaceItem) || (item instanceof TextItem)
+                    || (item instanceof StringItem));
+        }
+        return result;
+    }
+
+    /**
+     * Number of records needed to store <code>item</code>.
+     */
+    private int getRecordCount(AbstractItem item) {
+        int result = 1;
+        if (!isToBeKept(item) && (item instanceof CommandItem)) {
+            // Record for the command name.
+            result += 1;
+            for (AbstractItem optionItem : ((CommandItem) item).getItems()) {
+                result += getRecordCount(optionItem);
+            }
+        }
+        return result;
+    }
+
+    private void setRecord(int recordIndex, AbstractItem item) {
+        if (isToBeKept(item)) {
+            kinds[recordIndex] = KEPT_ITEM;
+            textStarts[recordIndex] = keptItemList.size();
+            keptItemList.add(item);
+        } else {
+            sourceIndexes[recordIndex] = getSourceIndex(item.getFile());
+            lines[recordIndex] = item.getLine();
+            columns[recordIndex] = item.getColumn();
+            if (item instanceof NewLineItem) {
+                kinds[recordIndex] = NEW_LINE_ITEM;
+            } else if (item instanceof SpaceItem) {
+                kinds[recordIndex] = SPACE_ITEM;
+                setText(recordIndex, ((SpaceItem) item).getSpace());
+            } else if (item instanceof TextItem) {
+                kinds[recordIndex] = TEXT_ITEM;
+                setText(recordIndex, ((TextItem) item).getText());
+            } else if (item instanceof StringItem) {
+                kinds[recordIndex] = STRING_ITEM;
+                setText(recordIndex, ((StringItem) item).getText());
+            } else {
+                CommandItem command = (CommandItem) item;
+                List<AbstractItem> optionItems = command.getItems();
+                int nameIndex = nextRecordIndex;
+
+                kinds[recordIndex] = COMMAND_ITEM;
+                textStarts[recordIndex] = nameIndex;
+                textLengths[recordIndex] = optionItems.size();
+
+                // Reserve the records for the name and all options first so
+                // they are next to each other even if an option needs more
+                // records.
+                nextRecordIndex += 1 + optionItems.size();
+                kinds[nameIndex] = TEXT_ITEM;
+                setText(nameIndex, command.getOriginalCommandName());
+                for (int optionIndex = 0; optionIndex < optionItems.size(); optionIndex += 1) {
+                    setRecord(nameIndex + 1 + optionIndex, optionItems.get(optionIndex));
+                }
+            }
+        }
+    }
+
+    private void setText(int recordIndex, String text) {
+        Integer textStart = textToStartMap.get(text);
+        if (textStart == null) {
+            textStart = Integer.valueOf(charBuilder.length());
+            charBuilder.append(text);
+            textToStartMap.put(text, textStart);
+        }
+        textStarts[recordIndex] = textStart.intValue();
+        textLengths[recordIndex] = text.length();
+    }
+
+    private int getSourceIndex(AbstractSource source) {
+        Integer result = sourceToIndexMap.get(source);
+        if (result == null) {
+            result = Integer.valueOf(sourceList.size());
+            sourceToIndexMap.put(source, result);
+            sourceList.add(source);
+        }
+        return result.intValue();
+    }
+
+    @Override
+    public AbstractItem get(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index must be between 0 and " + (size - 1) + " but is " + index);
+        }
+        return getRecord(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of characters in the buffer shared by the text of all items.
+     */
+    public int getCharCount() {
+        return chars.length;
+    }
+
+    private AbstractItem getRecord(int recordIndex) {
+        AbstractItem result;
+        byte kind = kinds[recordIndex];
+
+        if (kind == KEPT_ITEM) {
+            result = keptItems[textStarts[recordIndex]];
+        } else {
+            AbstractSource source = sources[sourceIndexes[recordIndex]];
+            int line = lines[recordIndex];
+            int column = columns[recordIndex];
+
+            if (kind == NEW_LINE_ITEM) {
+                result = new NewLineItem(source, line, column);
+            } else if (kind == SPACE_ITEM) {
+                result = new SpaceItem(source, line, column, getText(recordIndex));
+            } else if (kind == TEXT_ITEM) {
+                result = TextItem.createResolved(source, line, column, getText(recordIndex));
+            } else if (kind == STRING_ITEM) {
+                result = StringItem.createResolved(source, line, column, getText(recordIndex));
+            } else {
+                assert kind == COMMAND_ITEM : "kind=" + kind;
+                int nameIndex = textStarts[recordIndex];
+                int optionCount = textLengths[recordIndex];
+                List<AbstractItem> optionItems = new ArrayList<AbstractItem>(optionCount);
+
+                for (int optionIndex = 0; optionIndex < optionCount; optionIndex += 1) {
+                    optionItems.add(getRecord(nameIndex + 1 + optionIndex));
+                }
+                result = CommandItem.createFromStrippedItems(source, line, column, getText(nameIndex), true,
+                        optionItems);
+            }
+        }
+        return result;
+    }
+
+    private String getText(int recordIndex) {
+        return new String(chars, textStarts[recordIndex], textLengths[recordIndex]);
+    }
+}
@@ -0,0 +1,44 @@
+package net.sf.grotag.parse;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Sink to print messages to the console.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class ConsoleMessageSink implements MessageSink {
+    private PrintStream out;
+
+    /**
+     * Create sink that prints messages to <code>System.err</code>.
+     */
+    public ConsoleMessageSink() {
+        this(System.err);
+    }
+
+    public ConsoleMessageSink(PrintStream newOut) {
+        assert newOut != null;
+        out = newOut;
+    }
+
+    public void write(List<MessageItem> messages) {
+        assert messages != null;
+
+        // Print the whole batch at once instead of flushing after each line.
+        StringBuilder batch = new StringBuilder();
+        for (MessageItem message : messages) {
+            batch.append(message).append(System.getProperty("line.separator"));
+        }
+        out.print(batch);
+        out.flush();
+    }
+
+    /**
+     * Flush the console but keep it open because others might still use it.
+     */
+    public void close() {
+        out.flush();
+    }
+}
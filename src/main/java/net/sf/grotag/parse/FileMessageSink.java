@@ -0,0 +1,39 @@
+package net.sf.grotag.parse;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Sink to write messages to a text file, one per line.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class FileMessageSink implements MessageSink {
+    private static final String ENCODING = "UTF-8";
+
+    private Writer writer;
+
+    public FileMessageSink(File targetFile) throws IOException {
+        assert targetFile != null;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(targetFile), ENCODING));
+    }
+
+    public void write(List<MessageItem> messages) throws IOException {
+        assert messages != null;
+        for (MessageItem message : messages) {
+            writer.write(message.toString());
+            writer.write('\n');
+        }
+        // Keep the file useful even if Grotag gets killed.
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
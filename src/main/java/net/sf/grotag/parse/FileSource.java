@@ -2,16 +2,30 @@ package net.sf.grotag.parse;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import net.sf.grotag.common.Tools;
 
 /**
  * An input source to read lines from a file.
- * 
+ *
  * @author Thomas Aglassinger
  */
 public class FileSource extends AbstractSource {
+    /**
+     * Minimum size of files that are mapped into memory by
+     * <code>readChars()</code> instead of being read into a buffer.
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Size of the chunks in which bytes of mapped files are decoded.
+     */
+    private static final int DECODE_CHUNK_SIZE = 64 * 1024;
+
     private File file;
 
     public FileSource(File newFile) {
@@ -28,6 +42,94 @@ public class FileSource extends AbstractSource {
         return Tools.getInstance().createBufferedReader(file, "ISO-8859-1");
     }
 
+    /**
+     * All characters of the file. Because Amigaguide documents use
+     * ISO-8859-1, every byte simply maps to the character with the same code.
+     * Large files are mapped into memory; smaller ones are read at once.
+     */
+    @Override
+    public char[] readChars() throws IOException {
+        char[] result;
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            FileChannel channel = fileIn.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file " + Tools.getInstance().sourced(file) + " must have at most "
+                        + Integer.MAX_VALUE + " bytes but has " + size);
+            }
+            if (size >= MAP_THRESHOLD) {
+                result = decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && (channel.read(buffer) != -1)) {
+                    // Keep reading until the buffer is full or the file ends.
+                }
+                buffer.flip();
+                result = decode(buffer);
+            }
+        } finally {
+            fileIn.close();
+        }
+        return result;
+    }
+
+    /**
+     * The <code>length</code> characters of the file starting at
+     * <code>offset</code>. Because every byte maps to one character, this
+     * only reads the bytes in this range.
+     */
+    public char[] readChars(int offset, int length) throws IOException {
+        assert offset >= 0;
+        assert length >= 0;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            FileChannel channel = fileIn.getChannel();
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int bytesRead = channel.read(buffer, position);
+                if (bytesRead == -1) {
+                    throw new IOException("file " + Tools.getInstance().sourced(file) + " must have at least "
+                            + (offset + length) + " bytes but has " + position);
+                }
+                position += bytesRead;
+            }
+        } finally {
+            fileIn.close();
+        }
+        buffer.flip();
+        return decode(buffer);
+    }
+
+    private char[] decode(ByteBuffer buffer) {
+        int charCount = buffer.remaining();
+        char[] result = new char[charCount];
+        byte[] chunk;
+        int chunkOffset;
+
+        if (buffer.hasArray()) {
+            chunk = buffer.array();
+            chunkOffset = buffer.arrayOffset() + buffer.position();
+            for (int charIndex = 0; charIndex < charCount; charIndex += 1) {
+                result[charIndex] = (char) (chunk[chunkOffset + charIndex] & 0xff);
+            }
+        } else {
+            chunk = new byte[Math.min(charCount, DECODE_CHUNK_SIZE)];
+            int charIndex = 0;
+            while (charIndex < charCount) {
+                int chunkSize = Math.min(charCount - charIndex, chunk.length);
+                buffer.get(chunk, 0, chunkSize);
+                for (chunkOffset = 0; chunkOffset < chunkSize; chunkOffset += 1) {
+                    result[charIndex] = (char) (chunk[chunkOffset] & 0xff);
+                    charIndex += 1;
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public String getShortName() {
         return file.getName();
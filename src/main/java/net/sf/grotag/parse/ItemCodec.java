@@ -0,0 +1,263 @@
+package net.sf.grotag.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec to write items and messages to a compact binary stream and read them
+ * back later, for example to cache parsed guides on disk. Sources are written
+ * only once and then referred to by index, so each codec must be used either
+ * for writing or for reading a single stream.
+ *
+ * @author Thomas Aglassinger
+ */
+public class ItemCodec {
+    private static final int NEW_LINE_ITEM = 0;
+    private static final int SPACE_ITEM = 1;
+    private static final int TEXT_ITEM = 2;
+    private static final int STRING_ITEM = 3;
+    private static final int COMMAND_ITEM = 4;
+
+    private static final int NO_MESSAGE = 0;
+    private static final int MESSAGE = 1;
+
+    private static final int NEW_FILE_SOURCE = -1;
+    private static final int NEW_STRING_SOURCE = -2;
+
+    private static final String ENCODING = "UTF-8";
+
+    private Map<AbstractSource, Integer> sourceToIndexMap;
+    private List<AbstractSource> sources;
+
+    /**
+     * Create a codec where <code>mainSource</code> is known in advance, so
+     * that items read from it refer to the same <code>AbstractSource</code>
+     * when read back.
+     */
+    public ItemCodec(AbstractSource mainSource) {
+        assert mainSource != null;
+
+        sourceToIndexMap = new IdentityHashMap<AbstractSource, Integer>();
+        sources = new ArrayList<AbstractSource>();
+        sourceToIndexMap.put(mainSource, Integer.valueOf(0));
+        sources.add(mainSource);
+    }
+
+    public void writeItems(DataOutput out, List<AbstractItem> items) throws IOException {
+        assert out != null;
+        assert items != null;
+
+        out.writeInt(items.size());
+        for (AbstractItem item : items) {
+            writeItem(out, item);
+        }
+    }
+
+    public List<AbstractItem> readItems(DataInput in) throws IOException {
+        assert in != null;
+
+        int itemCount = readCount(in);
+        List<AbstractItem> result = new ArrayList<AbstractItem>(itemCount);
+        for (int itemIndex = 0; itemIndex < itemCount; itemIndex += 1) {
+            result.add(readItem(in));
+        }
+        return result;
+    }
+
+    public void writeMessages(DataOutput out, List<MessageItem> messages) throws IOException {
+        assert out != null;
+        assert messages != null;
+
+        out.writeInt(messages.size());
+        for (MessageItem message : messages) {
+            writeMessage(out, message);
+        }
+    }
+
+    public List<MessageItem> readMessages(DataInput in) throws IOException {
+        assert in != null;
+
+        int messageCount = readCount(in);
+        List<MessageItem> result = new ArrayList<MessageItem>(messageCount);
+        for (int messageIndex = 0; messageIndex < messageCount; messageIndex += 1) {
+            MessageItem message = readMessage(in);
+            if (message == null) {
+                throw new IOException("message #" + (messageIndex + 1) + " must not be empty");
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    private void writeItem(DataOutput out, AbstractItem item) throws IOException {
+        if (item instanceof NewLineItem) {
+            out.writeByte(NEW_LINE_ITEM);
+            writeLocation(out, item.getFile(), item.getLine(), item.getColumn());
+        } else if (item instanceof SpaceItem) {
+            out.writeByte(SPACE_ITEM);
+            writeLocation(out, item.getFile(), item.getLine(), item.getColumn());
+            writeString(out, ((SpaceItem) item).getSpace());
+        } else if (item instanceof TextItem) {
+            out.writeByte(TEXT_ITEM);
+            writeLocation(out, item.getFile(), item.getLine(), item.getColumn());
+            writeString(out, ((TextItem) item).getText());
+        } else if (item instanceof StringItem) {
+            out.writeByte(STRING_ITEM);
+            writeLocation(out, item.getFile(), item.getLine(), item.getColumn());
+            writeString(out, ((StringItem) item).getText());
+        } else if (item instanceof CommandItem) {
+            CommandItem command = (CommandItem) item;
+            out.writeByte(COMMAND_ITEM);
+            writeLocation(out, item.getFile(), item.getLine(), item.getColumn());
+            writeString(out, command.getOriginalCommandName());
+            out.writeBoolean(command.isInline());
+            writeItems(out, command.getItems());
+        } else {
+            throw new IllegalArgumentException("cannot write item of " + item.getClass() + ": " + item);
+        }
+    }
+
+    private AbstractItem readItem(DataInput in) throws IOException {
+        AbstractItem result;
+        int itemType = in.readByte();
+        AbstractSource source = readSource(in);
+        int line = readCount(in);
+        int column = readCount(in);
+
+        if (itemType == NEW_LINE_ITEM) {
+            result = new NewLineItem(source, line, column);
+        } else if (itemType == SPACE_ITEM) {
+            result = new SpaceItem(source, line, column, readString(in));
+        } else if (itemType == TEXT_ITEM) {
+            result = TextItem.createResolved(source, line, column, readString(in));
+        } else if (itemType == STRING_ITEM) {
+            result = new StringItem(source, line, column, "\"" + readString(in) + "\"");
+        } else if (itemType == COMMAND_ITEM) {
+            String commandName = readString(in);
+            boolean isInline = in.readBoolean();
+            List<AbstractItem> commandItems = readItems(in);
+            result = CommandItem.createFromStrippedItems(source, line, column, commandName, isInline, commandItems);
+        } else {
+            throw new IOException("cannot read item of unknown type " + itemType);
+        }
+        return result;
+    }
+
+    private void writeMessage(DataOutput out, MessageItem message) throws IOException {
+        if (message != null) {
+            out.writeByte(MESSAGE);
+            writeLocation(out, message.getFile(), message.getLine(), message.getColumn());
+            writeString(out, message.getText());
+            writeMessage(out, message.getSeeAlso());
+        } else {
+            out.writeByte(NO_MESSAGE);
+        }
+    }
+
+    private MessageItem readMessage(DataInput in) throws IOException {
+        MessageItem result;
+        int messageType = in.readByte();
+
+        if (messageType == MESSAGE) {
+            AbstractSource source = readSource(in);
+            int line = readCount(in);
+            int column = readCount(in);
+            String text = readString(in);
+            result = new MessageItem(source, line, column, text);
+            result.setSeeAlso(readMessage(in));
+        } else if (messageType == NO_MESSAGE) {
+            result = null;
+        } else {
+            throw new IOException("cannot read message of unknown type " + messageType);
+        }
+        return result;
+    }
+
+    private void writeLocation(DataOutput out, AbstractSource source, int line, int column) throws IOException {
+        writeSource(out, source);
+        out.writeInt(line);
+        out.writeInt(column);
+    }
+
+    private void writeSource(DataOutput out, AbstractSource source) throws IOException {
+        Integer sourceIndex = sourceToIndexMap.get(source);
+        if (sourceIndex != null) {
+            out.writeInt(sourceIndex.intValue());
+        } else {
+            if (source instanceof FileSource) {
+                out.writeInt(NEW_FILE_SOURCE);
+                writeString(out, ((FileSource) source).getFile().getPath());
+            } else if (source instanceof StringSource) {
+                StringSource stringSource = (StringSource) source;
+                out.writeInt(NEW_STRING_SOURCE);
+                writeString(out, stringSource.getFullName());
+                writeString(out, stringSource.getText());
+            } else {
+                throw new IllegalArgumentException("cannot write source of " + source.getClass() + ": "
+                        + source.getFullName());
+            }
+            sourceToIndexMap.put(source, Integer.valueOf(sources.size()));
+            sources.add(source);
+        }
+    }
+
+    private AbstractSource readSource(DataInput in) throws IOException {
+        AbstractSource result;
+        int sourceIndex = in.readInt();
+
+        if (sourceIndex == NEW_FILE_SOURCE) {
+            result = new FileSource(new File(readString(in)));
+            sources.add(result);
+        } else if (sourceIndex == NEW_STRING_SOURCE) {
+            String fullName = readString(in);
+            String text = readString(in);
+            if (fullName.length() == 0) {
+                throw new IOException("name of string source must not be empty");
+            }
+            result = new StringSource(fullName, text);
+            sources.add(result);
+        } else if ((sourceIndex >= 0) && (sourceIndex < sources.size())) {
+            result = sources.get(sourceIndex);
+        } else {
+            throw new IOException("cannot read source with unknown index " + sourceIndex);
+        }
+        return result;
+    }
+
+    private void writeString(DataOutput out, String some) throws IOException {
+        assert some != null;
+        byte[] bytes = some.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(DataInput in) throws IOException {
+        String result;
+        int length = in.readInt();
+
+        if (length < 0) {
+            throw new IOException("length of string must be at least 0 but is " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        result = new String(bytes, ENCODING);
+        return result;
+    }
+
+    /**
+     * Read a count or position, which must not be negative.
+     */
+    private int readCount(DataInput in) throws IOException {
+        int result = in.readInt();
+        if (result < 0) {
+            throw new IOException("count must be at least 0 but is " + result);
+        }
+        return result;
+    }
+}
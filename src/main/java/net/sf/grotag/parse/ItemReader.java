@@ -1,6 +1,5 @@
 package net.sf.grotag.parse;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,15 +20,37 @@ public class ItemReader {
     private Logger log;
     private Tools tools;
     private AbstractSource source;
+    private MessagePool messagePool;
 
+    /**
+     * Create a reader for <code>newSource</code> that adds messages to a
+     * pool of its own.
+     */
     public ItemReader(AbstractSource newSource) {
+        this(newSource, new MessagePool());
+    }
+
+    /**
+     * Create a reader for <code>newSource</code> that adds messages about
+     * broken input to <code>newMessagePool</code>.
+     */
+    public ItemReader(AbstractSource newSource, MessagePool newMessagePool) {
         assert newSource != null;
+        assert newMessagePool != null;
         log = Logger.getLogger(ItemReader.class.getName());
         tools = Tools.getInstance();
         source = newSource;
+        messagePool = newMessagePool;
         items = new ArrayList<AbstractItem>();
     }
 
+    /**
+     * The pool messages about broken input are added to.
+     */
+    public MessagePool getMessagePool() {
+        return messagePool;
+    }
+
     /**
      * The source from which the items are read.
      */
@@ -38,47 +59,91 @@ public class ItemReader {
     }
 
     public void read() throws IOException {
-        BufferedReader guideReader = source.createBufferedReader();
+        log.info("read items from " + tools.sourced(source.getFullName()));
+        char[] chars = source.readChars();
+
+        items = new ArrayList<AbstractItem>();
+        readLines(chars, 0, chars.length, 0);
+    }
+
+    /**
+     * Same as <code>read()</code> but only reading the lines stored in
+     * <code>chars</code> from <code>start</code> to <code>end</code>, which
+     * start with line <code>firstLineNumber</code> of the source and follow
+     * <code>precedingItem</code>. This reads a part of the source, for
+     * example the body of a single node, with the same items as reading all
+     * of it would yield for this part.
+     *
+     * @param precedingItem
+     *                the last item before the first line, or
+     *                <code>null</code> if there is none
+     */
+    public void read(char[] chars, int start, int end, int firstLineNumber, AbstractItem precedingItem) {
+        assert chars != null;
+        assert start >= 0;
+        assert end >= start;
+        assert end <= chars.length;
+        assert firstLineNumber >= 0;
+
+        items = new ArrayList<AbstractItem>();
+        if (precedingItem != null) {
+            items.add(precedingItem);
+        }
+        readLines(chars, start, end, firstLineNumber);
+        if (precedingItem != null) {
+            items.remove(0);
+        }
+    }
+
+    private void readLines(char[] chars, int start, int end, int firstLineNumber) {
+        int lineStart = start;
+
+        lineNumber = firstLineNumber;
+        tokenizer = new LineTokenizer(source, messagePool);
+
+        // Split lines the same way as BufferedReader.readLine() does: at
+        // "\n", "\r" or "\r\n".
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while ((lineEnd < end) && (chars[lineEnd] != '\n') && (chars[lineEnd] != '\r')) {
+                lineEnd += 1;
+            }
+            readLine(chars, lineStart, lineEnd - lineStart);
+            lineStart = lineEnd + 1;
+            if ((lineEnd < end - 1) && (chars[lineEnd] == '\r') && (chars[lineEnd + 1] == '\n')) {
+                lineStart += 1;
+            }
+        }
+    }
+
+    private void readLine(char[] chars, int lineStart, int lineLength) {
         int columnNumber;
-        String line;
-
-        try {
-            log.info("read items from " + tools.sourced(source.getFullName()));
-            lineNumber = 0;
-            items = new ArrayList<AbstractItem>();
-            do {
-                line = guideReader.readLine();
-                if (line != null) {
-                    tokenizer = new LineTokenizer(source, lineNumber, line);
-                    while (tokenizer.hasNext()) {
-                        columnNumber = tokenizer.getColumn();
-                        tokenizer.advance();
-                        if (tokenizer.getType() == LineTokenizer.Type.SPACE) {
-                            items.add(new SpaceItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-                        } else if (tokenizer.getType() == LineTokenizer.Type.COMMAND) {
-                            readCommand();
-                        } else {
-                            items.add(new TextItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-                        }
-                    }
-
-                    // Add newline unless the last item is a line command.
-                    AbstractItem lastItem = items.get(items.size() - 1);
-                    boolean addNewLine = !(lastItem instanceof CommandItem);
-                    if (!addNewLine) {
-                        CommandItem lastCommand = (CommandItem) lastItem;
-                        addNewLine = lastCommand.isInline();
-                    }
-                    if (addNewLine) {
-                        items.add(new NewLineItem(source, lineNumber, tokenizer.getColumn()));
-                    }
-
-                    lineNumber += 1;
-                }
-            } while (line != null);
-        } finally {
-            guideReader.close();
+
+        tokenizer.reset(lineNumber, chars, lineStart, lineLength);
+        while (tokenizer.hasNext()) {
+            columnNumber = tokenizer.getColumn();
+            tokenizer.advance();
+            if (tokenizer.getType() == LineTokenizer.Type.SPACE) {
+                items.add(new SpaceItem(source, lineNumber, columnNumber, tokenizer.getToken()));
+            } else if (tokenizer.getType() == LineTokenizer.Type.COMMAND) {
+                readCommand();
+            } else {
+                items.add(new TextItem(source, lineNumber, columnNumber, tokenizer.getToken()));
+            }
         }
+
+        // Add newline unless the last item is a line command.
+        AbstractItem lastItem = items.get(items.size() - 1);
+        boolean addNewLine = !(lastItem instanceof CommandItem);
+        if (!addNewLine) {
+            CommandItem lastCommand = (CommandItem) lastItem;
+            addNewLine = lastCommand.isInline();
+        }
+        if (addNewLine) {
+            items.add(new NewLineItem(source, lineNumber, tokenizer.getColumn()));
+        }
+
+        lineNumber += 1;
     }
 
     private void readCommand() {
@@ -2,7 +2,13 @@ package net.sf.grotag.parse;
 
 import net.sf.grotag.common.Tools;
 
-/** Tokenizer for a single line of an AmigaGuide document */
+/**
+ * Tokenizer for a single line of an AmigaGuide document. To tokenize many
+ * lines, create one tokenizer using <code>LineTokenizer(AbstractSource)</code>
+ * and <code>reset()</code> it for each line. The tokenizer scans the
+ * characters of the line in place and refers to tokens by offset and length;
+ * <code>getToken()</code> only creates a <code>String</code> when asked for.
+ */
 public class LineTokenizer {
     public enum Type {
         CLOSE_BRACE, COMMAND, INVALID, OPEN_BRACE, SPACE, STRING, TEXT
@@ -15,10 +21,16 @@ public class LineTokenizer {
     private static final int NO_COLUMN = -1;
 
     private State parserState;
-    private String text;
+    private char[] chars;
+    private int offset;
+    private int length;
     private int lineNumber;
     private int column;
     private int columnOpenBrace;
+    private int tokenColumn;
+    private int tokenLength;
+    private StringBuilder correctedToken;
+    private boolean isTokenCorrected;
     private String token;
     private Type type;
     private Tools tools;
@@ -43,19 +55,83 @@ public class LineTokenizer {
      *                starting with 0
      */
     public LineTokenizer(AbstractSource newSource, int newLineNumber, String newText) {
+        this(newSource, newLineNumber, newText, new MessagePool());
+    }
+
+    /**
+     * Same as <code>LineTokenizer(AbstractSource, int, String)</code> but
+     * adding messages about corrections to <code>newMessagePool</code>.
+     */
+    public LineTokenizer(AbstractSource newSource, int newLineNumber, String newText, MessagePool newMessagePool) {
+        this(newSource, newMessagePool);
+        reset(newLineNumber, newText);
+    }
+
+    /**
+     * Create a new LineTokenizer for lines read from <code>newSource</code>
+     * that adds messages to a pool of its own.
+     */
+    public LineTokenizer(AbstractSource newSource) {
+        this(newSource, new MessagePool());
+    }
+
+    /**
+     * Create a new LineTokenizer for lines read from <code>newSource</code>
+     * that adds messages about corrections to <code>newMessagePool</code>.
+     * Before tokenizing a line, call one of the <code>reset()</code> methods.
+     */
+    public LineTokenizer(AbstractSource newSource, MessagePool newMessagePool) {
         assert newSource != null;
-        assert newLineNumber >= 0;
-        assert newText != null;
+        assert newMessagePool != null;
 
         tools = Tools.getInstance();
-        messagePool = MessagePool.getInstance();
+        messagePool = newMessagePool;
         source = newSource;
+        correctedToken = new StringBuilder();
+        chars = new char[0];
+    }
+
+    /**
+     * Prepare to tokenize the line <code>newText</code>.
+     */
+    public void reset(int newLineNumber, String newText) {
+        assert newText != null;
+
+        char[] newChars = newText.toCharArray();
+        reset(newLineNumber, newChars, 0, newChars.length);
+    }
+
+    /**
+     * Prepare to tokenize the line stored in <code>newChars</code> starting
+     * at <code>newOffset</code> with <code>newLength</code> characters. The
+     * tokenizer does not copy the characters, so they must not be modified
+     * until the next call to <code>reset()</code>.
+     */
+    public void reset(int newLineNumber, char[] newChars, int newOffset, int newLength) {
+        assert newLineNumber >= 0;
+        assert newChars != null;
+        assert newOffset >= 0;
+        assert newLength >= 0;
+        assert newOffset + newLength <= newChars.length;
+
+        chars = newChars;
+        offset = newOffset;
+        length = newLength;
         lineNumber = newLineNumber;
-        text = tools.withoutTrailingWhiteSpace(newText);
+
+        // Ignore trailing white space.
+        while ((length > 0) && Character.isWhitespace(chars[offset + length - 1])) {
+            length -= 1;
+        }
         column = 0;
         columnOpenBrace = NO_COLUMN;
         parserState = State.IN_TEXT;
         type = Type.INVALID;
+        insertCloseBrace = false;
+        tokenColumn = 0;
+        tokenLength = 0;
+        isTokenCorrected = false;
+        token = null;
     }
 
     /**
@@ -90,19 +166,19 @@ public class LineTokenizer {
     private boolean atSignIsCommand(int atSignColumn) {
         assert atSignColumn >= 0;
         boolean result = false;
-        char atSign = text.charAt(atSignColumn);
-        int textLength = text.length();
+        char atSign = charAt(atSignColumn);
+        int textLength = length;
 
         assert atSign == '@' : "character at column " + atSignColumn + " must be " + tools.sourced("@") + " but is "
                 + tools.sourced(atSign);
 
         if (atSignColumn < textLength - 1) {
-            char charAfterAtSign = text.charAt(atSignColumn + 1);
+            char charAfterAtSign = charAt(atSignColumn + 1);
             boolean charAfterAtSignIsOpenBrace = (charAfterAtSign == '{');
 
             if ((atSignColumn > 0) || charAfterAtSignIsOpenBrace) {
                 if (charAfterAtSignIsOpenBrace && (atSignColumn < textLength - 2)) {
-                    char charAfterOpenBrace = text.charAt(atSignColumn + 2);
+                    char charAfterOpenBrace = charAt(atSignColumn + 2);
                     result = !isWhitespace(charAfterOpenBrace);
                 }
             } else {
@@ -112,6 +188,56 @@ public class LineTokenizer {
         return result;
     }
 
+    private char charAt(int someColumn) {
+        return chars[offset + someColumn];
+    }
+
+    /**
+     * Start a new token with the character at <code>column</code>.
+     */
+    private void startToken() {
+        tokenColumn = column;
+        tokenLength = 0;
+        isTokenCorrected = false;
+        token = null;
+    }
+
+    /**
+     * Append the character at <code>column</code> to the current token and
+     * advance to the next column.
+     */
+    private void appendChar() {
+        if (isTokenCorrected) {
+            correctedToken.append(charAt(column));
+        } else {
+            assert tokenColumn + tokenLength == column;
+            tokenLength += 1;
+        }
+        column += 1;
+    }
+
+    /**
+     * Append <code>some</code>, which is not part of the input, to the
+     * current token.
+     */
+    private void appendCorrection(char some) {
+        if (!isTokenCorrected) {
+            correctedToken.setLength(0);
+            correctedToken.append(chars, offset + tokenColumn, tokenLength);
+            isTokenCorrected = true;
+        }
+        correctedToken.append(some);
+    }
+
+    /**
+     * Replace the current token by <code>some</code>.
+     */
+    private void replaceToken(String some) {
+        correctedToken.setLength(0);
+        correctedToken.append(some);
+        isTokenCorrected = true;
+    }
+
     public void advance() {
         if (!hasNext()) {
             throw new IllegalStateException("cannot advance past end of line number " + getLine());
@@ -119,30 +245,30 @@ public class LineTokenizer {
 
         char some;
 
+        startToken();
         if (insertCloseBrace) {
             assert parserState == State.IN_COMMAND_BRACE : "parserState must be " + State.IN_COMMAND_BRACE + " but is "
                     + parserState;
             insertCloseBrace = false;
             some = '}';
+            appendCorrection(some);
         } else {
-            some = text.charAt(column);
-            column += 1;
+            some = charAt(column);
+            appendChar();
         }
-        token = "" + some;
         type = Type.INVALID;
         if (isWhitespace(some)) {
             // Parse sequence of white spaces.
-            while (hasChars() && isWhitespace(text.charAt(column))) {
-                token += text.charAt(column);
-                column += 1;
+            while (hasChars() && isWhitespace(charAt(column))) {
+                appendChar();
             }
             type = Type.SPACE;
         } else if ((parserState == State.IN_TEXT) && (some < 32)) {
             // Get rid of invisible characters, especially because they are
             // invalid in XML.
-            token = "?";
+            replaceToken("?");
             type = Type.TEXT;
-            fireWarning("replaced invisible character with code " + ((int) some) + " by " + tools.sourced(token));
+            fireWarning("replaced invisible character with code " + ((int) some) + " by " + tools.sourced("?"));
         } else if ((parserState == State.IN_TEXT) && (some == '@') && atSignIsCommand(column - 1)) {
             // Parse @ indicating a command.
             parserState = State.IN_COMMAND;
@@ -153,32 +279,27 @@ public class LineTokenizer {
             parserState = State.IN_COMMAND_BRACE;
             type = Type.OPEN_BRACE;
         } else if (((parserState == State.IN_COMMAND) || (parserState == State.IN_COMMAND_BRACE)) && (some == '"')) {
-            // Parse quoted text within a command.
+            // Parse quoted text within a command. The first character after
+            // the opening quote always is part of the text, even if it is a
+            // quote itself.
             int quoteColumn = column;
 
-            do {
-                try {
-                    token += text.charAt(column);
-                } catch (StringIndexOutOfBoundsException error) {
-                    System.err.println("(" + lineNumber + ":" + column + ") ");
-                    System.err.println("  text = " + tools.sourced(text));
-                    System.err.println("  token = " + tools.sourced(token));
-                    throw error;
-                }
-                column += 1;
-            } while (hasChars() && (text.charAt(column) != '"'));
+            if (hasChars()) {
+                do {
+                    appendChar();
+                } while (hasChars() && (charAt(column) != '"'));
+            }
 
             if (!hasChars()) {
                 fireWarning("appended missing trailing quote", quoteColumn);
+                appendCorrection('"');
             } else {
-                column += 1;
+                appendChar();
             }
-            token += "\"";
             type = Type.STRING;
         } else if ((parserState == State.IN_COMMAND_BRACE) && (some == '}')) {
             // Parse "}" within a command to indicate end of command.
             assert columnOpenBrace != NO_COLUMN : "columnOpenBrace must have been set earlier";
-            token = "" + some;
             columnOpenBrace = NO_COLUMN;
             parserState = State.IN_TEXT;
             type = Type.CLOSE_BRACE;
@@ -188,37 +309,32 @@ public class LineTokenizer {
 
             if (some == '@') {
                 fireWarning("inserting backslash before dangling \"@\"");
-                assert token.equals("@");
-                token = "\\@";
+                replaceToken("\\@");
             }
             while (hasChars()
-                    && (text.charAt(column) > 32)
-                    && !((parserState == State.IN_COMMAND_BRACE) && (text.charAt(column) == '}'))
-                    && !((parserState == State.IN_TEXT) && (text.charAt(column) == '@') && !afterBackslash && atSignIsCommand(column))) {
-                some = text.charAt(column);
+                    && (charAt(column) > 32)
+                    && !((parserState == State.IN_COMMAND_BRACE) && (charAt(column) == '}'))
+                    && !((parserState == State.IN_TEXT) && (charAt(column) == '@') && !afterBackslash && atSignIsCommand(column))) {
+                some = charAt(column);
                 if (afterBackslash) {
                     if ((some != '\\') && (some != '@')) {
                         fireWarning("inserted backslash before dangling backslash with " + tools.sourced(some)
                                 + " instead of \"\\\" or \"@\"");
-                        token += '\\';
+                        appendCorrection('\\');
                     }
-                    token += some;
                     afterBackslash = false;
                 } else if (some == '\\') {
-                    token += some;
                     afterBackslash = true;
                 } else if (some == '@') {
                     fireWarning("inserted backslash before dangling \"@\"");
-                    token += "\\" + some;
-                } else {
-                    token += some;
+                    appendCorrection('\\');
                 }
-                column += 1;
+                appendChar();
             }
 
             if (afterBackslash) {
                 fireWarning("appended backslash after dangling backslash at end of token");
-                token += '\\';
+                appendCorrection('\\');
             }
             type = Type.TEXT;
         }
@@ -229,7 +345,7 @@ public class LineTokenizer {
     }
 
     private boolean hasChars() {
-        return (column < text.length());
+        return (column < length);
     }
 
     public boolean hasNext() {
@@ -244,7 +360,19 @@ public class LineTokenizer {
         return column;
     }
 
+    /**
+     * The current token. To avoid creating a <code>String</code> for tokens
+     * that are not needed, for example <code>"@"</code> and <code>"{"</code>,
+     * it is created on first demand only.
+     */
     public String getToken() {
+        if (token == null) {
+            if (isTokenCorrected) {
+                token = correctedToken.toString();
+            } else {
+                token = new String(chars, offset + tokenColumn, tokenLength);
+            }
+        }
         return token;
     }
 }
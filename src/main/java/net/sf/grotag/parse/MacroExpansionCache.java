@@ -0,0 +1,102 @@
+package net.sf.grotag.parse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache for the items of resolved macro calls, so that calls with the same
+ * macro and the same options only have to be tokenized once per guide.
+ * <p>
+ * Because later stages of reading a guide modify command items, for example
+ * to fix broken links, every call to <code>getItems()</code> yields new
+ * command items. Copying them still is much cheaper than reading them again.
+ *
+ * @author Thomas Aglassinger
+ */
+public class MacroExpansionCache {
+    private Map<String, List<AbstractItem>> expansionMap;
+    private MessagePool messagePool;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * Create a cache that adds messages about broken macro calls to a pool of
+     * its own.
+     */
+    public MacroExpansionCache() {
+        this(new MessagePool());
+    }
+
+    /**
+     * Create a cache that adds messages about broken macro calls to
+     * <code>newMessagePool</code>. Such messages are only added the first
+     * time the call is read.
+     */
+    public MacroExpansionCache(MessagePool newMessagePool) {
+        assert newMessagePool != null;
+        messagePool = newMessagePool;
+        expansionMap = new HashMap<String, List<AbstractItem>>();
+    }
+
+    /**
+     * The items read from <code>resolvedText</code> as if it were a source
+     * with the name <code>sourceName</code>.
+     */
+    public List<AbstractItem> getItems(String sourceName, String resolvedText) throws IOException {
+        assert sourceName != null;
+        assert resolvedText != null;
+
+        String key = sourceName + '\n' + resolvedText;
+        List<AbstractItem> expansion = expansionMap.get(key);
+        if (expansion == null) {
+            ItemReader itemReader = new ItemReader(new StringSource(sourceName, resolvedText), messagePool);
+            itemReader.read();
+            expansion = itemReader.getItems();
+            expansionMap.put(key, expansion);
+            missCount += 1;
+        } else {
+            hitCount += 1;
+        }
+        return copyItems(expansion);
+    }
+
+    /**
+     * Number of calls to <code>getItems()</code> that could use items read
+     * earlier.
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Number of calls to <code>getItems()</code> that had to read the items.
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+
+    private List<AbstractItem> copyItems(List<AbstractItem> items) {
+        List<AbstractItem> result = new ArrayList<AbstractItem>(items.size());
+        for (AbstractItem item : items) {
+            result.add(copyItem(item));
+        }
+        return result;
+    }
+
+    private AbstractItem copyItem(AbstractItem item) {
+        AbstractItem result;
+
+        if (item instanceof CommandItem) {
+            CommandItem command = (CommandItem) item;
+            result = CommandItem.createFromStrippedItems(command.getFile(), command.getLine(), command.getColumn(),
+                    command.getOriginalCommandName(), command.isInline(), copyItems(command.getItems()));
+        } else {
+            // All other items cannot be modified and can be shared.
+            result = item;
+        }
+        return result;
+    }
+}
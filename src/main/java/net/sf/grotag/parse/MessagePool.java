@@ -1,37 +1,137 @@
 package net.sf.grotag.parse;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Pool containing all messages caused while parsing an Amigaguide document.
+ * <p>
+ * Each parse or conversion session uses a pool of its own, which is passed to
+ * <code>Guide.createGuide()</code> and <code>GuidePile.createGuidePile()</code>
+ * and from there to the <code>ItemReader</code> and <code>LineTokenizer</code>.
+ * Consequently sessions can run in parallel without mixing their messages,
+ * and the messages are released together with the session.
+ * <p>
+ * Any number of threads can add messages at the same time without blocking
+ * each other. The messages are only sorted once they are requested using
+ * <code>getItems()</code>. Additionally, they are passed in batches to a
+ * <code>MessageSink</code> by a background thread, so that reporting them
+ * does not slow down parsing. Call <code>flush()</code> to wait until the sink
+ * has received all messages added so far.
  * 
  * @author Thomas Aglassinger
  */
 public class MessagePool {
-    private static MessagePool instance;
+    /**
+     * Value for <code>setMaxItemsPerSource()</code> to report all messages.
+     */
+    public static final int NO_LIMIT = 0;
 
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Milliseconds the delivery thread waits for further messages before it
+     * ends.
+     */
+    private static final long DELIVERY_IDLE_TIMEOUT = 5000;
+
+    private Logger log;
+
+    /**
+     * Messages added but not yet sorted into <code>items</code>.
+     */
+    private Queue<MessageItem> addedItems;
     private SortedSet<MessageItem> items;
 
-    public static final synchronized MessagePool getInstance() {
-        if (instance == null) {
-            instance = new MessagePool();
-        }
-        return instance;
-    }
+    /**
+     * Messages added but not yet passed to <code>sink</code>.
+     */
+    private Queue<MessageItem> undeliveredItems;
+    private AtomicBoolean isDeliveryScheduled;
+    private Object deliveryLock;
+    private Object deliveryThreadLock;
+    private Thread deliveryThread;
+    private Runnable deliveryTask;
+    private volatile MessageSink sink;
+    private volatile int maxItemsPerSource;
+    private volatile boolean isCollecting;
+    private ConcurrentMap<String, AtomicInteger> sourceToItemCountMap;
+    private AtomicInteger suppressedItemCount;
+    private ThreadLocal<List<MessageItem>> recordedItems;
 
-    private MessagePool() {
+    /**
+     * Create a new pool that reports messages to the console and has no limit
+     * on the number of messages per source.
+     */
+    public MessagePool() {
+        log = Logger.getLogger(MessagePool.class.getName());
+        addedItems = new ConcurrentLinkedQueue<MessageItem>();
         items = new TreeSet<MessageItem>();
+        undeliveredItems = new ConcurrentLinkedQueue<MessageItem>();
+        isDeliveryScheduled = new AtomicBoolean();
+        sink = new ConsoleMessageSink();
+        maxItemsPerSource = NO_LIMIT;
+        isCollecting = true;
+        sourceToItemCountMap = new ConcurrentHashMap<String, AtomicInteger>();
+        suppressedItemCount = new AtomicInteger();
+        recordedItems = new ThreadLocal<List<MessageItem>>();
+        deliveryLock = new Object();
+        deliveryThreadLock = new Object();
+        deliveryTask = new Runnable() {
+            public void run() {
+                deliverUntilIdle();
+            }
+        };
     }
 
+    /**
+     * All messages added so far, sorted by source, line and column. If there
+     * are several messages for the same position, only the one added first is
+     * included. The result is a snapshot that does not change once more
+     * messages are added.
+     */
     public SortedSet<MessageItem> getItems() {
-        return items;
+        synchronized (items) {
+            MessageItem item = addedItems.poll();
+            while (item != null) {
+                items.add(item);
+                item = addedItems.poll();
+            }
+            return Collections.unmodifiableSortedSet(new TreeSet<MessageItem>(items));
+        }
     }
 
     public void add(MessageItem newItem) {
         assert newItem != null;
-        System.err.println(newItem);
-        items.add(newItem);
+        List<MessageItem> recordedItemsOfThread = recordedItems.get();
+        if (recordedItemsOfThread != null) {
+            // Record even messages exceeding the limit so a cached guide
+            // yields the same messages as one parsed again.
+            recordedItemsOfThread.add(newItem);
+        }
+        if (isWithinLimit(newItem.getFile())) {
+            if (isCollecting) {
+                addedItems.add(newItem);
+            }
+            if (sink != null) {
+                undeliveredItems.add(newItem);
+                if (isDeliveryScheduled.compareAndSet(false, true)) {
+                    wakeDeliveryThread();
+                }
+            }
+        }
     }
 
     public void add(AbstractSource source, int line, int column, String text) {
@@ -39,4 +139,221 @@ public class MessagePool {
         MessageItem newMessage = new MessageItem(source, line, column, text);
         add(newMessage);
     }
+
+    /**
+     * Count another message for <code>source</code>, and check if the limit
+     * still allows to add it.
+     */
+    private boolean isWithinLimit(AbstractSource source) {
+        boolean result = true;
+        int maxItems = maxItemsPerSource;
+        if (maxItems != NO_LIMIT) {
+            String sourceName = source.getFullName();
+            AtomicInteger itemCount = sourceToItemCountMap.get(sourceName);
+            if (itemCount == null) {
+                AtomicInteger newItemCount = new AtomicInteger();
+                itemCount = sourceToItemCountMap.putIfAbsent(sourceName, newItemCount);
+                if (itemCount == null) {
+                    itemCount = newItemCount;
+                }
+            }
+            int newCount = itemCount.incrementAndGet();
+            if (newCount > maxItems) {
+                result = false;
+                suppressedItemCount.incrementAndGet();
+                if (newCount == maxItems + 1) {
+                    log.warning("suppressed further messages for " + source.getShortName() + " after " + maxItems);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Notify the delivery thread that there are undelivered messages, or start
+     * it unless it is running.
+     */
+    private void wakeDeliveryThread() {
+        synchronized (deliveryThreadLock) {
+            if (deliveryThread == null) {
+                deliveryThread = new Thread(deliveryTask, "grotag-messages");
+                deliveryThread.setDaemon(true);
+                deliveryThread.start();
+            } else {
+                deliveryThreadLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Deliver messages as they are added. Runs in the delivery thread, which
+     * ends once no messages have been added for
+     * <code>DELIVERY_IDLE_TIMEOUT</code>, so that pools no longer used do not
+     * keep a thread around, while a steady trickle of messages does not
+     * start a new thread for each of them.
+     */
+    private void deliverUntilIdle() {
+        boolean isDelivering = true;
+        while (isDelivering) {
+            deliver();
+            synchronized (deliveryThreadLock) {
+                isDeliveryScheduled.set(false);
+                // Messages added before resetting the flag did not wake the
+                // thread, so deliver them without waiting.
+                if (undeliveredItems.isEmpty()) {
+                    try {
+                        deliveryThreadLock.wait(DELIVERY_IDLE_TIMEOUT);
+                    } catch (InterruptedException error) {
+                        Thread.currentThread().interrupt();
+                    }
+                    isDelivering = isDeliveryScheduled.get() || !undeliveredItems.isEmpty();
+                    if (!isDelivering) {
+                        deliveryThread = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass all undelivered messages to the sink in batches.
+     */
+    private void deliver() {
+        synchronized (deliveryLock) {
+            List<MessageItem> batch = new ArrayList<MessageItem>();
+            MessageItem item = undeliveredItems.poll();
+            while (item != null) {
+                batch.add(item);
+                if (batch.size() == MAX_BATCH_SIZE) {
+                    write(batch);
+                    batch = new ArrayList<MessageItem>();
+                }
+                item = undeliveredItems.poll();
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+    }
+
+    private void write(List<MessageItem> batch) {
+        MessageSink currentSink = sink;
+        if (currentSink != null) {
+            try {
+                currentSink.write(batch);
+            } catch (IOException error) {
+                sink = null;
+                undeliveredItems.clear();
+                log.log(Level.SEVERE, "cannot report messages, further messages are only collected", error);
+            }
+        }
+    }
+
+    /**
+     * Wait until the sink has received all messages added so far.
+     */
+    public void flush() {
+        // Batches taken from the queue are written while holding the lock,
+        // so once the current thread holds it, all earlier messages either
+        // have been written or are still in the queue.
+        deliver();
+    }
+
+    /**
+     * Sink messages are reported to as they are added, or <code>null</code> to
+     * only collect them.
+     */
+    public MessageSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Set the sink to report messages to after passing all messages added so
+     * far to the current sink and closing it.
+     * 
+     * @param newSink the new sink, or <code>null</code> to only collect
+     *        messages
+     */
+    public synchronized void setSink(MessageSink newSink) throws IOException {
+        MessageSink oldSink;
+        // Swap the sink while holding the lock so the delivery thread cannot
+        // write to the old sink once it is closed.
+        synchronized (deliveryLock) {
+            flush();
+            oldSink = sink;
+            sink = newSink;
+        }
+        if (oldSink != null) {
+            oldSink.close();
+        }
+    }
+
+    /**
+     * Pass all messages to the sink, close it and only collect further
+     * messages.
+     */
+    public void close() throws IOException {
+        setSink(null);
+    }
+
+    /**
+     * Should messages be kept so that <code>getItems()</code> can yield
+     * them? If not, they are only passed to the sink, so that long running
+     * sessions like a batch conversion do not keep all messages in memory.
+     */
+    public boolean isCollecting() {
+        return isCollecting;
+    }
+
+    public void setCollecting(boolean newCollecting) {
+        isCollecting = newCollecting;
+    }
+
+    /**
+     * Maximum number of messages to collect and report for each source. Any
+     * further messages are dropped, so that a badly broken document does not
+     * flood the console.
+     * 
+     * @see #NO_LIMIT
+     */
+    public int getMaxItemsPerSource() {
+        return maxItemsPerSource;
+    }
+
+    public void setMaxItemsPerSource(int newMaxItemsPerSource) {
+        assert newMaxItemsPerSource >= 0;
+        maxItemsPerSource = newMaxItemsPerSource;
+    }
+
+    /**
+     * Number of messages dropped because they exceeded
+     * <code>getMaxItemsPerSource()</code>.
+     */
+    public int getSuppressedItemCount() {
+        return suppressedItemCount.get();
+    }
+
+    /**
+     * Start recording all messages added by the current thread, for example
+     * in order to store them together with the guide that caused them.
+     * 
+     * @see #stopRecording()
+     */
+    public void startRecording() {
+        assert recordedItems.get() == null : "recording must not be started twice";
+        recordedItems.set(new ArrayList<MessageItem>());
+    }
+
+    /**
+     * Stop recording messages added by the current thread.
+     * 
+     * @return the messages added since <code>startRecording()</code>, in the
+     *         order they were added
+     */
+    public List<MessageItem> stopRecording() {
+        List<MessageItem> result = recordedItems.get();
+        assert result != null : "recording must have been started";
+        recordedItems.remove();
+        return result;
+    }
 }
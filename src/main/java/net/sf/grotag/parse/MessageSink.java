@@ -0,0 +1,25 @@
+package net.sf.grotag.parse;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination where <code>MessagePool</code> reports messages to as they are
+ * added. Messages are passed in batches from a single background thread, so
+ * implementations do not have to be thread safe.
+ * 
+ * @see MessagePool#setSink(MessageSink)
+ * @author Thomas Aglassinger
+ */
+public interface MessageSink {
+    /**
+     * Report <code>messages</code> in the order they were added to the pool.
+     */
+    void write(List<MessageItem> messages) throws IOException;
+
+    /**
+     * Report any messages still buffered and release all resources. Once
+     * this returns, <code>write()</code> is not called anymore.
+     */
+    void close() throws IOException;
+}
@@ -23,6 +23,21 @@ public class StringItem extends AbstractTextItem {
         setText(newString.substring(1, newString.length() - 1));
     }
 
+    private StringItem(AbstractSource newSource, int newLine, int newColumn) {
+        super(newSource, newLine, newColumn);
+    }
+
+    /**
+     * Create string item from <code>newText</code>, which already has its
+     * quotes removed.
+     */
+    static StringItem createResolved(AbstractSource newSource, int newLine, int newColumn, String newText) {
+        assert newText != null;
+        StringItem result = new StringItem(newSource, newLine, newColumn);
+        result.setText(newText);
+        return result;
+    }
+
     @Override
     protected String toStringSuffix() {
         return "<string>" + Tools.getInstance().sourced(getText());
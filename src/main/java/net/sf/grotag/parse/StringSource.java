@@ -30,6 +30,18 @@ public class StringSource extends AbstractSource {
         return new BufferedReader(new StringReader(text));
     }
 
+    @Override
+    public char[] readChars() {
+        return text.toCharArray();
+    }
+
+    /**
+     * The text lines are read from.
+     */
+    String getText() {
+        return text;
+    }
+
     @Override
     public String getFullName() {
         return fullName;
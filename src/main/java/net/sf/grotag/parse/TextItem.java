@@ -17,27 +17,50 @@ public class TextItem extends AbstractTextItem {
     public TextItem(AbstractSource newSource, int newLine, int newColumn, String newText) {
         super(newSource, newLine, newColumn);
 
-        boolean afterBackslash = false;
-        String textWithResolvedEscapes;
-
         tools = Tools.getInstance();
 
-        textWithResolvedEscapes = "";
-        for (int i = 0; i < newText.length(); i += 1) {
-            char ch = newText.charAt(i);
-            if (afterBackslash) {
-                // Tokenizer must ensure that there are only @'s and backslashes
-                // at this point.
-                assert (ch == '\\') || (ch == '@') : "ch=" + tools.sourced(ch);
-                textWithResolvedEscapes += ch;
-                afterBackslash = false;
-            } else if (ch == '\\') {
-                afterBackslash = true;
-            } else {
-                textWithResolvedEscapes += ch;
+        int backslashIndex = newText.indexOf('\\');
+        if (backslashIndex >= 0) {
+            boolean afterBackslash = false;
+            StringBuilder textWithResolvedEscapes = new StringBuilder(newText.length());
+
+            textWithResolvedEscapes.append(newText, 0, backslashIndex);
+            for (int i = backslashIndex; i < newText.length(); i += 1) {
+                char ch = newText.charAt(i);
+                if (afterBackslash) {
+                    // Tokenizer must ensure that there are only @'s and
+                    // backslashes at this point.
+                    assert (ch == '\\') || (ch == '@') : "ch=" + tools.sourced(ch);
+                    textWithResolvedEscapes.append(ch);
+                    afterBackslash = false;
+                } else if (ch == '\\') {
+                    afterBackslash = true;
+                } else {
+                    textWithResolvedEscapes.append(ch);
+                }
             }
+            setText(textWithResolvedEscapes.toString());
+        } else {
+            // Without backslashes, there is nothing to resolve.
+            setText(newText);
         }
-        setText(textWithResolvedEscapes);
+    }
+
+    private TextItem(AbstractSource newSource, int newLine, int newColumn) {
+        super(newSource, newLine, newColumn);
+        tools = Tools.getInstance();
+    }
+
+    /**
+     * Create text item from <code>newText</code>, which already has its
+     * escape sequences resolved, for example because it was read from an
+     * <code>ItemCodec</code>.
+     */
+    static TextItem createResolved(AbstractSource newSource, int newLine, int newColumn, String newText) {
+        assert newText != null;
+        TextItem result = new TextItem(newSource, newLine, newColumn);
+        result.setText(newText);
+        return result;
     }
 
     @Override
@@ -22,7 +22,6 @@ import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
 import javax.imageio.IIOException;
-import javax.imageio.ImageIO;
 import javax.swing.Action;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -56,12 +55,10 @@ import net.sf.grotag.common.SyncLock;
 import net.sf.grotag.common.Tools;
 import net.sf.grotag.guide.DomWriter;
 import net.sf.grotag.guide.ExportTools;
-import net.sf.grotag.guide.Guide;
 import net.sf.grotag.guide.GuidePile;
-import net.sf.grotag.guide.HtmlDomFactory;
-import net.sf.grotag.guide.NodeInfo;
 import net.sf.grotag.guide.Relation;
 import net.sf.grotag.guide.DomWriter.Dtd;
+import net.sf.grotag.parse.MessagePool;
 
 import org.xml.sax.SAXException;
 
@@ -333,6 +330,12 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                     File inputFile = new File(settings.get(SETTING_LAST_GUIDE_FILE_OPENED, null));
                     Dtd formatToExport = ((ExportAccessory) exportChooser.getAccessory()).getFormat();
 
+                    // The viewer only reads nodes once they are viewed, but
+                    // the export needs all of them and the guides they link
+                    // to.
+                    pile.readAllNodes();
+                    messageModel.update(pile.getMessagePool());
+
                     if (formatToExport == Dtd.DOCBOOK) {
                         File outputFile = exportTools.targetFileFor(inputFile, folderToExportTo, "xml");
                         exportTools.exportAsDocBookXml(pile, outputFile);
@@ -566,7 +569,7 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
     private GuidePile pile;
     private Map<Relation, URI> relationMap;
     private List<JButton> relationButtons;
-    private Map<URI, NodeInfo> urlToNodeMap;
+    private NodePageRenderer renderer;
     private Map<Object, Action> editorKitActionMap;
     private JFileChooser openChooser;
     private JFileChooser exportChooser;
@@ -749,6 +752,8 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
 
         File newTempFolder = createTempFolder();
         GuidePile newPile = null;
+        NodePageRenderer newRenderer = null;
+        MessagePool newMessagePool = new MessagePool();
 
         synchronized (pageLock) {
             progressBar.setValue(0);
@@ -757,53 +762,26 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
             setGuiState(GuiState.OPENING);
             try {
                 setStatus("Reading " + guideFile);
-                newPile = GuidePile.createGuidePile(guideFile, newAmigaPaths);
-                HtmlDomFactory factory = new HtmlDomFactory(newPile, newTempFolder);
-
-                factory.copyStyleFile();
-                factory.setAddDublinCore(false);
-                factory.setAddNavigationBar(false);
-                factory.setCopyNonGuides(false);
-
-                // Compute number of nodes in pile to show progress.
-                // TODO: Use number of items as base for progress.
-                int nodeCount = 0;
-                for (Guide guide : newPile.getGuides()) {
-                    nodeCount += guide.getNodeInfos().size();
-                }
+                newPile = GuidePile.createLazyGuidePile(guideFile, newAmigaPaths, newMessagePool);
 
-                progressBar.setMinimum(0);
-                progressBar.setMaximum(nodeCount);
-                progressBar.setIndeterminate(false);
-
-                urlToNodeMap = new HashMap<URI, NodeInfo>();
-                int nodesWritten = 0;
-                for (Guide guide : newPile.getGuides()) {
-                    for (NodeInfo nodeInfo : guide.getNodeInfos()) {
-                        setStatus("Reading " + guide.getDatabaseInfo().getName() + "/" + nodeInfo.getName());
-                        File targetFile = factory.getTargetFileFor(guide, nodeInfo);
-                        URI targetUrl = targetFile.toURI();
-                        org.w3c.dom.Document htmlDocument = factory.createNodeDocument(guide, nodeInfo);
-                        DomWriter htmlWriter = new DomWriter(DomWriter.Dtd.HTML);
-                        htmlWriter.write(htmlDocument, targetFile);
-                        urlToNodeMap.put(targetUrl, nodeInfo);
-                        nodesWritten += 1;
-                        progressBar.setValue(nodesWritten);
-                    }
-                }
+                // Node pages are read and rendered once they are viewed, see
+                // setPageWithoutHistory().
+                newRenderer = new NodePageRenderer(newPile, newTempFolder);
                 settings.put(SETTING_LAST_GUIDE_FILE_OPENED, guideFile.getAbsolutePath());
             } catch (Throwable error) {
                 showError("cannot read " + tools.sourced(guideFile), error);
             } finally {
                 clearStatus();
                 progressBar.setVisible(false);
-                if (newPile != null) {
+                if (newRenderer != null) {
                     // Start showing new guide.
+                    disposeRenderer();
                     if (tempFolder != null) {
                         tools.attemptToDeleteAll(tempFolder);
                     }
                     tempFolder = newTempFolder;
                     pile = newPile;
+                    renderer = newRenderer;
                     homeUri = pile.getFirstHtmlFile(tempFolder).toURI();
                     pageHistory.clear();
                     setPage(homeUri);
@@ -811,9 +789,11 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                     // Error while preparing new guide; keep the old one.
                     tools.attemptToDeleteAll(newTempFolder);
                 }
+                // Show the messages of the guide just read, even if reading
+                // it failed and the previous guide is kept.
                 // FIXME: Check if this call causes an exception in the Swing
                 // thread in case there are no messages.
-                messageModel.update();
+                messageModel.update(newMessagePool);
                 tools.initColumnWidths(messageTable);
 
                 if (pile == null) {
@@ -886,10 +866,24 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
         assert pageUri != null;
         synchronized (pageLock) {
             log.info("set page to: " + tools.sourced(pageUri.toString()));
+            if (renderer != null) {
+                renderer.render(pageUri);
+                // Reading the node might have found new problems.
+                messageModel.update(pile.getMessagePool());
+            }
             htmlPane.setPage(pageUri.toURL());
 
-            HtmlInfo htmlInfo = new HtmlInfo(pageUri);
-            String title = htmlInfo.getTitle();
+            String title;
+            if ((renderer != null) && renderer.isNodePage(pageUri)) {
+                // Node pages do not have to be parsed again because the pile
+                // already knows their title and relations.
+                title = renderer.getTitle(pageUri);
+                relationMap = renderer.getRelationMap(pageUri);
+            } else {
+                HtmlInfo htmlInfo = new HtmlInfo(pageUri);
+                title = htmlInfo.getTitle();
+                relationMap = htmlInfo.getRelationMap();
+            }
 
             if (title != null) {
                 setTitle(title + " - Grotag");
@@ -897,7 +891,6 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                 setTitle(DEFAULT_TITLE);
             }
 
-            relationMap = htmlInfo.getRelationMap();
             for (JButton button : relationButtons) {
                 Relation buttonRelation = ((RelationAction) button.getAction()).getRelation();
                 boolean relationEnabled = relationMap.containsKey(buttonRelation);
@@ -942,20 +935,32 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
             if (linkEvent.getEventType() == HyperlinkEvent.EventType.ACTIVATED) {
                 URI uriToOpen = linkEvent.getURL().toURI();
                 try {
-                    BufferedImage possibleImage = null;
-                    try {
-                        possibleImage = ImageIO.read(uriToOpen.toURL());
-                    } catch (IIOException error) {
-                        log.fine("assume url is not an image: " + uriToOpen);
+                    LinkTargetIndex.TargetType targetType;
+                    if (renderer != null) {
+                        targetType = renderer.getLinkTargetIndex().getTargetType(uriToOpen);
+                    } else {
+                        targetType = LinkTargetIndex.TargetType.OTHER;
                     }
-                    if (possibleImage == null) {
+                    if (targetType != LinkTargetIndex.TargetType.IMAGE) {
+                        // Pages of nodes might not have been rendered yet, so
+                        // they must not be read as image.
                         setPage(uriToOpen);
                     } else {
-                        ImageFrame imageFrame = new ImageFrame(possibleImage);
-                        imageFrame.setTitle(tools.getName(uriToOpen));
-                        imageFrame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-                        imageFrame.pack();
-                        imageFrame.setVisible(true);
+                        BufferedImage possibleImage = null;
+                        try {
+                            possibleImage = renderer.getLinkTargetIndex().getImage(uriToOpen);
+                        } catch (IIOException error) {
+                            log.fine("assume url is not an image: " + uriToOpen);
+                        }
+                        if (possibleImage == null) {
+                            setPage(uriToOpen);
+                        } else {
+                            ImageFrame imageFrame = new ImageFrame(possibleImage);
+                            imageFrame.setTitle(tools.getName(uriToOpen));
+                            imageFrame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+                            imageFrame.pack();
+                            imageFrame.setVisible(true);
+                        }
                     }
                 } catch (IOException error) {
                     showError("cannot open URL: " + tools.sourced(uriToOpen.toString()), error);
@@ -972,12 +977,24 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
         }
     }
 
+    /**
+     * Stop rendering pages for the current pile, so its temporary folder can
+     * be deleted.
+     */
+    private void disposeRenderer() {
+        if (renderer != null) {
+            renderer.dispose();
+            renderer = null;
+        }
+    }
+
     @Override
     public void dispose() {
         synchronized (pageLock) {
             if (htmlPane != null) {
                 htmlPane.removeHyperlinkListener(this);
             }
+            disposeRenderer();
             pile = null;
             try {
                 settings.flush();
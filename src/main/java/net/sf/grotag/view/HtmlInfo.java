@@ -106,6 +106,7 @@ class HtmlInfo {
         log = Logger.getLogger(HtmlInfo.class.getName());
         relationMap = new TreeMap<Relation, URI>();
         relToRelationMap = new TreeMap<String, Relation>();
+        relToRelationMap.put("contents", Relation.contents);
         relToRelationMap.put("help", Relation.help);
         relToRelationMap.put("index", Relation.index);
         relToRelationMap.put("next", Relation.next);
@@ -0,0 +1,151 @@
+package net.sf.grotag.view;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import net.sf.grotag.common.Tools;
+
+/**
+ * Index telling what kind of document the links shown in the viewer refer
+ * to, so that following a link to a node does not have to attempt to read
+ * it as image first.
+ * <p>
+ * Node pages are known in advance. Other files are classified using the
+ * result of exporting them once a page linking to them has been rendered:
+ * IFF images converted to PNG are images, and otherwise the suffix tells if
+ * any image reader supports the file. None of this reads the files. Images
+ * decoded recently are kept, so that viewing them again is quick.
+ *
+ * @author Thomas Aglassinger
+ */
+class LinkTargetIndex {
+    /**
+     * Kinds of documents a link can refer to.
+     *
+     * @author Thomas Aglassinger
+     */
+    enum TargetType {
+        NODE_PAGE, IMAGE, OTHER
+    }
+
+    /**
+     * Number of decoded images to keep.
+     */
+    static final int MAX_CACHED_IMAGES = 8;
+
+    private Logger log;
+    private Tools tools;
+    private ConcurrentMap<URI, TargetType> uriToTargetTypeMap;
+    private Map<URI, BufferedImage> uriToImageMap;
+    private Set<String> imageSuffixes;
+
+    LinkTargetIndex(Set<URI> nodePageUris) {
+        assert nodePageUris != null;
+
+        log = Logger.getLogger(LinkTargetIndex.class.getName());
+        tools = Tools.getInstance();
+        uriToTargetTypeMap = new ConcurrentHashMap<URI, TargetType>();
+        for (URI nodePageUri : nodePageUris) {
+            uriToTargetTypeMap.put(nodePageUri.normalize(), TargetType.NODE_PAGE);
+        }
+        imageSuffixes = new HashSet<String>();
+        for (String formatName : ImageIO.getReaderFormatNames()) {
+            imageSuffixes.add(formatName.toLowerCase());
+        }
+        uriToImageMap = new LinkedHashMap<URI, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, BufferedImage> eldest) {
+                return size() > MAX_CACHED_IMAGES;
+            }
+        };
+    }
+
+    /**
+     * Remember that <code>nodePageUri</code> refers to a node page, for
+     * example because it belongs to a guide that has only been added to the
+     * pile after the index was created.
+     */
+    void addNodePage(URI nodePageUri) {
+        assert nodePageUri != null;
+        uriToTargetTypeMap.put(nodePageUri.normalize(), TargetType.NODE_PAGE);
+    }
+
+    /**
+     * Remember what kind of document the export of a file other than a guide
+     * resulted in. Files converted to PNG are images, other files are
+     * classified by their suffix.
+     */
+    void addNonGuideFile(URI targetUri, boolean isConvertedToPng) {
+        assert targetUri != null;
+        URI normalizedUri = targetUri.normalize();
+        TargetType targetType = isConvertedToPng ? TargetType.IMAGE : getTargetTypeForSuffix(normalizedUri);
+        uriToTargetTypeMap.put(normalizedUri, targetType);
+        log.fine("classified " + tools.sourced(normalizedUri.toString()) + " as " + targetType);
+    }
+
+    /**
+     * The kind of document <code>targetUri</code> refers to. Links to files
+     * not added to the index yet are classified by their suffix, so this
+     * never has to read the file.
+     */
+    TargetType getTargetType(URI targetUri) {
+        assert targetUri != null;
+        URI normalizedUri = targetUri.normalize();
+        TargetType result = uriToTargetTypeMap.get(normalizedUri);
+        if (result == null) {
+            result = getTargetTypeForSuffix(normalizedUri);
+        }
+        return result;
+    }
+
+    /**
+     * <code>IMAGE</code> if any image reader supports the suffix of
+     * <code>targetUri</code>, otherwise <code>OTHER</code>.
+     */
+    private TargetType getTargetTypeForSuffix(URI targetUri) {
+        TargetType result = TargetType.OTHER;
+        String path = targetUri.getPath();
+        if (path != null) {
+            String suffix = tools.getSuffix(new File(path));
+            if (imageSuffixes.contains(suffix)) {
+                result = TargetType.IMAGE;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The image <code>imageUri</code> refers to, or <code>null</code> if it
+     * cannot be decoded after all.
+     */
+    BufferedImage getImage(URI imageUri) throws IOException {
+        assert imageUri != null;
+        URI normalizedUri = imageUri.normalize();
+        BufferedImage result;
+        synchronized (uriToImageMap) {
+            result = uriToImageMap.get(normalizedUri);
+        }
+        if (result == null) {
+            result = ImageIO.read(normalizedUri.toURL());
+            if (result != null) {
+                synchronized (uriToImageMap) {
+                    uriToImageMap.put(normalizedUri, result);
+                }
+            } else {
+                uriToTargetTypeMap.put(normalizedUri, TargetType.OTHER);
+            }
+        }
+        return result;
+    }
+}
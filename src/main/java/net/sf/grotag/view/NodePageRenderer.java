@@ -0,0 +1,447 @@
+package net.sf.grotag.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.guide.DomWriter;
+import net.sf.grotag.guide.Guide;
+import net.sf.grotag.guide.GuidePile;
+import net.sf.grotag.guide.HtmlDomFactory;
+import net.sf.grotag.guide.Link;
+import net.sf.grotag.guide.NodeInfo;
+import net.sf.grotag.guide.Relation;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.CommandItem;
+
+/**
+ * Renderer for the HTML pages of the nodes in a pile that only writes a page
+ * once it is about to be viewed. In the background, it also renders the pages
+ * of the nodes the viewed node links to, so that following a link usually
+ * does not have to wait.
+ * <p>
+ * The title and relations of each page are taken from the pile, so the viewer
+ * does not have to parse the page again to find out about them. Similarly, the
+ * files other than guides a rendered page links to are classified in the
+ * background, so the viewer knows which links refer to images.
+ * <p>
+ * For piles created by <code>GuidePile.createLazyGuidePile()</code>, the
+ * body of a node is only read right before its page is rendered. The pages
+ * of guides that are added to the pile because of the links found this way
+ * become known to the renderer at the same time.
+ * <p>
+ * Each page is rendered at most once, either by the thread viewing it or by
+ * the background thread. Viewing a page only waits if the background thread
+ * is currently rendering that very page. Each thread uses its own
+ * <code>HtmlDomFactory</code>, all of them sharing the target files of the
+ * same template factory.
+ *
+ * @author Thomas Aglassinger
+ */
+class NodePageRenderer {
+    /**
+     * A node and the guide it belongs to.
+     *
+     * @author Thomas Aglassinger
+     */
+    private static class NodePage {
+        private Guide guide;
+        private NodeInfo nodeInfo;
+        private File targetFile;
+        private volatile Map<Relation, URI> relationMap;
+
+        public NodePage(Guide newGuide, NodeInfo newNodeInfo, File newTargetFile) {
+            guide = newGuide;
+            nodeInfo = newNodeInfo;
+            targetFile = newTargetFile;
+        }
+    }
+
+    private Logger log;
+    private Tools tools;
+    private GuidePile pile;
+    private HtmlDomFactory templateFactory;
+    private ThreadLocal<HtmlDomFactory> factories;
+    private DomWriter htmlWriter;
+    private Map<URI, NodePage> uriToPageMap;
+    private int registeredGuideCount;
+    private ConcurrentMap<URI, FutureTask<File>> uriToRenderTaskMap;
+    private ConcurrentMap<URI, Boolean> prefetchedUriMap;
+    private ReadWriteLock disposeLock;
+    private ExecutorService prefetchExecutor;
+    private LinkTargetIndex linkTargetIndex;
+    private boolean isDisposed;
+
+    public NodePageRenderer(GuidePile newPile, File newTargetFolder) throws ParserConfigurationException,
+            TransformerConfigurationException, IOException {
+        assert newPile != null;
+        assert newTargetFolder != null;
+
+        log = Logger.getLogger(NodePageRenderer.class.getName());
+        tools = Tools.getInstance();
+        pile = newPile;
+        disposeLock = new ReentrantReadWriteLock();
+        uriToRenderTaskMap = new ConcurrentHashMap<URI, FutureTask<File>>();
+        prefetchedUriMap = new ConcurrentHashMap<URI, Boolean>();
+
+        templateFactory = new HtmlDomFactory(pile, newTargetFolder);
+        templateFactory.copyStyleFile();
+        templateFactory.setAddDublinCore(false);
+        templateFactory.setAddNavigationBar(false);
+        templateFactory.setCopyNonGuides(false);
+        factories = new ThreadLocal<HtmlDomFactory>();
+        htmlWriter = new DomWriter(DomWriter.Dtd.HTML);
+
+        // Only compute where the pages go; rendering them happens later.
+        uriToPageMap = new ConcurrentHashMap<URI, NodePage>();
+        registerNewGuides();
+        linkTargetIndex = new LinkTargetIndex(uriToPageMap.keySet());
+
+        prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread result = new Thread(runnable, "grotag-prefetch");
+                result.setDaemon(true);
+                result.setPriority(Thread.MIN_PRIORITY);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * The factory to be used by the current thread.
+     */
+    private HtmlDomFactory getFactory() {
+        HtmlDomFactory result = factories.get();
+        if (result == null) {
+            try {
+                result = new HtmlDomFactory(templateFactory);
+            } catch (ParserConfigurationException error) {
+                throw new IllegalStateException("cannot create HTML document", error);
+            }
+            factories.set(result);
+        }
+        return result;
+    }
+
+    /**
+     * Compute where the pages of the guides added to the pile since the last
+     * call go. Relations are resolved once the page is rendered because the
+     * body of a node can still change them.
+     */
+    private void registerNewGuides() {
+        synchronized (pile) {
+            List<Guide> guides = pile.getGuides();
+            for (Guide guide : guides.subList(registeredGuideCount, guides.size())) {
+                for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                    File targetFile = getFactory().getTargetFileFor(guide, nodeInfo);
+                    URI pageUri = targetFile.toURI().normalize();
+                    uriToPageMap.put(pageUri, new NodePage(guide, nodeInfo, targetFile));
+                    if (linkTargetIndex != null) {
+                        linkTargetIndex.addNodePage(pageUri);
+                    }
+                }
+            }
+            registeredGuideCount = guides.size();
+        }
+    }
+
+    /**
+     * Is <code>pageUri</code> the page of a node in the pile?
+     */
+    public boolean isNodePage(URI pageUri) {
+        assert pageUri != null;
+        return uriToPageMap.containsKey(pageUri.normalize());
+    }
+
+    /**
+     * The title of the page for <code>pageUri</code>, which is the name of
+     * the guide its node belongs to, or <code>null</code> if it is not a node
+     * page.
+     */
+    public String getTitle(URI pageUri) {
+        assert pageUri != null;
+        String result;
+        NodePage page = uriToPageMap.get(pageUri.normalize());
+        if (page != null) {
+            result = page.guide.getDatabaseInfo().getName();
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * The pages the page for <code>pageUri</code> refers to by relation, or
+     * <code>null</code> if it is not a node page.
+     */
+    public Map<Relation, URI> getRelationMap(URI pageUri) {
+        assert pageUri != null;
+        Map<Relation, URI> result;
+        NodePage page = uriToPageMap.get(pageUri.normalize());
+        if (page != null) {
+            result = page.relationMap;
+            if (result == null) {
+                // The page has not been rendered yet.
+                result = createRelationMap(page);
+            }
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    private Map<Relation, URI> createRelationMap(NodePage page) {
+        Map<Relation, URI> result = new TreeMap<Relation, URI>();
+        for (Relation relation : Relation.values()) {
+            List<URI> relationUris = new ArrayList<URI>(1);
+            addLinkedUri(relationUris, page.nodeInfo.getRelation(relation));
+            if (!relationUris.isEmpty()) {
+                result.put(relation, relationUris.get(0));
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Render the page for <code>pageUri</code> unless this already happened
+     * or it is not a node page, and start rendering the pages it links to in
+     * the background.
+     */
+    public void render(URI pageUri) throws IOException {
+        assert pageUri != null;
+
+        URI normalizedUri = pageUri.normalize();
+        NodePage page = uriToPageMap.get(normalizedUri);
+        if (page != null) {
+            renderIfNecessary(normalizedUri, page);
+            prefetchLinkedPages(page);
+            classifyLinkedFiles(page);
+        }
+    }
+
+    /**
+     * Index telling what kind of document the links on the pages refer to.
+     */
+    public LinkTargetIndex getLinkTargetIndex() {
+        return linkTargetIndex;
+    }
+
+    /**
+     * Render <code>page</code> unless this already happened, or wait for
+     * another thread to finish rendering it.
+     */
+    private void renderIfNecessary(URI pageUri, NodePage page) throws IOException {
+        FutureTask<File> renderTask = uriToRenderTaskMap.get(pageUri);
+        if (renderTask == null) {
+            FutureTask<File> newRenderTask = createRenderTask(page);
+            renderTask = uriToRenderTaskMap.putIfAbsent(pageUri, newRenderTask);
+            if (renderTask == null) {
+                renderTask = newRenderTask;
+                renderTask.run();
+            }
+        }
+        try {
+            renderTask.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException wrappedError = new InterruptedIOException("rendering "
+                    + tools.sourced(page.targetFile) + " has been interrupted");
+            wrappedError.initCause(error);
+            throw wrappedError;
+        } catch (ExecutionException error) {
+            // Attempt to render the page again the next time it is needed.
+            uriToRenderTaskMap.remove(pageUri, renderTask);
+            Throwable cause = error.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException("cannot render " + tools.sourced(page.targetFile), cause);
+            }
+        }
+    }
+
+    private FutureTask<File> createRenderTask(final NodePage page) {
+        return new FutureTask<File>(new Callable<File>() {
+            public File call() throws IOException {
+                disposeLock.readLock().lock();
+                try {
+                    if (!isDisposed) {
+                        write(page);
+                    }
+                } finally {
+                    disposeLock.readLock().unlock();
+                }
+                return page.targetFile;
+            }
+        });
+    }
+
+    /**
+     * Read the node of <code>page</code> and write its HTML document.
+     */
+    private void write(NodePage page) throws IOException {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("render " + tools.sourced(page.targetFile));
+        }
+        pile.readNode(page.guide, page.nodeInfo);
+        registerNewGuides();
+        page.relationMap = createRelationMap(page);
+        try {
+            htmlWriter.write(getFactory().createNodeDocument(page.guide, page.nodeInfo), page.targetFile);
+        } catch (ParserConfigurationException error) {
+            throw new IllegalStateException("cannot create HTML document", error);
+        } catch (TransformerException error) {
+            IOException wrappedError = new IOException("cannot write " + tools.sourced(page.targetFile));
+            wrappedError.initCause(error);
+            throw wrappedError;
+        }
+    }
+
+    private void prefetchLinkedPages(NodePage page) {
+        disposeLock.readLock().lock();
+        try {
+            for (URI linkedUri : getLinkedUris(page)) {
+                boolean isNewPrefetch = (prefetchedUriMap.putIfAbsent(linkedUri, Boolean.TRUE) == null);
+                if (!isDisposed && isNewPrefetch && !uriToRenderTaskMap.containsKey(linkedUri)) {
+                    final URI uriToPrefetch = linkedUri;
+                    final NodePage pageToPrefetch = uriToPageMap.get(linkedUri);
+                    prefetchExecutor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                renderIfNecessary(uriToPrefetch, pageToPrefetch);
+                            } catch (Exception error) {
+                                // Rendering the page is attempted again once
+                                // it is viewed, which then also reports the
+                                // error.
+                                log.log(Level.WARNING, "cannot prefetch " + tools.sourced(pageToPrefetch.targetFile),
+                                        error);
+                            }
+                        }
+                    });
+                }
+            }
+        } finally {
+            disposeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Classify the files other than guides that <code>page</code> links to
+     * in the background.
+     */
+    private void classifyLinkedFiles(final NodePage page) {
+        disposeLock.readLock().lock();
+        try {
+            if (!isDisposed) {
+                prefetchExecutor.execute(new Runnable() {
+                    public void run() {
+                        disposeLock.readLock().lock();
+                        try {
+                            if (!isDisposed) {
+                                for (AbstractItem item : page.guide.getNodeItems(page.nodeInfo)) {
+                                    if ((item instanceof CommandItem) && ((CommandItem) item).isLink()) {
+                                        Link link = pile.getLink((CommandItem) item);
+                                        if ((link != null) && (link.getState() == Link.State.VALID_OTHER_FILE)) {
+                                            classifyLinkedFile(page, link.getLocalTargetFile());
+                                        }
+                                    }
+                                }
+                            }
+                        } finally {
+                            disposeLock.readLock().unlock();
+                        }
+                    }
+                });
+            }
+        } finally {
+            disposeLock.readLock().unlock();
+        }
+    }
+
+    private void classifyLinkedFile(NodePage page, File linkedFile) {
+        try {
+            // The file already has been exported while rendering the page,
+            // so this only looks up where to and how.
+            HtmlDomFactory factory = getFactory();
+            File targetFile = factory.exportNonGuideFile(page.guide, linkedFile);
+            linkTargetIndex.addNonGuideFile(targetFile.toURI(), factory.isConvertedToPng(page.guide, linkedFile));
+        } catch (Exception error) {
+            // Links to the file are classified by their suffix instead.
+            log.log(Level.WARNING, "cannot classify " + tools.sourced(linkedFile), error);
+        }
+    }
+
+    /**
+     * URIs of the node pages that <code>page</code> refers to using a link or
+     * relation.
+     */
+    private List<URI> getLinkedUris(NodePage page) {
+        List<URI> result = new ArrayList<URI>();
+
+        for (Relation relation : Relation.values()) {
+            addLinkedUri(result, page.nodeInfo.getRelation(relation));
+        }
+        for (AbstractItem item : page.guide.getNodeItems(page.nodeInfo)) {
+            if ((item instanceof CommandItem) && ((CommandItem) item).isLink()) {
+                addLinkedUri(result, pile.getLink((CommandItem) item));
+            }
+        }
+        return result;
+    }
+
+    private void addLinkedUri(List<URI> uris, Link link) {
+        Link.State state = (link != null) ? link.getState() : null;
+        boolean isLinkToGuide = (state == Link.State.VALID) || (state == Link.State.VALID_GUIDE_UNCHECKED_NODE);
+        if (isLinkToGuide && link.isDataLink() && (link.getTargetNodeName() != null)) {
+            Guide targetGuide = pile.getGuide(link.getLocalTargetFile());
+            if (targetGuide != null) {
+                NodeInfo targetNodeInfo = targetGuide.getNodeInfo(link.getTargetNodeName());
+                if (targetNodeInfo != null) {
+                    uris.add(getFactory().getTargetFileFor(targetGuide, targetNodeInfo).toURI().normalize());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop rendering pages in the background. Once this returns, no more
+     * pages are written, so the target folder can be deleted.
+     */
+    public void dispose() {
+        // Wait for pages currently being rendered.
+        disposeLock.writeLock().lock();
+        try {
+            isDisposed = true;
+        } finally {
+            disposeLock.writeLock().unlock();
+        }
+        prefetchExecutor.shutdownNow();
+    }
+}
@@ -38,4 +38,15 @@ public class AmigaPathMapTest {
         assertEquals(new File("tests", "input").getAbsolutePath(), pair.getLocalFolder().getAbsolutePath());
     }
 
+    @Test
+    public void testGetPairFor() throws SAXException, IOException, ParserConfigurationException {
+        AmigaPathList amigaMap = new AmigaPathList();
+        assertNull(amigaMap.getPairFor("input:x"));
+        amigaMap.read(testTools.getTestInputFile("grotag_root.xml"));
+        assertEquals("input:", amigaMap.getPairFor("INPUT:x").getAmigaPath());
+        assertEquals("stuff:", amigaMap.getPairFor("Stuff:input/x").getAmigaPath());
+        assertNull(amigaMap.getPairFor("in:x"));
+        assertNull(amigaMap.getPairFor("x"));
+    }
+
 }
@@ -33,6 +33,38 @@ public class AmigaToolsTest {
         testGetFilePathString("tests/input/basics.guide", basicsFile);
     }
 
+    @Test
+    public void testGetFileForRelativePath() {
+        File currentFolder = new File("tests", "input");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        File parentFolder = currentFolder.getAbsoluteFile().getParentFile();
+
+        assertEquals(new File(currentFolder, "x").getAbsoluteFile(), amigaTools.getFileFor("x", currentFolder,
+                amigaPaths));
+        assertEquals(new File(parentFolder, "x"), amigaTools.getFileFor("/x", currentFolder, amigaPaths));
+        assertEquals(new File(currentFolder, "y").getAbsoluteFile(), amigaTools.getFileFor("x//y", currentFolder,
+                amigaPaths));
+        assertEquals(new File(parentFolder.getParentFile(), "x"), amigaTools.getFileFor("//x", currentFolder,
+                amigaPaths));
+    }
+
+    @Test
+    public void testGetFileForAssign() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        File currentFolder = new File("tests");
+
+        File expected = testTools.getTestInputFile("basics.guide").getAbsoluteFile();
+        assertEquals(expected, amigaTools.getFileFor("Input:basics.guide", currentFolder, amigaPaths));
+        assertEquals(expected, amigaTools.getFileFor("STUFF:input/basics.guide", currentFolder, amigaPaths));
+        assertEquals(new File(new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile(), "x"), amigaTools
+                .getFileFor("unknown:x", currentFolder, amigaPaths));
+
+        assertEquals(0, amigaPaths.getHitCount());
+        assertEquals(expected, amigaTools.getFileFor("Input:basics.guide", currentFolder, amigaPaths));
+        assertEquals(1, amigaPaths.getHitCount());
+    }
+
     @Test
     public void testCanEscapeForAmigaGuide() {
         assertEquals("", amigaTools.escapedForAmigaguide(""));
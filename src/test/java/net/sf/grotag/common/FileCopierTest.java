@@ -0,0 +1,42 @@
+package net.sf.grotag.common;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileCopierTest {
+    private TestTools testTools;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        File sourceFile = testTools.getTestInputFile("amigaball.ilbm");
+        File targetFile = testTools.getTestActualFile("FileCopierTest.testCopy.ilbm");
+        targetFile.delete();
+
+        FileCopier copier = new FileCopier();
+        assertTrue(copier.copy(sourceFile, targetFile));
+        assertEquals(sourceFile.length(), targetFile.length());
+        assertEquals(sourceFile.lastModified(), targetFile.lastModified());
+        assertTrue(copier.isUnchanged(sourceFile, targetFile));
+        assertEquals(1, copier.getCopiedFileCount());
+        assertEquals(sourceFile.length(), copier.getCopiedByteCount());
+
+        assertFalse(copier.copy(sourceFile, targetFile));
+        assertEquals(1, copier.getCopiedFileCount());
+        assertEquals(1, copier.getSkippedFileCount());
+
+        // A target changed since copying it is copied again.
+        assertTrue(targetFile.setLastModified(sourceFile.lastModified() - 10000));
+        assertFalse(copier.isUnchanged(sourceFile, targetFile));
+        assertTrue(copier.copy(sourceFile, targetFile));
+        assertEquals(2, copier.getCopiedFileCount());
+    }
+}
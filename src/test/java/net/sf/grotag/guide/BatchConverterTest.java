@@ -0,0 +1,79 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.TestTools;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.MessagePool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for BatchConverter.
+ *
+ * @author Thomas Aglassinger
+ */
+public class BatchConverterTest {
+    private TestTools testTools;
+    private Tools tools;
+    private MessagePool messagePool;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+        tools = Tools.getInstance();
+        messagePool = new MessagePool();
+        messagePool.setSink(null);
+    }
+
+    @Test
+    public void testConvertHtml() throws Exception {
+        String testName = testTools.getTestName(BatchConverterTest.class, "testConvertHtml");
+        File inputFolder = testTools.getTestInputFile("root.guide").getParentFile();
+        File outputFolder = testTools.getTestActualFile(testName);
+        BatchConverter converter = new BatchConverter(BatchConverter.Format.HTML, new AmigaPathList(), messagePool, 2);
+
+        tools.attemptToDeleteAll(outputFolder);
+        converter.add(inputFolder);
+        int guideCount = converter.getGuideFiles().size();
+        assertTrue(guideCount > 1);
+
+        BatchConverter.Summary summary = converter.convert(outputFolder);
+        assertEquals(0, summary.getFailedGuideFiles().size());
+        assertTrue(summary.getPileCount() > 0);
+        assertTrue(summary.getGuideCount() >= summary.getPileCount());
+        assertTrue(summary.getByteCount() > 0);
+        assertTrue(new File(outputFolder, inputFolder.getName() + File.separator + "basics").isDirectory());
+        tools.attemptToDeleteAll(outputFolder);
+    }
+
+    @Test
+    public void testBrokenPileIsSkipped() throws Exception {
+        String testName = testTools.getTestName(BatchConverterTest.class, "testBrokenPileIsSkipped");
+        File inputFolder = testTools.getTestActualFile(testName);
+        File basicsGuideFile = new File(inputFolder, "basics.guide");
+        File nodesGuideFile = new File(inputFolder, "nodes.guide");
+        BatchConverter converter = new BatchConverter(BatchConverter.Format.VALIDATE, new AmigaPathList(),
+                messagePool, 1);
+
+        tools.attemptToDeleteAll(inputFolder);
+        tools.copyFile(testTools.getTestInputFile("basics.guide"), basicsGuideFile);
+        tools.copyFile(testTools.getTestInputFile("nodes.guide"), nodesGuideFile);
+        converter.add(inputFolder);
+        assertEquals(2, converter.getGuideFiles().size());
+
+        // Remove the guide after it has been found so that reading it fails.
+        tools.delete(basicsGuideFile);
+        BatchConverter.Summary summary = converter.convert(null);
+        assertEquals(1, summary.getFailedGuideFiles().size());
+        assertEquals(basicsGuideFile.getCanonicalFile(), summary.getFailedGuideFiles().get(0));
+        assertEquals(1, summary.getPileCount());
+        assertEquals(1, summary.getGuideCount());
+        tools.attemptToDeleteAll(inputFolder);
+    }
+}
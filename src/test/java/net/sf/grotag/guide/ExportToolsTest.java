@@ -0,0 +1,245 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.TestTools;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.MessagePool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for ExportTools.
+ *
+ * @author Thomas Aglassinger
+ */
+public class ExportToolsTest {
+    private ExportTools exportTools;
+    private TestTools testTools;
+    private Tools tools;
+
+    @Before
+    public void setUp() throws Exception {
+        exportTools = ExportTools.getInstance();
+        testTools = TestTools.getInstance();
+        tools = Tools.getInstance();
+    }
+
+    private String readText(File file) throws IOException {
+        StringBuilder result = new StringBuilder();
+        BufferedReader reader = tools.createBufferedReader(file, DomWriter.DEFAULT_ENCODING);
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                result.append(line).append('\n');
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testLazyExportAsHtml() throws Exception {
+        File guideFile = testTools.getTestInputFile("root.guide");
+        String testName = testTools.getTestName(ExportToolsTest.class, "testLazyExportAsHtml");
+        File eagerFolder = testTools.getTestActualFile(testName + ".eager");
+        File lazyFolder = testTools.getTestActualFile(testName + ".lazy");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        MessagePool messagePool = new MessagePool();
+        messagePool.setSink(null);
+
+        GuidePile eagerPile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        GuidePile lazyPile = GuidePile.createLazyGuidePile(guideFile, amigaPaths, messagePool);
+        lazyPile.readAllNodes();
+        tools.mkdirs(eagerFolder);
+        tools.mkdirs(lazyFolder);
+        exportTools.exportAsHtml(eagerPile, eagerFolder, DomWriter.Dtd.HTML);
+        exportTools.exportAsHtml(lazyPile, lazyFolder, DomWriter.Dtd.HTML);
+
+        HtmlDomFactory eagerFactory = new HtmlDomFactory(eagerPile, eagerFolder);
+        HtmlDomFactory lazyFactory = new HtmlDomFactory(lazyPile, lazyFolder);
+        assertEquals(eagerPile.getGuides().size(), lazyPile.getGuides().size());
+        for (Guide eagerGuide : eagerPile.getGuides()) {
+            Guide lazyGuide = lazyPile.getGuide(eagerGuide.getSourceFile());
+            for (NodeInfo eagerNodeInfo : eagerGuide.getNodeInfos()) {
+                File eagerFile = eagerFactory.getTargetFileFor(eagerGuide, eagerNodeInfo);
+                File lazyFile = lazyFactory.getTargetFileFor(lazyGuide, lazyGuide.getNodeInfo(eagerNodeInfo.getName()));
+                assertTrue(lazyFile.exists());
+                assertEquals(readText(eagerFile), readText(lazyFile));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelExportAsHtml() throws Exception {
+        File guideFile = testTools.getTestInputFile("root.guide");
+        String testName = testTools.getTestName(ExportToolsTest.class, "testParallelExportAsHtml");
+        File sequentialFolder = testTools.getTestActualFile(testName + ".sequential");
+        File parallelFolder = testTools.getTestActualFile(testName + ".parallel");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+
+        GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        tools.mkdirs(sequentialFolder);
+        tools.mkdirs(parallelFolder);
+        exportTools.exportAsHtml(pile, sequentialFolder, DomWriter.Dtd.HTML);
+        exportTools.exportAsHtml(pile, parallelFolder, DomWriter.Dtd.HTML, 4);
+
+        HtmlDomFactory sequentialFactory = new HtmlDomFactory(pile, sequentialFolder);
+        HtmlDomFactory parallelFactory = new HtmlDomFactory(pile, parallelFolder);
+        for (Guide guide : pile.getGuides()) {
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                File sequentialFile = sequentialFactory.getTargetFileFor(guide, nodeInfo);
+                File parallelFile = parallelFactory.getTargetFileFor(guide, nodeInfo);
+                assertTrue(parallelFile.exists());
+                assertEquals(readText(sequentialFile), readText(parallelFile));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalExportAsHtml() throws Exception {
+        File guideFile = testTools.getTestInputFile("root.guide");
+        String testName = testTools.getTestName(ExportToolsTest.class, "testIncrementalExportAsHtml");
+        File outputFolder = testTools.getTestActualFile(testName);
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+
+        GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        tools.attemptToDeleteAll(outputFolder);
+        tools.mkdirs(outputFolder);
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.HTML, 1, false, true);
+        assertTrue(new File(outputFolder, ExportManifest.MANIFEST_NAME).exists());
+
+        // Modify one exported file and remove another one.
+        HtmlDomFactory factory = new HtmlDomFactory(pile, outputFolder);
+        List<Guide> guides = pile.getGuides();
+        Guide modifiedGuide = guides.get(0);
+        Guide removedGuide = guides.get(1);
+        File modifiedFile = factory.getTargetFileFor(modifiedGuide, modifiedGuide.getNodeInfos().get(0));
+        File removedFile = factory.getTargetFileFor(removedGuide, removedGuide.getNodeInfos().get(0));
+        Writer modifiedWriter = tools.createBufferedWriter(modifiedFile, DomWriter.DEFAULT_ENCODING);
+        try {
+            modifiedWriter.write("modified\n");
+        } finally {
+            modifiedWriter.close();
+        }
+        tools.delete(removedFile);
+
+        // Export again: unchanged nodes are skipped, missing files written.
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.HTML, 1, false, true);
+        assertEquals("modified\n", readText(modifiedFile));
+        assertTrue(removedFile.exists());
+
+        // Export with different settings: all nodes are written.
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.XHTML, 1, false, true);
+        assertFalse(readText(modifiedFile).equals("modified\n"));
+    }
+
+    private void writeGuide(File guideFile, String text) throws IOException {
+        Writer guideWriter = tools.createBufferedWriter(guideFile, AmigaTools.ENCODING);
+        try {
+            guideWriter.write(text);
+        } finally {
+            guideWriter.close();
+        }
+    }
+
+    private void setLastModified(File folder, long time) {
+        for (File file : folder.listFiles()) {
+            if (file.isDirectory()) {
+                setLastModified(file, time);
+            } else {
+                assertTrue(file.setLastModified(time));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalExportOfChangedNodes() throws Exception {
+        String testName = testTools.getTestName(ExportToolsTest.class, "testIncrementalExportOfChangedNodes");
+        File inputFolder = testTools.getTestActualFile(testName + ".input");
+        File outputFolder = testTools.getTestActualFile(testName);
+        File mainGuideFile = new File(inputFolder, "main.guide");
+        File otherGuideFile = new File(inputFolder, "other.guide");
+        File extraGuideFile = new File(inputFolder, "extra.guide");
+        String mainNodes = "@node Second \"Second\"\nSecond node without links.\n@endnode\n";
+        String mainLinks = "@{\"Other\" link \"other.guide/Main\"}\n";
+        String extraLink = "@{\"Extra\" link \"extra.guide/Main\"}\n";
+        long oldTime = 1000000000000L;
+
+        tools.attemptToDeleteAll(inputFolder);
+        tools.attemptToDeleteAll(outputFolder);
+        tools.mkdirs(inputFolder);
+        tools.mkdirs(outputFolder);
+        writeGuide(mainGuideFile, "@database main\n@node Main \"Main\"\n" + mainLinks + extraLink + "@endnode\n"
+                + mainNodes);
+        writeGuide(otherGuideFile, "@database other\n@node Main \"Other\"\nOther text.\n@endnode\n");
+        writeGuide(extraGuideFile, "@database extra\n@node Main \"Extra\"\nExtra text.\n@endnode\n");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        GuidePile pile = GuidePile.createGuidePile(mainGuideFile, amigaPaths);
+        assertEquals(3, pile.getGuides().size());
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.HTML, 1, false, true);
+
+        HtmlDomFactory factory = new HtmlDomFactory(pile, outputFolder);
+        Guide mainGuide = pile.getGuides().get(0);
+        File mainFile = factory.getTargetFileFor(mainGuide, mainGuide.getNodeInfo("main"));
+        File secondFile = factory.getTargetFileFor(mainGuide, mainGuide.getNodeInfo("second"));
+        Guide otherGuide = pile.getGuides().get(1);
+        File otherFile = factory.getTargetFileFor(otherGuide, otherGuide.getNodeInfo("main"));
+        Guide extraGuide = pile.getGuides().get(2);
+        File extraFile = factory.getTargetFileFor(extraGuide, extraGuide.getNodeInfo("main"));
+        assertTrue(extraFile.exists());
+
+        // Change the text of a node: only this node is written again.
+        setLastModified(outputFolder, oldTime);
+        writeGuide(otherGuideFile, "@database other\n@node Main \"Other\"\nChanged text.\n@endnode\n");
+        pile = GuidePile.createGuidePile(mainGuideFile, amigaPaths);
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.HTML, 1, false, true);
+        assertTrue(otherFile.lastModified() != oldTime);
+        assertTrue(readText(otherFile).contains("Changed text."));
+        assertEquals(oldTime, mainFile.lastModified());
+        assertEquals(oldTime, secondFile.lastModified());
+        assertEquals(oldTime, extraFile.lastModified());
+
+        // Rename the node a link refers to: the node with the link is written
+        // again even though its guide did not change, and the page of the
+        // renamed node replaces the old one.
+        setLastModified(outputFolder, oldTime);
+        writeGuide(otherGuideFile, "@database other\n@node Start \"Other\"\nChanged text.\n@endnode\n");
+        pile = GuidePile.createGuidePile(mainGuideFile, amigaPaths);
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.HTML, 1, false, true);
+        otherGuide = pile.getGuides().get(1);
+        File startFile = new HtmlDomFactory(pile, outputFolder).getTargetFileFor(otherGuide, otherGuide
+                .getNodeInfo("start"));
+        assertTrue(mainFile.lastModified() != oldTime);
+        assertEquals(oldTime, secondFile.lastModified());
+        assertEquals(oldTime, extraFile.lastModified());
+        assertTrue(startFile.exists());
+        assertFalse(otherFile.exists());
+
+        // Remove the only link to a guide: its pages are deleted.
+        writeGuide(mainGuideFile, "@database main\n@node Main \"Main\"\n" + mainLinks + "@endnode\n" + mainNodes);
+        pile = GuidePile.createGuidePile(mainGuideFile, amigaPaths);
+        assertEquals(2, pile.getGuides().size());
+        exportTools.exportAsHtml(pile, outputFolder, DomWriter.Dtd.HTML, 1, false, true);
+        assertFalse(extraFile.exists());
+        assertTrue(mainFile.exists());
+        assertTrue(secondFile.exists());
+        assertTrue(startFile.exists());
+    }
+}
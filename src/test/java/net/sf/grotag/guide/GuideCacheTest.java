@@ -0,0 +1,110 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.TestTools;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.AbstractItem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * TestCase for <code>GuideCache</code>.
+ *
+ * @author Thomas Aglassinger
+ */
+public class GuideCacheTest {
+    private GuideCache cache;
+    private File originalCacheFolder;
+    private TestTools testTools;
+    private Tools tools;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = GuideCache.getInstance();
+        testTools = TestTools.getInstance();
+        tools = Tools.getInstance();
+
+        File cacheFolder = testTools.getTestActualFile("GuideCacheTest.cache");
+        tools.attemptToDeleteAll(cacheFolder);
+        originalCacheFolder = cache.getCacheFolder();
+        cache.setCacheFolder(cacheFolder);
+        cache.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.setEnabled(false);
+        cache.setCacheFolder(originalCacheFolder);
+    }
+
+    private String prettyItems(List<AbstractItem> items) {
+        StringBuilder result = new StringBuilder();
+        for (AbstractItem item : items) {
+            result.append(item.toPrettyAmigaguide());
+        }
+        return result.toString();
+    }
+
+    private void testCachedGuide(String fileName) throws IOException {
+        File guideFile = testTools.getTestInputFile(fileName);
+        Guide uncachedGuide = Guide.createGuide(guideFile, new AmigaPathList());
+        File[] cacheFiles = cache.getCacheFolder().listFiles();
+        assertEquals(1, cacheFiles.length);
+
+        Guide cachedGuide = Guide.createGuide(guideFile, new AmigaPathList());
+        assertEquals(uncachedGuide.getDatabaseInfo().getName(), cachedGuide.getDatabaseInfo().getName());
+        assertEquals(prettyItems(uncachedGuide.getItems()), prettyItems(cachedGuide.getItems()));
+        assertEquals(uncachedGuide.getLinks().size(), cachedGuide.getLinks().size());
+
+        List<NodeInfo> uncachedNodeInfos = uncachedGuide.getNodeInfos();
+        List<NodeInfo> cachedNodeInfos = cachedGuide.getNodeInfos();
+        assertEquals(uncachedNodeInfos.size(), cachedNodeInfos.size());
+        for (int nodeIndex = 0; nodeIndex < uncachedNodeInfos.size(); nodeIndex += 1) {
+            NodeInfo uncachedNodeInfo = uncachedNodeInfos.get(nodeIndex);
+            NodeInfo cachedNodeInfo = cachedNodeInfos.get(nodeIndex);
+            assertEquals(uncachedNodeInfo.getName(), cachedNodeInfo.getName());
+            assertEquals(uncachedNodeInfo.getTitle(), cachedNodeInfo.getTitle());
+            assertEquals(prettyItems(uncachedGuide.getNodeItems(uncachedNodeInfo)), prettyItems(cachedGuide
+                    .getNodeItems(cachedNodeInfo)));
+        }
+    }
+
+    @Test
+    public void testMacroGuide() throws Exception {
+        testCachedGuide("macros.guide");
+    }
+
+    @Test
+    public void testNodeGuide() throws Exception {
+        testCachedGuide("nodes.guide");
+    }
+
+    @Test
+    public void testBrokenCache() throws Exception {
+        File guideFile = testTools.getTestInputFile("basics.guide");
+        Guide.createGuide(guideFile, new AmigaPathList());
+        File[] cacheFiles = cache.getCacheFolder().listFiles();
+        assertEquals(1, cacheFiles.length);
+
+        // Cut off the cache entry in the middle; the guide must still be read.
+        File cacheFile = cacheFiles[0];
+        RandomAccessFile cacheAccess = new RandomAccessFile(cacheFile, "rw");
+        try {
+            cacheAccess.setLength(cacheAccess.length() / 2);
+        } finally {
+            cacheAccess.close();
+        }
+        Guide guide = Guide.createGuide(guideFile, new AmigaPathList());
+        assertTrue(guide.getNodeInfos().size() > 0);
+    }
+}
@@ -5,6 +5,9 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -12,6 +15,8 @@ import javax.xml.parsers.ParserConfigurationException;
 import net.sf.grotag.common.AmigaPathList;
 import net.sf.grotag.common.TestTools;
 import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.MessagePool;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +43,122 @@ public class GuidePileTest {
         assertEquals(4, pile.getGuides().size());
     }
 
+    @Test
+    public void testConcurrentAdd() throws IOException, SAXException, ParserConfigurationException {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile sequentialPile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        GuidePile concurrentPile = GuidePile.createGuidePile(rootGuideFile, amigaPaths, 4);
+        List<Guide> sequentialGuides = sequentialPile.getGuides();
+        List<Guide> concurrentGuides = concurrentPile.getGuides();
+
+        assertEquals(sequentialGuides.size(), concurrentGuides.size());
+        for (int guideIndex = 0; guideIndex < sequentialGuides.size(); guideIndex += 1) {
+            Guide sequentialGuide = sequentialGuides.get(guideIndex);
+            Guide concurrentGuide = concurrentGuides.get(guideIndex);
+            List<Link> sequentialLinks = sequentialGuide.getLinks();
+            List<Link> concurrentLinks = concurrentGuide.getLinks();
+
+            assertEquals(sequentialGuide.getSourceFile(), concurrentGuide.getSourceFile());
+            assertEquals(sequentialLinks.size(), concurrentLinks.size());
+            for (int linkIndex = 0; linkIndex < sequentialLinks.size(); linkIndex += 1) {
+                assertEquals(sequentialLinks.get(linkIndex).getState(), concurrentLinks.get(linkIndex).getState());
+            }
+        }
+    }
+
+    @Test
+    public void testLazyAdd() throws IOException, SAXException, ParserConfigurationException {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        MessagePool messagePool = new MessagePool();
+        messagePool.setSink(null);
+        GuidePile eagerPile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        GuidePile lazyPile = GuidePile.createLazyGuidePile(rootGuideFile, amigaPaths, messagePool);
+
+        // Guides are only added once a node linking to them has been read.
+        assertEquals(1, lazyPile.getGuides().size());
+        Guide rootGuide = lazyPile.getGuides().get(0);
+        lazyPile.readNode(rootGuide, rootGuide.getNodeInfo("main"));
+        List<Guide> eagerGuides = eagerPile.getGuides();
+        List<Guide> lazyGuides = lazyPile.getGuides();
+        assertNotNull(lazyPile.getGuide(testTools.getTestInputFile("red.guide")));
+        assertNotNull(lazyPile.getGuide(testTools.getTestInputFile("green.guide")));
+
+        // The "guide" link in root.guide refers to itself; only red.guide
+        // links to blue.guide.
+        File blueGuideFile = testTools.getTestInputFile("blue.guide");
+        assertNull(lazyPile.getGuide(blueGuideFile));
+        Guide redGuide = lazyPile.getGuide(testTools.getTestInputFile("red.guide"));
+        lazyPile.readNode(redGuide, redGuide.getNodeInfo("main"));
+        assertNotNull(lazyPile.getGuide(blueGuideFile));
+
+        // Once all nodes have been read, the links are the same as with an
+        // eager pile.
+        lazyPile.readAllNodes();
+        assertEquals(eagerGuides.size(), lazyGuides.size());
+        for (Guide eagerGuide : eagerGuides) {
+            Guide lazyGuide = lazyPile.getGuide(eagerGuide.getSourceFile());
+            assertNotNull(lazyGuide);
+            assertEquals(getLinkStates(eagerGuide), getLinkStates(lazyGuide));
+        }
+    }
+
+    /**
+     * The links of <code>guide</code> along with their state, independent of
+     * the order in which its nodes have been read.
+     */
+    private List<String> getLinkStates(Guide guide) {
+        List<String> result = new ArrayList<String>();
+        for (Link link : guide.getLinks()) {
+            result.add(link + ": " + link.getState());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    public void testSeparateMessages() throws IOException {
+        File guideFile = testTools.getTestInputFile("nodes.guide");
+        MessagePool messagePool = new MessagePool();
+        MessagePool otherMessagePool = new MessagePool();
+        messagePool.setSink(null);
+        otherMessagePool.setSink(null);
+
+        GuidePile pile = GuidePile.createGuidePile(guideFile, new AmigaPathList(), messagePool);
+        int messageCount = messagePool.getItems().size();
+        assertSame(messagePool, pile.getMessagePool());
+        assertTrue(messageCount > 0);
+
+        GuidePile.createGuidePile(guideFile, new AmigaPathList(), otherMessagePool);
+        assertEquals(messageCount, messagePool.getItems().size());
+        assertEquals(messageCount, otherMessagePool.getItems().size());
+    }
+
+    @Test
+    public void testGetLink() throws IOException, SAXException, ParserConfigurationException {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile pile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        GuidePile otherPile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        int linkCount = 0;
+
+        for (Guide guide : pile.getGuides()) {
+            for (Link link : guide.getLinks()) {
+                CommandItem command = link.getLinkCommand();
+                if (command.isLink()) {
+                    assertSame(link, pile.getLink(command));
+                    assertNull(otherPile.getLink(command));
+                    linkCount += 1;
+                }
+            }
+        }
+        assertTrue(linkCount > 0);
+    }
+
     @Test
     public void testRkrm() throws IOException, SAXException, ParserConfigurationException {
         File rkrmDevicesFolder = testTools.getTestGuideFile("reference_library");
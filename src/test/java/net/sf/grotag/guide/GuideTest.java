@@ -1,12 +1,26 @@
 package net.sf.grotag.guide;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import net.sf.grotag.common.AmigaPathList;
 import net.sf.grotag.common.TestTools;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.MessageItem;
+import net.sf.grotag.parse.MessagePool;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -49,4 +63,161 @@ public class GuideTest {
         Guide guide = Guide.createGuide(testTools.getTestInputFile("macros.guide"), new AmigaPathList());
         assertNotNull(guide);
     }
+
+    @Test
+    public void testNodeInfos() throws Exception {
+        Guide guide = Guide.createGuide(testTools.getTestInputFile("nodes.guide"), new AmigaPathList());
+        List<NodeInfo> nodeInfos = guide.getNodeInfos();
+        String[] expectedNodeNames = new String[] { "notitle", "some", "unnamed.1", "missingendnode",
+                "aftermissingendnode", "unnamed.2", "missingendnodeatendoffile" };
+
+        assertSame(nodeInfos, guide.getNodeInfos());
+        assertEquals(expectedNodeNames.length, nodeInfos.size());
+        for (int nodeIndex = 0; nodeIndex < expectedNodeNames.length; nodeIndex += 1) {
+            NodeInfo nodeInfo = nodeInfos.get(nodeIndex);
+            assertEquals(expectedNodeNames[nodeIndex], nodeInfo.getName());
+            assertSame(nodeInfo, guide.getNodeInfo(nodeInfo.getName()));
+        }
+    }
+
+    private void assertMessagesEqual(String[] expectedMessages, Guide guide) {
+        List<String> actualMessages = new ArrayList<String>();
+        for (MessageItem message : guide.getMessagePool().getItems()) {
+            actualMessages.add(message.getLine() + ":" + message.getColumn() + " " + message.getText());
+        }
+        assertEquals(Arrays.asList(expectedMessages), actualMessages);
+    }
+
+    private void assertEndNodeAt(NodeInfo nodeInfo, int line, int column) {
+        CommandItem endNode = nodeInfo.getEndNode();
+        assertEquals("endnode", endNode.getCommandName());
+        assertEquals(line, endNode.getLine());
+        assertEquals(column, endNode.getColumn());
+    }
+
+    @Test
+    public void testFixedNodes() throws Exception {
+        Guide guide = Guide.createGuide(testTools.getTestInputFile("nodes.guide"), new AmigaPathList());
+
+        // Missing @endnodes are added where the next node starts or the file
+        // ends.
+        assertEndNodeAt(guide.getNodeInfo("some"), 8, 1);
+        assertEndNodeAt(guide.getNodeInfo("missingendnode"), 18, 1);
+        assertEndNodeAt(guide.getNodeInfo("aftermissingendnode"), 20, 1);
+        assertEndNodeAt(guide.getNodeInfo("missingendnodeatendoffile"), 31, 0);
+
+        // The dangling @endnode in line 23 is dropped, so there is exactly
+        // one @endnode for each node.
+        StringWriter prettyWriter = new StringWriter();
+        guide.writePretty(prettyWriter);
+        int endNodeCount = 0;
+        for (String line : prettyWriter.toString().split("\\n")) {
+            if (line.trim().equals("@endnode")) {
+                endNodeCount += 1;
+            }
+        }
+        assertEquals(guide.getNodeInfos().size(), endNodeCount);
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            assertTrue(nodeInfo.getEndNode().getLine() != 23);
+        }
+
+        assertEquals(0, guide.getLinks().size());
+        assertMessagesEqual(new String[] { "11:1 assigned name \"unnamed.1\" to unnamed node",
+                "18:1 added missing @endnode before @node", "23:1 removed dangling @endnode",
+                "25:1 changed duplicate node name \"unnamed.2\" to \"unnamed.2\"",
+                "31:0 added missing@endnode at end" }, guide);
+    }
+
+    @Test
+    public void testMacroMessages() throws Exception {
+        Guide guide = Guide.createGuide(testTools.getTestInputFile("macros.guide"), new AmigaPathList());
+
+        assertEquals(2, guide.getNodeInfos().size());
+        assertEquals(0, guide.getLinks().size());
+        assertMessagesEqual(new String[] { "33:1 ignored duplicate definition of macro \"nodemacro\"",
+                "35:25 inserting backslash before dangling \"@\"", "37:1 replaced standard tag \"b\" with macro",
+                "47:6 inserting backslash before dangling \"@\"" }, guide);
+    }
+
+    @Test
+    public void testLinks() throws Exception {
+        Guide guide = Guide.createGuide(testTools.getTestInputFile("root.guide"), new AmigaPathList());
+        List<Link> links = guide.getLinks();
+        String[] expectedTargets = new String[] { "root.guide/Main", "red.guide/Main", "green.guide/Main",
+                "blue.guide/Main", "linked.txt/Main", "amigaball.ilbm/Main" };
+        Link.Type[] expectedTypes = new Link.Type[] { Link.Type.link, Link.Type.link, Link.Type.link,
+                Link.Type.guide, Link.Type.link, Link.Type.link };
+
+        assertEquals(expectedTargets.length, links.size());
+        for (int linkIndex = 0; linkIndex < expectedTargets.length; linkIndex += 1) {
+            Link link = links.get(linkIndex);
+            assertEquals(expectedTargets[linkIndex], link.getAmigaTarget());
+            assertEquals(expectedTypes[linkIndex], link.getType());
+            assertEquals(Link.State.UNCHECKED, link.getState());
+        }
+        assertEquals("main", links.get(0).getTargetNodeName());
+        assertMessagesEqual(new String[] { "8:1 replaced obsolete @{... alink} by @{... link}" }, guide);
+    }
+
+    /**
+     * Items, relations, links and messages of <code>guide</code> as text, so
+     * that guides read in different ways can be compared.
+     */
+    private List<String> getContentLines(Guide guide) {
+        List<String> result = new ArrayList<String>();
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            result.add("node " + nodeInfo.getName() + ": " + nodeInfo.getTitle() + ", " + nodeInfo.getWrap() + ", "
+                    + nodeInfo.getRelationLinkMap());
+            for (AbstractItem item : guide.getNodeItems(nodeInfo)) {
+                result.add(item.toString());
+            }
+        }
+        List<String> linkLines = new ArrayList<String>();
+        for (Link link : guide.getLinks()) {
+            linkLines.add("link " + link);
+        }
+        // Links are added in the order the nodes are read.
+        Collections.sort(linkLines);
+        result.addAll(linkLines);
+        for (MessageItem message : guide.getMessagePool().getItems()) {
+            result.add(message.getLine() + ":" + message.getColumn() + " " + message.getText());
+        }
+        return result;
+    }
+
+    private void testLazyGuide(String fileName) throws IOException {
+        File guideFile = testTools.getTestInputFile(fileName);
+        Guide guide = Guide.createGuide(guideFile, new AmigaPathList());
+        Guide lazyGuide = Guide.createLazyGuide(guideFile, new AmigaPathList(), new MessagePool());
+
+        assertEquals(guide.getNodeInfos().size(), lazyGuide.getNodeInfos().size());
+        for (NodeInfo nodeInfo : lazyGuide.getNodeInfos()) {
+            assertFalse(lazyGuide.isNodeRead(nodeInfo));
+            try {
+                lazyGuide.getNodeItems(nodeInfo);
+                fail("items of unread node must not be accessible: " + nodeInfo.getName());
+            } catch (IllegalStateException expectedError) {
+                // Expected.
+            }
+            lazyGuide.readNode(nodeInfo);
+            assertTrue(lazyGuide.isNodeRead(nodeInfo));
+            assertTrue(guide.isNodeRead(guide.getNodeInfo(nodeInfo.getName())));
+        }
+        assertEquals(getContentLines(guide), getContentLines(lazyGuide));
+    }
+
+    @Test
+    public void testLazyNodeGuide() throws Exception {
+        testLazyGuide("nodes.guide");
+    }
+
+    @Test
+    public void testLazyMacroGuide() throws Exception {
+        testLazyGuide("macros.guide");
+    }
+
+    @Test
+    public void testLazyLinkGuide() throws Exception {
+        testLazyGuide("root.guide");
+    }
 }
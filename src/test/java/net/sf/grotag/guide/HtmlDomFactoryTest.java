@@ -1,8 +1,22 @@
 package net.sf.grotag.guide;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import net.sf.grotag.common.AmigaPathList;
 import net.sf.grotag.common.TestTools;
@@ -11,6 +25,10 @@ import net.sf.grotag.common.Tools;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
 
 /**
  * Test case for HtmlDocFactory.
@@ -49,6 +67,127 @@ public class HtmlDomFactoryTest {
         }
     }
 
+    /**
+     * Canonical text of <code>node</code> and its children, with attributes
+     * sorted and whitespace in text collapsed, so that documents that only
+     * differ in whitespace between elements yield the same text.
+     */
+    private String canonical(Node node) {
+        StringBuilder result = new StringBuilder();
+        appendCanonical(result, node);
+        return result.toString();
+    }
+
+    private void appendCanonical(StringBuilder target, Node node) {
+        short nodeType = node.getNodeType();
+        if (nodeType == Node.ELEMENT_NODE) {
+            target.append('<').append(node.getNodeName());
+            NamedNodeMap attributes = node.getAttributes();
+            SortedMap<String, String> sortedAttributes = new TreeMap<String, String>();
+            for (int i = 0; i < attributes.getLength(); i += 1) {
+                Node attribute = attributes.item(i);
+                sortedAttributes.put(attribute.getNodeName(), attribute.getNodeValue());
+            }
+            for (Map.Entry<String, String> attribute : sortedAttributes.entrySet()) {
+                target.append(' ').append(attribute.getKey()).append("=[").append(attribute.getValue()).append(']');
+            }
+            target.append('>');
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                appendCanonical(target, child);
+            }
+            target.append("</").append(node.getNodeName()).append('>');
+        } else if ((nodeType == Node.TEXT_NODE) || (nodeType == Node.CDATA_SECTION_NODE)) {
+            String text = node.getNodeValue().replaceAll("\\s+", " ").trim();
+            if (text.length() > 0) {
+                target.append('[').append(text).append(']');
+            }
+        } else if (nodeType == Node.DOCUMENT_NODE) {
+            appendCanonical(target, ((Document) node).getDocumentElement());
+        }
+    }
+
+    private Document parseXhtml(byte[] xhtml) throws Exception {
+        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+        builderFactory.setValidating(false);
+        DocumentBuilder builder = builderFactory.newDocumentBuilder();
+        // Do not attempt to read the XHTML DTD from the web.
+        builder.setEntityResolver(new EntityResolver() {
+            public InputSource resolveEntity(String publicId, String systemId) {
+                return new InputSource(new StringReader(""));
+            }
+        });
+        Document result = builder.parse(new ByteArrayInputStream(xhtml));
+        result.normalize();
+        return result;
+    }
+
+    private void testWriteNodeDocument(String guideBaseName, String encoding) throws Exception {
+        File guideFile = testTools.getTestInputFile(guideBaseName + ".guide");
+        String testName = testTools.getTestName(HtmlDomFactoryTest.class, "testWriteNodeDocument");
+        File targetFolder = testTools.getTestActualFile(testName);
+
+        GuidePile pile = GuidePile.createGuidePile(guideFile, new AmigaPathList());
+        Guide guide = pile.getGuides().get(0);
+        HtmlDomFactory factory = new HtmlDomFactory(pile, targetFolder);
+        factory.setCopyNonGuides(false);
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            ByteArrayOutputStream htmlStream = new ByteArrayOutputStream();
+            Writer htmlWriter = new OutputStreamWriter(htmlStream, encoding);
+            HtmlStreamWriter streamWriter = new HtmlStreamWriter(htmlWriter, DomWriter.Dtd.XHTML, encoding);
+            factory.writeNodeDocument(guide, nodeInfo, streamWriter);
+
+            String html = new String(htmlStream.toByteArray(), encoding);
+            assertTrue(html.startsWith("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?>\n<!DOCTYPE html"));
+            assertTrue(html.endsWith("</body>\n</html>\n"));
+
+            Document streamedDocument = parseXhtml(htmlStream.toByteArray());
+            Document domDocument = factory.createNodeDocument(guide, nodeInfo);
+            domDocument.normalize();
+            assertEquals(canonical(domDocument), canonical(streamedDocument));
+        }
+    }
+
+    @Test
+    public void testWriteNodeDocument() throws Exception {
+        testWriteNodeDocument("basics", DomWriter.DEFAULT_ENCODING);
+    }
+
+    @Test
+    public void testWriteNodeDocumentWithEscapes() throws Exception {
+        testWriteNodeDocument("escapes", DomWriter.DEFAULT_ENCODING);
+
+        // Characters the encoding cannot represent become character
+        // references.
+        testWriteNodeDocument("escapes", "US-ASCII");
+    }
+
+    @Test
+    public void testExportNonGuideFiles() throws Exception {
+        File guideFile = testTools.getTestInputFile("root.guide");
+        String testName = testTools.getTestName(HtmlDomFactoryTest.class, "testExportNonGuideFiles");
+        File targetFolder = testTools.getTestActualFile(testName);
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+
+        tools.attemptToDeleteAll(targetFolder);
+        GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        HtmlDomFactory factory = new HtmlDomFactory(pile, targetFolder);
+        factory.exportNonGuideFiles(null);
+        File imageFile = new File(targetFolder, "root" + File.separator + "amigaball.png");
+        File textFile = new File(targetFolder, "root" + File.separator + "linked.txt");
+        assertTrue(imageFile.exists());
+        assertTrue(textFile.exists());
+        Guide rootGuide = pile.getGuides().get(0);
+        assertTrue(factory.isConvertedToPng(rootGuide, testTools.getTestInputFile("amigaball.ilbm")));
+        assertFalse(factory.isConvertedToPng(rootGuide, testTools.getTestInputFile("linked.txt")));
+
+        // A new export skips files that are up to date.
+        long imageModified = imageFile.lastModified();
+        new HtmlDomFactory(pile, targetFolder).exportNonGuideFiles(null);
+        assertEquals(imageModified, imageFile.lastModified());
+        tools.attemptToDeleteAll(targetFolder);
+    }
+
     @Test
     public void testCreateBasicsDocument() throws Exception {
         testCreateNodeDocument("basics");
@@ -0,0 +1,56 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Test case for HtmlStreamWriter.
+ *
+ * @author Thomas Aglassinger
+ */
+public class HtmlStreamWriterTest {
+    private Document dom;
+
+    @Before
+    public void setUp() throws Exception {
+        dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+
+    private String written(Element element, String encoding) throws Exception {
+        StringWriter result = new StringWriter();
+        HtmlStreamWriter writer = new HtmlStreamWriter(result, DomWriter.Dtd.XHTML, encoding);
+        writer.writeNode(element);
+        return result.toString();
+    }
+
+    private Element createLink(String href, String text) {
+        Element result = dom.createElement("a");
+        result.setAttribute("href", href);
+        result.appendChild(dom.createTextNode(text));
+        return result;
+    }
+
+    @Test
+    public void testEscapedMarkup() throws Exception {
+        Element link = createLink("say \"<hi>\" & go", "say \"<hi>\" & go");
+        assertEquals("<a href=\"say &quot;&lt;hi&gt;&quot; &amp; go\">say \"&lt;hi&gt;\" &amp; go</a>", written(link,
+                "UTF-8"));
+    }
+
+    @Test
+    public void testEscapedCharacters() throws Exception {
+        // U+1D11E is the musical symbol G clef, which needs a surrogate pair.
+        Element link = createLink("caf\u00E9", "Gr\u00FC\u00DFe \u20AC \uD834\uDD1E");
+        assertEquals("<a href=\"caf\u00E9\">Gr\u00FC\u00DFe \u20AC \uD834\uDD1E</a>", written(link, "UTF-8"));
+        assertEquals("<a href=\"caf&#233;\">Gr&#252;&#223;e &#8364; &#119070;</a>", written(link, "US-ASCII"));
+        assertEquals("<a href=\"caf\u00E9\">Gr\u00FC\u00DFe &#8364; &#119070;</a>", written(link, "ISO-8859-1"));
+    }
+}
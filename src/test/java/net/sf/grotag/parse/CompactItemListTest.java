@@ -0,0 +1,74 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test for CompactItemList.
+ *
+ * @author Thomas Aglassinger
+ */
+public class CompactItemListTest {
+    private static final String GUIDE_TEXT = "@database test\n@node main \"Main node\"\n"
+            + "some @{b}bold@{ub} text with @{\"a link\" link other} and @{fg \"shine\"} \\@ \\\\\n"
+            + "some more text\n@endnode\n";
+
+    private List<AbstractItem> readItems() throws Exception {
+        ItemReader reader = new ItemReader(new StringSource(CompactItemListTest.class.getName(), GUIDE_TEXT));
+        reader.read();
+        return reader.getItems();
+    }
+
+    @Test
+    public void testSameItems() throws Exception {
+        List<AbstractItem> items = readItems();
+        CompactItemList compactItems = new CompactItemList(items);
+
+        assertEquals(items.size(), compactItems.size());
+        for (int itemIndex = 0; itemIndex < items.size(); itemIndex += 1) {
+            AbstractItem item = items.get(itemIndex);
+            AbstractItem compactItem = compactItems.get(itemIndex);
+            assertEquals(item.getClass(), compactItem.getClass());
+            assertEquals(item.toString(), compactItem.toString());
+            assertEquals(item.toPrettyAmigaguide(), compactItem.toPrettyAmigaguide());
+            assertSame(item.getFile(), compactItem.getFile());
+            if (item instanceof CommandItem) {
+                CommandItem command = (CommandItem) item;
+                if (command.isInline() && !command.isLink()) {
+                    assertNotSame(item, compactItem);
+                    assertEquals(item, compactItem);
+                } else {
+                    assertSame(item, compactItem);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSharedText() throws Exception {
+        CompactItemList compactItems = new CompactItemList(readItems());
+
+        // "some" and "text" occur twice but are stored only once.
+        assertTrue(compactItems.getCharCount() < GUIDE_TEXT.length() - "some".length() - "text".length());
+    }
+
+    @Test
+    public void testCannotModify() throws Exception {
+        CompactItemList compactItems = new CompactItemList(readItems());
+        AbstractItem firstItem = compactItems.get(0);
+        try {
+            compactItems.set(0, firstItem);
+            fail("compact items must not be modifiable");
+        } catch (UnsupportedOperationException expectedError) {
+            assertFalse(compactItems.isEmpty());
+        }
+    }
+}
@@ -6,8 +6,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -180,4 +183,42 @@ public class ItemReaderTest {
             logger.info(item.toString());
         }
     }
+
+    @Test
+    public void testLineSeparators() throws Exception {
+        StringSource source = createStringSource("testLineSeparators", "a\r\nb\rc\n\nd");
+        ItemReader reader = new ItemReader(source);
+        reader.read();
+        List<AbstractItem> items = reader.getItems();
+        assertEquals(9, items.size());
+        assertEquals("a", ((TextItem) items.get(0)).getText());
+        assertTrue(items.get(1) instanceof NewLineItem);
+        assertEquals(1, items.get(2).getLine());
+        assertEquals("c", ((TextItem) items.get(4)).getText());
+        assertEquals(2, items.get(4).getLine());
+        assertTrue(items.get(6) instanceof NewLineItem);
+        assertEquals("d", ((TextItem) items.get(7)).getText());
+        assertEquals(4, items.get(7).getLine());
+    }
+
+    @Test
+    public void testReadCharsOfMappedFile() throws Exception {
+        File largeFile = testTools.getTestActualFile("testReadCharsOfMappedFile.guide");
+        byte[] line = "@{b}Gr\u00fc\u00dfe@{ub} \u00a9 2008\r\n".getBytes("ISO-8859-1");
+        OutputStream largeOut = new BufferedOutputStream(new FileOutputStream(largeFile));
+        try {
+            for (int lineIndex = 0; lineIndex < 50000; lineIndex += 1) {
+                largeOut.write(line);
+            }
+        } finally {
+            largeOut.close();
+        }
+        assertTrue(largeFile.length() > 1024 * 1024);
+
+        FileSource source = new FileSource(largeFile);
+        char[] chars = source.readChars();
+        assertEquals(largeFile.length(), chars.length);
+        assertEquals(new String(line, "ISO-8859-1"), new String(chars, 0, line.length));
+        assertEquals('\u00fc', chars[chars.length - line.length + 6]);
+    }
 }
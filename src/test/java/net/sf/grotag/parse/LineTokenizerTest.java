@@ -143,6 +143,37 @@ public class LineTokenizerTest {
         testTokenizer("\u000cx", new String[] { "?", "x" });
     }
 
+    @Test
+    public void testFixedMissingQuoteAtEndOfLine() {
+        testTokenizer("@{\"", new String[] { "@", "{", "\"\"", "}" });
+    }
+
+    @Test
+    public void testReset() {
+        String text = "@{b}x\\y@{ub}\nhugo was here.  \n";
+        AbstractSource source = new StringSource(LineTokenizer.class.getName() + File.separator + "testReset", text);
+        LineTokenizer tokenizer = new LineTokenizer(source);
+        char[] chars = text.toCharArray();
+
+        tokenizer.reset(0, chars, 0, 12);
+        assertTokens(tokenizer, new String[] { "@", "{", "b", "}", "x\\\\y", "@", "{", "ub", "}" });
+        assertEquals(0, tokenizer.getLine());
+        tokenizer.reset(1, chars, 13, 16);
+        assertTokens(tokenizer, new String[] { "hugo", " ", "was", " ", "here." });
+        assertEquals(1, tokenizer.getLine());
+    }
+
+    private void assertTokens(LineTokenizer tokenizer, String[] expectedTokens) {
+        int expectedTokenCount = expectedTokens.length;
+
+        for (int i = 0; i < expectedTokenCount; i += 1) {
+            assertTrue("number of tokens must be " + expectedTokenCount + " but is " + i, tokenizer.hasNext());
+            tokenizer.advance();
+            assertEquals(expectedTokens[i], tokenizer.getToken());
+        }
+        assertFalse(tokenizer.hasNext());
+    }
+
     private void testTokenizer(String text, String[] expectedTokens) {
         AbstractSource source = new StringSource(LineTokenizer.class.getName() + File.separator + "testTokenizer", text);
         LineTokenizer tokenizer = new LineTokenizer(source, 3, text);
@@ -0,0 +1,38 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test for MacroExpansionCache.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class MacroExpansionCacheTest {
+    @Test
+    public void testCachedExpansion() throws Exception {
+        MacroExpansionCache cache = new MacroExpansionCache();
+        String sourceName = MacroExpansionCacheTest.class.getName() + "@macro-bold";
+        List<AbstractItem> items = cache.getItems(sourceName, "@{b}hugo@{ub}");
+        List<AbstractItem> cachedItems = cache.getItems(sourceName, "@{b}hugo@{ub}");
+        cache.getItems(sourceName, "@{b}sepp@{ub}");
+
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(items.size(), cachedItems.size());
+        for (int itemIndex = 0; itemIndex < items.size(); itemIndex += 1) {
+            AbstractItem item = items.get(itemIndex);
+            AbstractItem cachedItem = cachedItems.get(itemIndex);
+            assertEquals(item.toPrettyAmigaguide(), cachedItem.toPrettyAmigaguide());
+            if (item instanceof CommandItem) {
+                assertNotSame(item, cachedItem);
+                assertTrue(((CommandItem) cachedItem).isInline());
+            }
+        }
+    }
+}
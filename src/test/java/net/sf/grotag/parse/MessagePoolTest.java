@@ -0,0 +1,144 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for MessagePool.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class MessagePoolTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int MESSAGES_PER_THREAD = 500;
+
+    private List<MessageItem> writtenItems;
+    private boolean isClosed;
+    private MessagePool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        writtenItems = new ArrayList<MessageItem>();
+        pool = new MessagePool();
+        pool.setSink(new MessageSink() {
+            public void write(List<MessageItem> messages) {
+                writtenItems.addAll(messages);
+            }
+
+            public void close() {
+                isClosed = true;
+            }
+        });
+    }
+
+    @Test
+    public void testSinkGetsMessagesInOrder() throws Exception {
+        AbstractSource source = new StringSource(MessagePoolTest.class.getName(), "");
+        for (int line = 10; line > 0; line -= 1) {
+            pool.add(source, line, 0, "line " + line);
+        }
+        pool.close();
+        assertTrue(isClosed);
+        assertEquals(10, writtenItems.size());
+        assertEquals(10, writtenItems.get(0).getLine());
+        assertEquals(1, writtenItems.get(9).getLine());
+
+        // Messages added after closing are still collected.
+        pool.add(source, 11, 0, "line 11");
+        assertEquals(11, pool.getItems().size());
+        assertEquals(1, pool.getItems().first().getLine());
+        assertEquals(11, pool.getItems().last().getLine());
+        assertEquals(10, writtenItems.size());
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final AbstractSource source = new StringSource(MessagePoolTest.class.getName(), "");
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int threadIndex = 0; threadIndex < THREAD_COUNT; threadIndex += 1) {
+            final int firstLine = threadIndex * MESSAGES_PER_THREAD + 1;
+            threads[threadIndex] = new Thread(new Runnable() {
+                public void run() {
+                    for (int line = firstLine; line < firstLine + MESSAGES_PER_THREAD; line += 1) {
+                        pool.add(source, line, 0, "line " + line);
+                    }
+                }
+            });
+            threads[threadIndex].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pool.flush();
+
+        int messageCount = THREAD_COUNT * MESSAGES_PER_THREAD;
+        assertEquals(messageCount, writtenItems.size());
+        int expectedLine = 1;
+        for (MessageItem item : pool.getItems()) {
+            assertEquals(expectedLine, item.getLine());
+            expectedLine += 1;
+        }
+        assertEquals(messageCount + 1, expectedLine);
+    }
+
+    @Test
+    public void testDeliveryThreadIsReused() throws Exception {
+        final List<Thread> deliveryThreads = new ArrayList<Thread>();
+        final List<MessageItem> deliveredItems = new ArrayList<MessageItem>();
+        AbstractSource source = new StringSource(MessagePoolTest.class.getName(), "");
+        pool.setSink(new MessageSink() {
+            public synchronized void write(List<MessageItem> messages) {
+                if (!deliveryThreads.contains(Thread.currentThread())) {
+                    deliveryThreads.add(Thread.currentThread());
+                }
+                deliveredItems.addAll(messages);
+                notifyAll();
+            }
+
+            public void close() {
+                // Do nothing.
+            }
+        });
+        MessageSink sink = pool.getSink();
+
+        // Add messages one at a time, each of them after the previous one
+        // has been delivered.
+        for (int line = 1; line <= 10; line += 1) {
+            pool.add(source, line, 0, "line " + line);
+            synchronized (sink) {
+                long timeout = System.currentTimeMillis() + 10000;
+                while ((deliveredItems.size() < line) && (System.currentTimeMillis() < timeout)) {
+                    sink.wait(100);
+                }
+                assertEquals(line, deliveredItems.size());
+            }
+        }
+        assertEquals(1, deliveryThreads.size());
+    }
+
+    @Test
+    public void testMaxItemsPerSource() throws Exception {
+        AbstractSource source = new StringSource(MessagePoolTest.class.getName(), "");
+        AbstractSource otherSource = new StringSource(MessagePoolTest.class.getName() + ".other", "");
+        pool.setMaxItemsPerSource(3);
+        pool.startRecording();
+        for (int line = 1; line <= 5; line += 1) {
+            pool.add(source, line, 0, "line " + line);
+        }
+        pool.add(otherSource, 1, 0, "other line 1");
+        List<MessageItem> recordedItems = pool.stopRecording();
+        pool.flush();
+
+        assertEquals(6, recordedItems.size());
+        assertEquals(4, pool.getItems().size());
+        assertEquals(4, writtenItems.size());
+        assertEquals(2, pool.getSuppressedItemCount());
+    }
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
@@ -45,4 +46,26 @@ public class TagPoolTest {
         assertFalse(linkType.startsWith(","));
         assertTrue(linkType.indexOf(',') > 0);
     }
+
+    @Test
+    public void testFindGlobalTagInNodeScope() {
+        Tag tag = tagPool.getTag("database", Tag.Scope.NODE);
+        assertNotNull(tag);
+        assertEquals(Tag.Scope.GLOBAL, tag.getScope());
+        assertNull(StandardTagTable.getInstance().getTag("database", Tag.Scope.NODE));
+    }
+
+    @Test
+    public void testAddMacro() {
+        StringSource source = new StringSource(TagPoolTest.class.getName() + "/testAddMacro", "");
+        Tag macro = Tag.createMacro("b", new TextItem(source, 0, 0, "hugo"));
+        tagPool.addTag(macro);
+        assertSame(macro, tagPool.getMacro("B"));
+
+        // Other pools must still see the standard tag.
+        TagPool otherPool = new TagPool();
+        assertNull(otherPool.getMacro("b"));
+        assertSame(StandardTagTable.getInstance().getTag("b", Tag.Scope.INLINE), otherPool.getTag("b",
+                Tag.Scope.INLINE));
+    }
 }
@@ -0,0 +1,46 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for TextItem.
+ *
+ * @author Thomas Aglassinger
+ */
+public class TextItemTest {
+    private AbstractSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        source = new StringSource(TextItemTest.class.getName(), "");
+    }
+
+    @Test
+    public void testTextWithoutEscapes() {
+        String text = "hugo sepp";
+        TextItem item = new TextItem(source, 1, 2, text);
+        assertSame(text, item.getText());
+        assertEquals(1, item.getLine());
+        assertEquals(2, item.getColumn());
+        assertEquals("", new TextItem(source, 1, 2, "").getText());
+    }
+
+    @Test
+    public void testTextWithEscapes() {
+        assertEquals("@", new TextItem(source, 1, 0, "\\@").getText());
+        assertEquals("\\", new TextItem(source, 1, 0, "\\\\").getText());
+        assertEquals("hugo@example.com", new TextItem(source, 1, 0, "hugo\\@example.com").getText());
+        assertEquals("a\\b@c", new TextItem(source, 1, 0, "a\\\\b\\@c").getText());
+        assertEquals("@@", new TextItem(source, 1, 0, "\\@\\@").getText());
+    }
+
+    @Test
+    public void testPrettyAmigaguide() {
+        assertEquals("hugo", new TextItem(source, 1, 0, "hugo").toPrettyAmigaguide());
+        assertEquals("\\\\", new TextItem(source, 1, 0, "\\\\").toPrettyAmigaguide());
+    }
+}
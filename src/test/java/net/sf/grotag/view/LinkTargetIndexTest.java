@@ -0,0 +1,103 @@
+package net.sf.grotag.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import net.sf.grotag.common.TestTools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for LinkTargetIndex.
+ *
+ * @author Thomas Aglassinger
+ */
+public class LinkTargetIndexTest {
+    private TestTools testTools;
+    private LinkTargetIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+        index = new LinkTargetIndex(Collections.<URI> emptySet());
+    }
+
+    @Test
+    public void testGetTargetType() throws Exception {
+        URI nodePageUri = new URI("file:/pile/root/index.html");
+        Set<URI> nodePageUris = new HashSet<URI>();
+        nodePageUris.add(nodePageUri);
+        index = new LinkTargetIndex(nodePageUris);
+        index.addNodePage(new URI("file:/pile/red/index.html"));
+
+        // Node pages are recognized even with a different but equivalent
+        // URI.
+        assertEquals(LinkTargetIndex.TargetType.NODE_PAGE, index.getTargetType(nodePageUri));
+        assertEquals(LinkTargetIndex.TargetType.NODE_PAGE, index.getTargetType(new URI(
+                "file:/pile/root/../red/index.html")));
+
+        // Exported files are classified by the result of the export.
+        index.addNonGuideFile(new URI("file:/pile/root/amigaball.png"), true);
+        index.addNonGuideFile(new URI("file:/pile/root/linked.txt"), false);
+        index.addNonGuideFile(new URI("file:/pile/root/photo.JPG"), false);
+        assertEquals(LinkTargetIndex.TargetType.IMAGE, index.getTargetType(new URI("file:/pile/root/amigaball.png")));
+        assertEquals(LinkTargetIndex.TargetType.OTHER, index.getTargetType(new URI("file:/pile/root/linked.txt")));
+        assertEquals(LinkTargetIndex.TargetType.IMAGE, index.getTargetType(new URI("file:/pile/root/photo.JPG")));
+
+        // Other files are classified by their suffix without reading them.
+        assertEquals(LinkTargetIndex.TargetType.IMAGE, index.getTargetType(new URI("file:/missing/picture.png")));
+        assertEquals(LinkTargetIndex.TargetType.OTHER, index.getTargetType(new URI("file:/missing/page.html")));
+        assertEquals(LinkTargetIndex.TargetType.OTHER, index.getTargetType(new URI("file:/missing/readme")));
+    }
+
+    private URI createImage(String name) throws Exception {
+        File imageFile = testTools.getTestActualFile(testTools.getTestName(LinkTargetIndexTest.class, name) + ".png");
+        imageFile.getParentFile().mkdirs();
+        ImageIO.write(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), "png", imageFile);
+        return imageFile.toURI();
+    }
+
+    @Test
+    public void testImageCacheEvictsLeastRecentlyUsed() throws Exception {
+        URI[] imageUris = new URI[LinkTargetIndex.MAX_CACHED_IMAGES + 1];
+        for (int imageIndex = 0; imageIndex < imageUris.length; imageIndex += 1) {
+            imageUris[imageIndex] = createImage("image" + imageIndex);
+        }
+
+        // Fill the cache, and use the first image again so that the second
+        // one is the least recently used.
+        BufferedImage firstImage = index.getImage(imageUris[0]);
+        BufferedImage secondImage = index.getImage(imageUris[1]);
+        assertNotNull(firstImage);
+        assertNotNull(secondImage);
+        for (int imageIndex = 2; imageIndex < LinkTargetIndex.MAX_CACHED_IMAGES; imageIndex += 1) {
+            index.getImage(imageUris[imageIndex]);
+        }
+        assertSame(firstImage, index.getImage(imageUris[0]));
+
+        // Adding one more image evicts the least recently used one.
+        index.getImage(imageUris[LinkTargetIndex.MAX_CACHED_IMAGES]);
+        assertSame(firstImage, index.getImage(imageUris[0]));
+        assertNotSame(secondImage, index.getImage(imageUris[1]));
+    }
+
+    @Test
+    public void testNonImage() throws Exception {
+        URI textUri = testTools.getTestInputFile("linked.txt").toURI();
+        assertNull(index.getImage(textUri));
+        assertEquals(LinkTargetIndex.TargetType.OTHER, index.getTargetType(textUri));
+    }
+}